@@ -3,8 +3,16 @@ package com.github.kjburns.pdfmarker;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
 
 import com.sun.istack.internal.NotNull;
 
@@ -12,15 +20,72 @@ import com.sun.istack.internal.NotNull;
  * An abstract pdf renderer that takes care of the generalities of rendering a portion
  * of a pdf, but does not lock in PdfBox as the pdf platform in use.
  * <p>
- * This implementation assumes that pdf pages are to be arranged in a line vertically--of course, this
- * is determined by whatever methodology was used to arrange the pages in the coordinate manager.
- * As such, the horizontal bounds of individual pages are not checked in determining whether pages
- * are visible. If that level of nuance is required, a more refined implementation will be required.
+ * Pages may be arranged in rows of any number of columns, as determined by the coordinate manager.
+ * Both the horizontal and vertical bounds of each page are checked in determining whether it is visible, 
+ * using the coordinate manager's index of rows and of the pages within each row, so finding the visible
+ * pages takes logarithmic time no matter how many pages or columns there are.
+ * </p>
+ * <p>
+ * Pages are not drawn directly to the screen. Instead, each page is rendered in square tiles at the 
+ * resolution of the target graphics context, and the tiles are kept in a {@link PageTileCache} so that
+ * later paints of the same region only need to copy pixels.
+ * </p>
+ * <p>
+ * Tiles that are not yet in the cache are rendered on background threads by a 
+ * {@link PageRenderScheduler}. Until a tile is ready, a placeholder is painted in its place, and
+ * registered {@link PdfRenderer.RegionRenderedListener}s are notified once the tile can be painted.
+ * Pages just beyond the visible ones, in the direction the view is moving, are rendered ahead of time 
+ * as chosen by a {@link PagePrefetcher}. Where a single tile costs as much to render as the whole page,
+ * neighboring tiles are rendered together a block at a time, and tiles waiting on the same block share it.
+ * </p>
+ * <p>
+ * Tiles are rendered at the current {@link PdfRenderer.RenderQuality}. Draft tiles stay on screen
+ * after the quality is raised, until the full quality tiles that replace them are ready.
+ * </p>
+ * <p>
+ * A small base level image of every page that comes near the view is also rendered and kept by a
+ * {@link PagePyramid}. When the zoom level changes, tiles that have not been rendered at the new zoom
+ * are stood in for by the base level and by any cached tiles of the nearest other zoom level, scaled
+ * to fit, until the sharp tiles are ready. Base levels are kept on disk between sessions for documents
+ * whose {@link #getDocumentFingerprint_rNull() fingerprint} is known, so reopening such a document shows
+ * its pages as soon as they are read back rather than once they are rendered.
  * </p>
  * @author Kevin J. Burns, P.E.
  *
  */
 public abstract class AbstractPdfRenderer implements PdfRenderer {
+	/**
+	 * Edge length of a tile, in device pixels
+	 */
+	private static final int TILE_SIZE = 256;
+	/**
+	 * Edge length, in tiles, of the blocks that tiles are rendered in when each tile would otherwise
+	 * cost as much as the whole page
+	 */
+	private static final int TILES_PER_BLOCK = 4;
+	private static final long DEFAULT_TILE_CACHE_BYTE_BUDGET = 
+			Math.min(256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
+	
+	private static final Color PLACEHOLDER_COLOR = new Color(0xE8E8E8);
+	
+	private final PageTileCache tileCache = new PageTileCache(DEFAULT_TILE_CACHE_BYTE_BUDGET);
+	private final List<RegionRenderedListener> regionListeners = new ArrayList<>();
+	private final PagePrefetcher prefetcher = new PagePrefetcher();
+	private final PagePyramid pyramid = new PagePyramid();
+	private final InFlightWork<PageTileCache.TileKey, BufferedImage> tileBlocks = new InFlightWork<>();
+	/*
+	 * pages whose base level has been looked for in the disk cache since the document was opened
+	 */
+	private final BitSet persistedBaseLevelsLookedUp = new BitSet();
+	private PageRenderScheduler scheduler = null;
+	private boolean disposed = false;
+	private RenderQuality renderQuality = RenderQuality.FULL;
+	/*
+	 * reused for the page being painted or prefetched, so that neither allocates per page per frame
+	 */
+	private final PageBounds paintPageBounds = new PageBounds();
+	private final PageBounds prefetchPageBounds = new PageBounds();
+	
 	/**
 	 * Gets a coordinate manager that describes the location of each page.
 	 * Implementors must not return {@code null}.
@@ -35,10 +100,111 @@ public abstract class AbstractPdfRenderer implements PdfRenderer {
 	protected abstract int getPageCount();
 	/**
 	 * Renders a single page. The upper left corner of the page should be placed at (0, 0) in the provided graphics context.
+	 * <p>
+	 * This is called on a render worker thread. The work may be cancelled if the page scrolls out of view, so
+	 * implementations should check {@link PageRenderScheduler#isCurrentRenderCancelled()} frequently and
+	 * throw a {@link java.util.concurrent.CancellationException} once it returns {@code true}.
+	 * </p>
 	 * @param g2d the graphics context to draw on
 	 * @param pageNr the zero-based page number of the pdf to render
+	 * @param quality how carefully to render the page
+	 */
+	protected abstract void renderPage(final @NotNull Graphics2D g2d, int pageNr, @NotNull RenderQuality quality);
+	/**
+	 * Gets the number of pages that may be rendered at the same time. 
+	 * Implementations that cannot render from more than one thread must return 1, which is the default.
+	 * @return the number of render worker threads to use
+	 */
+	protected int getRenderThreadCount() {
+		return 1;
+	}
+	/**
+	 * Gets the {@link DocumentFingerprint} of the document, which enables keeping low resolution
+	 * page images on disk between sessions. Returns {@code null} by default.
+	 * @return the fingerprint, or {@code null} if it is not known
+	 */
+	protected String getDocumentFingerprint_rNull() {
+		return null;
+	}
+
+	private PageRenderScheduler getScheduler() {
+		if (scheduler == null) {
+			scheduler = new PageRenderScheduler(getRenderThreadCount());
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Changes the amount of memory that may be used to hold rendered page tiles.
+	 * @param bytes the new budget, in bytes
+	 * @throws IllegalArgumentException if {@code bytes} is negative
+	 */
+	public void setTileCacheByteBudget(long bytes) {
+		tileCache.setByteBudget(bytes);
+	}
+
+	/**
+	 * Changes how many pages beyond the visible ones are rendered ahead of time in the
+	 * direction of travel, when the view is not moving quickly.
+	 * @param pages the number of pages to prefetch
+	 * @throws IllegalArgumentException if {@code pages} is negative
+	 */
+	public void setPrefetchPageCount(int pages) {
+		prefetcher.setPagesAhead(pages);
+	}
+
+	@Override
+	public void addRegionRenderedListener(RegionRenderedListener l) {
+		if (l == null) {
+			throw new IllegalArgumentException();
+		}
+		if (!regionListeners.contains(l)) {
+			regionListeners.add(l);
+		}
+	}
+
+	@Override
+	public void removeRegionRenderedListener(RegionRenderedListener l) {
+		regionListeners.remove(l);
+	}
+
+	@Override
+	public void setRenderQuality(RenderQuality quality) {
+		if (quality == null) {
+			throw new IllegalArgumentException();
+		}
+		renderQuality = quality;
+	}
+
+	@Override
+	public RenderQuality getRenderQuality() {
+		return renderQuality;
+	}
+
+	/**
+	 * Stops background rendering and empties the tile cache. This does not wait for render jobs
+	 * that are already running; once they have stopped, {@link #releaseRenderResources()} is called.
+	 */
+	@Override
+	public void dispose() {
+		disposed = true;
+		if (scheduler != null) {
+			scheduler.shutdown(this::releaseRenderResources);
+		} else {
+			releaseRenderResources();
+		}
+		tileCache.clear();
+		pyramid.clear();
+		regionListeners.clear();
+	}
+
+	/**
+	 * Releases anything that {@link #renderPage(Graphics2D, int, RenderQuality)} depends on.
+	 * Called once after {@link #dispose()}, when no render job is running any longer;
+	 * this may be on a background thread. The default implementation does nothing.
 	 */
-	protected abstract void renderPage(final @NotNull Graphics2D g2d, int pageNr);
+	protected void releaseRenderResources() {
+	}
 
 	@Override
 	public void renderVisiblePortion(Graphics g, Rectangle2D visibleBounds) {
@@ -47,57 +213,575 @@ public abstract class AbstractPdfRenderer implements PdfRenderer {
 			throw new RuntimeException("Concrete subclass of AbstractPdfRenderer returned null CoordinateManager.");
 		}
 		
+		if (disposed) {
+			return;
+		}
+		
 		final Graphics2D g2d = (Graphics2D)g;
 		final int firstVisiblePage = getFirstVisiblePage(visibleBounds);
 		if (firstVisiblePage < 0) {
 			return;
 		}
-		final int lastVisiblePage = getLastVisiblePage(visibleBounds, firstVisiblePage);
+		final int lastVisiblePage = getLastVisiblePage(visibleBounds);
 		if (lastVisiblePage < 0) {
 			return;
 		}
-	
-		for (int pageNr = firstVisiblePage; pageNr <= lastVisiblePage; pageNr++) {
+		/*
+		 * only asks for the pages to be laid out; if they move, listeners are told later and the view is repainted
+		 */
+		coordManager.ensureLaidOut(firstVisiblePage, lastVisiblePage);
+		final float zoom = getDeviceZoom(g2d);
+		pyramid.useLevel(zoom);
+		
+		final Rectangle2D paintBounds = getPaintBounds_rNull(g2d, visibleBounds);
+		if (paintBounds != null) {
+			paintPages(g2d, paintBounds, zoom);
+		}
+		
+		prefetchAround(firstVisiblePage, lastVisiblePage, visibleBounds, zoom);
+	}
+
+	/**
+	 * Gets the part of the visible bounds that actually needs painting, which is only the
+	 * newly exposed strip when the view has been scrolled by copying what was already on screen.
+	 * @return the portion of {@code visibleBounds} within the clip of the graphics context,
+	 * or {@code null} if there is none
+	 */
+	private static Rectangle2D getPaintBounds_rNull(@NotNull Graphics2D g2d, @NotNull Rectangle2D visibleBounds) {
+		final Rectangle clipBounds = g2d.getClipBounds();
+		if (clipBounds == null) {
+			return visibleBounds;
+		}
+		final Rectangle2D ret = visibleBounds.createIntersection(clipBounds);
+		if (ret.isEmpty()) {
+			return null;
+		}
+		return ret;
+	}
+
+	/**
+	 * Paints the pages that intersect some bounds, which must be in document coordinates.
+	 */
+	private void paintPages(@NotNull Graphics2D g2d, @NotNull Rectangle2D paintBounds, float zoom) {
+		final PdfPageCoordinateManager coordManager = getCoordinateManager();
+		coordManager.forEachPageInRegion(paintBounds, (pageNr) -> {
 			final AffineTransform oldTransform = g2d.getTransform();
-			final PdfPageRectangle coords = coordManager.getPageOverallCoordinates(pageNr);
+			final PdfPageRectangle coords = paintPageBounds.set(coordManager, pageNr);
 			g2d.translate(coords.getLeftX(), coords.getTopY());
-			renderPage(g2d, pageNr);
+			paintPageTiles(g2d, pageNr, coords, paintBounds, zoom);
 	
-			final PdfPageRectangle localCoords = coordManager.getPageLocalCoordinates(pageNr);
 			g2d.setColor(Color.BLACK);
-			g2d.drawRect((int)localCoords.getLeftX(), (int)localCoords.getBottomY(), 
-					(int)(localCoords.getRightX() - localCoords.getLeftX()), 
-					(int)(localCoords.getTopY() - localCoords.getBottomY()));
+			g2d.drawRect(0, 0, (int)(coords.getRightX() - coords.getLeftX()), 
+					(int)(coords.getBottomY() - coords.getTopY()));
 			g2d.setTransform(oldTransform);
+		});
+	}
+
+	/**
+	 * Gets the number of device pixels per unit of document space for the supplied graphics context.
+	 */
+	private static float getDeviceZoom(@NotNull Graphics2D g2d) {
+		final AffineTransform transform = g2d.getTransform();
+		final float zoom = (float)Math.hypot(transform.getScaleX(), transform.getShearY());
+		if (zoom <= 0) {
+			return 1;
+		}
+		return zoom;
+	}
+
+	/**
+	 * The overall coordinates of a page, read through the primitive getters of a coordinate manager into
+	 * an object that is reused from page to page. Nothing may keep a reference to it beyond the page
+	 * it was last set to.
+	 */
+	private static final class PageBounds implements PdfPageRectangle {
+		private float left;
+		private float right;
+		private float top;
+		private float bottom;
+
+		PageBounds set(@NotNull PdfPageCoordinateManager coordManager, int pageNr) {
+			left = coordManager.getPageLeftX(pageNr);
+			right = coordManager.getPageRightX(pageNr);
+			top = coordManager.getPageTopY(pageNr);
+			bottom = coordManager.getPageBottomY(pageNr);
+			return this;
+		}
+
+		@Override
+		public float getLeftX() {
+			return left;
+		}
+
+		@Override
+		public float getRightX() {
+			return right;
+		}
+
+		@Override
+		public float getTopY() {
+			return top;
+		}
+
+		@Override
+		public float getBottomY() {
+			return bottom;
+		}
+	}
+
+	/**
+	 * The tiles of a single page that intersect some region, at some zoom level.
+	 */
+	private static final class TileRange {
+		private final int pageWidthPx;
+		private final int pageHeightPx;
+		private final int firstTileX;
+		private final int lastTileX;
+		private final int firstTileY;
+		private final int lastTileY;
+
+		private TileRange(int pageWidthPx, int pageHeightPx, 
+				int firstTileX, int lastTileX, int firstTileY, int lastTileY) {
+			this.pageWidthPx = pageWidthPx;
+			this.pageHeightPx = pageHeightPx;
+			this.firstTileX = firstTileX;
+			this.lastTileX = lastTileX;
+			this.firstTileY = firstTileY;
+			this.lastTileY = lastTileY;
+		}
+
+		/**
+		 * @param coords overall coordinates of the page
+		 * @param bounds the region of interest, in document coordinates
+		 * @param zoom device pixels per unit of document space
+		 * @return the tiles of the page intersecting {@code bounds}, or {@code null} if there are none
+		 */
+		static TileRange create_rNull(@NotNull PdfPageRectangle coords, @NotNull Rectangle2D bounds, float zoom) {
+			final double pageWidth = coords.getRightX() - coords.getLeftX();
+			final double pageHeight = coords.getBottomY() - coords.getTopY();
+			final int pageWidthPx = (int)Math.ceil(pageWidth * zoom);
+			final int pageHeightPx = (int)Math.ceil(pageHeight * zoom);
+			
+			/*
+			 * portion of the page within the bounds, in page-local device pixels
+			 */
+			final double leftPx = Math.max(0, (bounds.getMinX() - coords.getLeftX()) * zoom);
+			final double rightPx = Math.min(pageWidthPx, (bounds.getMaxX() - coords.getLeftX()) * zoom);
+			final double topPx = Math.max(0, (bounds.getMinY() - coords.getTopY()) * zoom);
+			final double bottomPx = Math.min(pageHeightPx, (bounds.getMaxY() - coords.getTopY()) * zoom);
+			if (leftPx >= rightPx || topPx >= bottomPx) {
+				return null;
+			}
+			
+			return new TileRange(pageWidthPx, pageHeightPx,
+					(int)(leftPx / TILE_SIZE), (int)Math.ceil(rightPx / TILE_SIZE) - 1,
+					(int)(topPx / TILE_SIZE), (int)Math.ceil(bottomPx / TILE_SIZE) - 1);
+		}
+	}
+
+	/**
+	 * Paints the tiles of a page that intersect some bounds. The graphics context must
+	 * already be translated so that the upper left corner of the page is at (0, 0).
+	 */
+	private void paintPageTiles(@NotNull Graphics2D g2d, int pageNr, @NotNull PdfPageRectangle coords,
+			@NotNull Rectangle2D paintBounds, float zoom) {
+		final TileRange tiles = TileRange.create_rNull(coords, paintBounds, zoom);
+		if (tiles == null) {
+			return;
+		}
+		
+		final AffineTransform pageTransform = g2d.getTransform();
+		g2d.scale(1 / zoom, 1 / zoom);
+		for (int tileY = tiles.firstTileY; tileY <= tiles.lastTileY; tileY++) {
+			for (int tileX = tiles.firstTileX; tileX <= tiles.lastTileX; tileX++) {
+				final PageTileCache.TileKey key = 
+						new PageTileCache.TileKey(pageNr, zoom, renderQuality, tileX, tileY);
+				final BufferedImage tile = getBestCachedTile_rNull(key);
+				if (tile != null) {
+					g2d.drawImage(tile, tileX * TILE_SIZE, tileY * TILE_SIZE, null);
+				}
+				if (!isCached(key)) {
+					if (tile == null) {
+						requestBaseLevel(pageNr, PageRenderScheduler.Priority.VISIBLE, coords);
+					}
+					requestTile(key, PageRenderScheduler.Priority.VISIBLE, coords, 
+							tiles.pageWidthPx, tiles.pageHeightPx);
+				}
+				if (tile == null) {
+					paintStandIn(g2d, key, coords, tiles.pageWidthPx, tiles.pageHeightPx);
+				}
+			}
+		}
+		g2d.setTransform(pageTransform);
+	}
+
+	/**
+	 * Requests rendering of the tiles of a page that is not visible but is expected to be soon.
+	 * Only the tiles within the horizontal extent of the visible bounds are requested.
+	 */
+	private void prefetchPage(int pageNr, @NotNull PdfPageRectangle coords, 
+			@NotNull Rectangle2D visibleBounds, float zoom) {
+		final Rectangle2D bounds = new Rectangle2D.Double(visibleBounds.getMinX(), coords.getTopY(), 
+				visibleBounds.getWidth(), coords.getBottomY() - coords.getTopY());
+		final TileRange tiles = TileRange.create_rNull(coords, bounds, zoom);
+		if (tiles == null) {
+			return;
+		}
+		
+		requestBaseLevel(pageNr, PageRenderScheduler.Priority.PREFETCH, coords);
+		for (int tileY = tiles.firstTileY; tileY <= tiles.lastTileY; tileY++) {
+			for (int tileX = tiles.firstTileX; tileX <= tiles.lastTileX; tileX++) {
+				final PageTileCache.TileKey key = 
+						new PageTileCache.TileKey(pageNr, zoom, renderQuality, tileX, tileY);
+				if (!isCached(key)) {
+					requestTile(key, PageRenderScheduler.Priority.PREFETCH, coords, 
+							tiles.pageWidthPx, tiles.pageHeightPx);
+				}
+			}
 		}
 	}
 
-	private int getLastVisiblePage(@NotNull Rectangle2D visibleBounds, int firstVisiblePage) {
+	/**
+	 * Prefetches the pages around the visible ones that the prefetcher expects to be needed soon,
+	 * and cancels queued and running work for pages that have fallen outside that window, or
+	 * for tiles that were requested at a different zoom level or render quality.
+	 */
+	private void prefetchAround(int firstVisiblePage, int lastVisiblePage, 
+			@NotNull Rectangle2D visibleBounds, float zoom) {
+		final PdfPageCoordinateManager coordManager = getCoordinateManager();
 		final int pageCount = getPageCount();
+		final PdfPageRectangle docBounds = coordManager.getBoundsOfDocument();
+		final double averagePageHeight = (docBounds.getBottomY() - docBounds.getTopY()) / pageCount;
+		
+		prefetcher.viewportMoved(visibleBounds.getMinY(), System.nanoTime());
+		prefetcher.updateWindow(firstVisiblePage, lastVisiblePage, pageCount, averagePageHeight);
+		final int windowFirstPage = prefetcher.getWindowFirstPage();
+		final int windowLastPage = prefetcher.getWindowLastPage();
+		coordManager.ensureLaidOut(windowFirstPage, windowLastPage);
+		
+		final RenderQuality quality = renderQuality;
+		getScheduler().cancel((key) -> {
+			if ((key.getPageNr() < windowFirstPage) || (key.getPageNr() > windowLastPage)) {
+				return true;
+			}
+			return !PagePyramid.isBaseLevel(key) && ((key.getZoom() != zoom) || (key.getQuality() != quality));
+		});
 		
-		for (int i = firstVisiblePage; i < pageCount; i++) {
-			final PdfPageRectangle coords = getCoordinateManager().getPageOverallCoordinates(i);
-			if (coords.getTopY() > visibleBounds.getMaxY()) {
-				return i - 1;
+		/*
+		 * nearest pages first, so they are queued first
+		 */
+		for (int distance = 1; ; distance++) {
+			final int below = lastVisiblePage + distance;
+			final int above = firstVisiblePage - distance;
+			final boolean belowInWindow = below <= windowLastPage;
+			final boolean aboveInWindow = above >= windowFirstPage;
+			if (!belowInWindow && !aboveInWindow) {
+				break;
+			}
+			if (belowInWindow) {
+				prefetchPage(below, prefetchPageBounds.set(coordManager, below), visibleBounds, zoom);
+			}
+			if (aboveInWindow) {
+				prefetchPage(above, prefetchPageBounds.set(coordManager, above), visibleBounds, zoom);
 			}
 		}
-	
-		return pageCount - 1;
 	}
 
-	private int getFirstVisiblePage(@NotNull Rectangle2D visibleBounds) {
+	private void requestTile(@NotNull PageTileCache.TileKey key, @NotNull PageRenderScheduler.Priority priority,
+			@NotNull PdfPageRectangle coords, int pageWidthPx, int pageHeightPx) {
+		final Rectangle2D region = getTileRegion(key, coords, pageWidthPx, pageHeightPx);
+		getScheduler().submit(key, priority, 
+				() -> renderTile(key, pageWidthPx, pageHeightPx),
+				(tile) -> cacheTile(key, tile),
+				() -> fireRegionRendered(region));
+	}
+
+	private void cacheTile(@NotNull PageTileCache.TileKey key, @NotNull BufferedImage tile) {
+		tileCache.put(key, tile);
+		if (key.getQuality() == RenderQuality.FULL) {
+			tileCache.remove(key.withQuality(RenderQuality.DRAFT));
+		}
+	}
+
+	/**
+	 * Determines whether a tile is cached at its own render quality or better.
+	 */
+	private boolean isCached(@NotNull PageTileCache.TileKey key) {
+		return (tileCache.get(key.withQuality(RenderQuality.FULL)) != null)
+				|| (tileCache.get(key) != null);
+	}
+
+	/**
+	 * Gets the best quality rendering of a tile that is cached, regardless of the quality it was requested at.
+	 * @return the cached tile, or {@code null} if the tile is not cached at any quality
+	 */
+	private BufferedImage getBestCachedTile_rNull(@NotNull PageTileCache.TileKey key) {
+		final BufferedImage ret = tileCache.get(key.withQuality(RenderQuality.FULL));
+		if (ret != null) {
+			return ret;
+		}
+		return tileCache.get(key.withQuality(RenderQuality.DRAFT));
+	}
+
+	/**
+	 * Requests rendering of the base level of a page, unless it is already available.
+	 */
+	private void requestBaseLevel(int pageNr, @NotNull PageRenderScheduler.Priority priority,
+			@NotNull PdfPageRectangle coords) {
+		if (pyramid.getBaseLevel(pageNr) != null) {
+			return;
+		}
+		final String fingerprint = getDocumentFingerprint_rNull();
+		final double pageWidth = coords.getRightX() - coords.getLeftX();
+		final double pageHeight = coords.getBottomY() - coords.getTopY();
+		final float zoom = PagePyramid.getBaseLevelZoom(pageWidth, pageHeight);
+		final int widthPx = Math.max(1, (int)Math.ceil(pageWidth * zoom));
+		final int heightPx = Math.max(1, (int)Math.ceil(pageHeight * zoom));
+		final Rectangle2D region = new Rectangle2D.Double(coords.getLeftX(), coords.getTopY(), pageWidth, pageHeight);
+		if (priority == PageRenderScheduler.Priority.VISIBLE && fingerprint != null 
+				&& !persistedBaseLevelsLookedUp.get(pageNr)) {
+			/*
+			 * a base level kept from an earlier session is read on the disk cache's own thread, 
+			 * rather than waiting behind the tiles already queued, and the page is only rendered if there is none
+			 */
+			persistedBaseLevelsLookedUp.set(pageNr);
+			PagePyramid.readPersistedBaseLevelLater(fingerprint, pageNr, (persisted) -> SwingUtilities.invokeLater(() -> {
+				if (disposed) {
+					return;
+				}
+				if (persisted != null) {
+					pyramid.putBaseLevel(pageNr, persisted);
+					fireRegionRendered(region);
+				}
+				else {
+					submitBaseLevel(pageNr, priority, fingerprint, zoom, widthPx, heightPx, region);
+				}
+			}));
+			return;
+		}
+		submitBaseLevel(pageNr, priority, fingerprint, zoom, widthPx, heightPx, region);
+	}
+
+	/**
+	 * Submits rendering of the base level of a page, which is read from the disk cache instead if it is there.
+	 */
+	private void submitBaseLevel(int pageNr, @NotNull PageRenderScheduler.Priority priority, String fingerprint,
+			float zoom, int widthPx, int heightPx, @NotNull Rectangle2D region) {
+		getScheduler().submit(PagePyramid.getBaseLevelKey(pageNr), priority,
+				() -> {
+					final BufferedImage persisted = PagePyramid.readPersistedBaseLevel_rNull(fingerprint, pageNr);
+					if (persisted != null) {
+						return persisted;
+					}
+					final BufferedImage ret = renderImage(pageNr, zoom, RenderQuality.FULL, 0, 0, widthPx, heightPx);
+					PagePyramid.persistBaseLevel(fingerprint, pageNr, ret);
+					return ret;
+				},
+				(image) -> pyramid.putBaseLevel(pageNr, image),
+				() -> fireRegionRendered(region));
+	}
+
+	/**
+	 * Gets the bounds of a tile in document coordinates.
+	 */
+	private static Rectangle2D getTileRegion(@NotNull PageTileCache.TileKey key, @NotNull PdfPageRectangle coords,
+			int pageWidthPx, int pageHeightPx) {
+		final float zoom = key.getZoom();
+		final int tileLeft = key.getTileX() * TILE_SIZE;
+		final int tileTop = key.getTileY() * TILE_SIZE;
+		final int width = Math.min(TILE_SIZE, pageWidthPx - tileLeft);
+		final int height = Math.min(TILE_SIZE, pageHeightPx - tileTop);
+		return new Rectangle2D.Double(coords.getLeftX() + tileLeft / zoom, coords.getTopY() + tileTop / zoom, 
+				width / zoom, height / zoom);
+	}
+
+	private void fireRegionRendered(@NotNull Rectangle2D region) {
+		if (disposed) {
+			return;
+		}
 		/*
-		 * for now, using a naive search. If very large pdfs become normal then
-		 * using a binary search or some such may be better. 
-		 * See Issue #1 on github.
+		 * copy in case a listener unregisters itself while being notified
 		 */
-		for (int i = 0; i < getPageCount(); i++) {
-			final PdfPageRectangle coords = getCoordinateManager().getPageOverallCoordinates(i);
-			if (coords.getBottomY() >= visibleBounds.getMinY()) {
-				return i;
+		for (RegionRenderedListener l : new ArrayList<>(regionListeners)) {
+			l.regionRendered(this, region);
+		}
+	}
+
+	/**
+	 * Paints the best available stand-in for a tile that has not been rendered yet: the base level
+	 * of the page, or a placeholder if there is none, overlaid with whatever tiles of the nearest other
+	 * zoom level are cached. The graphics context must be scaled to device pixels, with the upper left
+	 * corner of the page at (0, 0).
+	 */
+	private void paintStandIn(@NotNull Graphics2D g2d, @NotNull PageTileCache.TileKey key,
+			@NotNull PdfPageRectangle coords, int pageWidthPx, int pageHeightPx) {
+		final int tileLeft = key.getTileX() * TILE_SIZE;
+		final int tileTop = key.getTileY() * TILE_SIZE;
+		final Graphics2D standIn = (Graphics2D)g2d.create();
+		try {
+			standIn.clipRect(tileLeft, tileTop, 
+					Math.min(TILE_SIZE, pageWidthPx - tileLeft), Math.min(TILE_SIZE, pageHeightPx - tileTop));
+			standIn.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			
+			final BufferedImage baseLevel = pyramid.getBaseLevel(key.getPageNr());
+			if (baseLevel != null) {
+				standIn.drawImage(baseLevel, 0, 0, pageWidthPx, pageHeightPx, null);
+			}
+			else {
+				standIn.setColor(PLACEHOLDER_COLOR);
+				standIn.fillRect(tileLeft, tileTop, TILE_SIZE, TILE_SIZE);
+			}
+			
+			final Rectangle2D region = getTileRegion(key, coords, pageWidthPx, pageHeightPx);
+			for (float level : pyramid.getOtherLevelsNearest(key.getZoom())) {
+				if (paintCachedTiles(standIn, key.getPageNr(), coords, region, level, key.getZoom())) {
+					break;
+				}
 			}
 		}
-	
-		return -1;
+		finally {
+			standIn.dispose();
+		}
+	}
+
+	/**
+	 * Paints whichever cached tiles of a page at some zoom level intersect a region, scaled to another zoom level.
+	 * @return {@code true} if any tiles were painted
+	 */
+	private boolean paintCachedTiles(@NotNull Graphics2D g2d, int pageNr, @NotNull PdfPageRectangle coords,
+			@NotNull Rectangle2D region, float level, float zoom) {
+		final TileRange tiles = TileRange.create_rNull(coords, region, level);
+		if (tiles == null) {
+			return false;
+		}
+		
+		final double scale = zoom / level;
+		boolean painted = false;
+		for (int tileY = tiles.firstTileY; tileY <= tiles.lastTileY; tileY++) {
+			for (int tileX = tiles.firstTileX; tileX <= tiles.lastTileX; tileX++) {
+				final BufferedImage tile = getBestCachedTile_rNull(
+						new PageTileCache.TileKey(pageNr, level, RenderQuality.FULL, tileX, tileY));
+				if (tile != null) {
+					final AffineTransform placement = new AffineTransform(scale, 0, 0, scale, 
+							tileX * TILE_SIZE * scale, tileY * TILE_SIZE * scale);
+					g2d.drawImage(tile, placement, null);
+					painted = true;
+				}
+			}
+		}
+		return painted;
+	}
+
+	private BufferedImage renderTile(@NotNull PageTileCache.TileKey key, int pageWidthPx, int pageHeightPx) {
+		final int tileLeft = key.getTileX() * TILE_SIZE;
+		final int tileTop = key.getTileY() * TILE_SIZE;
+		final int width = Math.min(TILE_SIZE, pageWidthPx - tileLeft);
+		final int height = Math.min(TILE_SIZE, pageHeightPx - tileTop);
+		if (!rendersWholePageForEachTile(key.getPageNr())) {
+			return renderImage(key.getPageNr(), key.getZoom(), key.getQuality(), tileLeft, tileTop, width, height);
+		}
+
+		/*
+		 * the tile may have been cut from a block rendered for a neighbor since it was submitted
+		 */
+		final BufferedImage cached = tileCache.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		final PageTileCache.TileKey blockKey = new PageTileCache.TileKey(key.getPageNr(), key.getZoom(),
+				key.getQuality(), key.getTileX() / TILES_PER_BLOCK * TILES_PER_BLOCK,
+				key.getTileY() / TILES_PER_BLOCK * TILES_PER_BLOCK);
+		final BufferedImage block = tileBlocks.get(blockKey, () -> renderBlock(blockKey, pageWidthPx, pageHeightPx));
+		return copyRegion(block, tileLeft - blockKey.getTileX() * TILE_SIZE, tileTop - blockKey.getTileY() * TILE_SIZE,
+				width, height);
+	}
+
+	/**
+	 * Renders a square block of neighboring tiles in a single pass, and caches each of them.
+	 * @param blockKey the tile in the upper left corner of the block
+	 * @return the rendered block
+	 */
+	private BufferedImage renderBlock(@NotNull PageTileCache.TileKey blockKey, int pageWidthPx, int pageHeightPx) {
+		final int blockLeft = blockKey.getTileX() * TILE_SIZE;
+		final int blockTop = blockKey.getTileY() * TILE_SIZE;
+		final int width = Math.min(TILES_PER_BLOCK * TILE_SIZE, pageWidthPx - blockLeft);
+		final int height = Math.min(TILES_PER_BLOCK * TILE_SIZE, pageHeightPx - blockTop);
+		final BufferedImage ret = renderImage(blockKey.getPageNr(), blockKey.getZoom(), blockKey.getQuality(),
+				blockLeft, blockTop, width, height);
+		for (int tileTop = 0; tileTop < height; tileTop += TILE_SIZE) {
+			for (int tileLeft = 0; tileLeft < width; tileLeft += TILE_SIZE) {
+				final PageTileCache.TileKey key = new PageTileCache.TileKey(blockKey.getPageNr(), blockKey.getZoom(),
+						blockKey.getQuality(), blockKey.getTileX() + tileLeft / TILE_SIZE,
+						blockKey.getTileY() + tileTop / TILE_SIZE);
+				if (!isCached(key)) {
+					cacheTile(key, copyRegion(ret, tileLeft, tileTop,
+							Math.min(TILE_SIZE, width - tileLeft), Math.min(TILE_SIZE, height - tileTop)));
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static BufferedImage copyRegion(@NotNull BufferedImage source, int left, int top, int width, int height) {
+		final BufferedImage ret = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g2d = ret.createGraphics();
+		try {
+			g2d.drawImage(source, -left, -top, null);
+		}
+		finally {
+			g2d.dispose();
+		}
+		return ret;
+	}
+
+	/**
+	 * Determines whether rendering any part of a page costs about as much as rendering all of it,
+	 * as when the page's content has to be interpreted in full whatever part of it is drawn.
+	 * Tiles of such pages are rendered a block at a time, so that neighboring tiles do not
+	 * each pay for the whole page. The default implementation returns {@code true}.
+	 * @param pageNr the zero-based page number
+	 * @return {@code true} if rendering a single tile costs as much as rendering the whole page
+	 */
+	protected boolean rendersWholePageForEachTile(int pageNr) {
+		return true;
+	}
+
+	/**
+	 * Renders a rectangular portion of a page to a new image.
+	 * @param pageNr the zero-based page number
+	 * @param zoom device pixels per document unit
+	 * @param quality how carefully to render the page
+	 * @param left the left edge of the portion, in page-local device pixels
+	 * @param top the top edge of the portion, in page-local device pixels
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 */
+	private BufferedImage renderImage(int pageNr, float zoom, @NotNull RenderQuality quality, 
+			int left, int top, int width, int height) {
+		final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g2d = image.createGraphics();
+		try {
+			/*
+			 * the page renderer may clear the page with the background color before drawing it
+			 */
+			g2d.setBackground(Color.WHITE);
+			g2d.clearRect(0, 0, width, height);
+			g2d.translate(-left, -top);
+			g2d.scale(zoom, zoom);
+			renderPage(g2d, pageNr, quality);
+		}
+		finally {
+			g2d.dispose();
+		}
+		
+		return image;
+	}
+
+	private int getLastVisiblePage(@NotNull Rectangle2D visibleBounds) {
+		return getCoordinateManager().getLastPageInRange(visibleBounds.getMinY(), visibleBounds.getMaxY());
+	}
+
+	private int getFirstVisiblePage(@NotNull Rectangle2D visibleBounds) {
+		return getCoordinateManager().getFirstPageInRange(visibleBounds.getMinY(), visibleBounds.getMaxY());
 	}
 }
\ No newline at end of file
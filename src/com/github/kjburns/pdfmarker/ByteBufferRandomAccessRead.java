@@ -0,0 +1,131 @@
+package com.github.kjburns.pdfmarker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Exposes a byte buffer, typically a memory-mapped file, as a PdfBox {@link RandomAccessRead}.
+ * <p>
+ * Each instance keeps its own position, so several instances created from duplicates of
+ * the same buffer can read the same underlying bytes independently.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class ByteBufferRandomAccessRead implements RandomAccessRead {
+	private final ByteBuffer buffer;
+	private boolean closed = false;
+
+	/**
+	 * @param buffer the bytes to read. This object takes ownership of the buffer's position, so callers
+	 * sharing a buffer should pass a {@link ByteBuffer#duplicate() duplicate}.
+	 */
+	public ByteBufferRandomAccessRead(@NotNull ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.buffer.rewind();
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkClosed();
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		return buffer.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	@Override
+	public int read(byte[] b, int offset, int length) throws IOException {
+		checkClosed();
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		final int count = Math.min(length, buffer.remaining());
+		buffer.get(b, offset, count);
+		return count;
+	}
+
+	@Override
+	public long getPosition() throws IOException {
+		checkClosed();
+		return buffer.position();
+	}
+
+	@Override
+	public void seek(long position) throws IOException {
+		checkClosed();
+		if (position < 0) {
+			throw new IOException("Invalid position " + position);
+		}
+		buffer.position((int)Math.min(position, buffer.limit()));
+	}
+
+	@Override
+	public long length() throws IOException {
+		checkClosed();
+		return buffer.limit();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public int peek() throws IOException {
+		checkClosed();
+		if (!buffer.hasRemaining()) {
+			return -1;
+		}
+		return buffer.get(buffer.position()) & 0xff;
+	}
+
+	@Override
+	public void rewind(int bytes) throws IOException {
+		checkClosed();
+		buffer.position(buffer.position() - bytes);
+	}
+
+	@Override
+	public byte[] readFully(int length) throws IOException {
+		checkClosed();
+		if (length > buffer.remaining()) {
+			throw new IOException("Premature end of buffer reached");
+		}
+		final byte[] ret = new byte[length];
+		buffer.get(ret);
+		return ret;
+	}
+
+	@Override
+	public boolean isEOF() throws IOException {
+		checkClosed();
+		return !buffer.hasRemaining();
+	}
+
+	@Override
+	public int available() throws IOException {
+		checkClosed();
+		return buffer.remaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+	}
+
+	private void checkClosed() throws IOException {
+		if (closed) {
+			throw new IOException("Attempted to read from a closed buffer");
+		}
+	}
+}
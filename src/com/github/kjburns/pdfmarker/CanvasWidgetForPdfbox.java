@@ -4,7 +4,7 @@ import javax.swing.ActionMap;
 import javax.swing.InputMap;
 import javax.swing.JComponent;
 
-public interface CanvasWidgetForPdfbox extends HasActivePdfBoxDocument, HasDocumentKeyboardNavigation, HasActionMapping {
+public interface CanvasWidgetForPdfbox extends HasActivePdfBoxDocument, HasDocumentKeyboardNavigation, HasActionMapping, HasPageLayout, HasMarkupModel {
 	JComponent getComponent();
 
 	@Override
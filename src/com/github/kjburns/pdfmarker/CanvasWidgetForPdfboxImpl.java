@@ -6,6 +6,8 @@ import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -16,31 +18,67 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JViewport;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 
+import com.sun.istack.internal.NotNull;
+
 class CanvasWidgetForPdfboxImpl 
 		implements CanvasWidgetForPdfbox {
-	private class PdfRendererPanel extends JPanel {
+	/**
+	 * Shows the pages of a document, painted from the renderer's tiles within the clip only, with a 
+	 * {@link MarkupOverlay} over them. The viewport blits what is already on screen when it scrolls, 
+	 * and the overlay repaints only the bounds of each change to the marks, so neither scrolling nor 
+	 * editing marks paints more of the pages than has actually changed on screen.
+	 */
+	private class PdfRendererPanel extends JPanel 
+			implements PdfRenderer.RegionRenderedListener, PdfPageCoordinateManager.LayoutChangeListener {
 		private static final long serialVersionUID = 898302421086892730L;
 		private final PdfRenderer renderer;
+		private MarkupModel markupModel = new MarkupModel();
+		private MarkupOverlay markupOverlay;
+		/*
+		 * a page at the top of the view, and where its top was when the view last moved,
+		 * so the view can follow the page if the layout changes
+		 */
+		private int anchorPage = -1;
+		private float anchorPageTop = 0;
 		
 		public PdfRenderer getRenderer() {
 			return renderer;
 		}
 
-		public PdfRendererPanel(PDDocument doc) {
+		public MarkupModel getMarkupModel() {
+			return markupModel;
+		}
+		
+		public void setMarkupModel(@NotNull MarkupModel model) {
+			remove(markupOverlay);
+			markupOverlay.dispose();
+			markupModel = model;
+			markupOverlay = new MarkupOverlay(markupModel, renderer.getCoordinateManager());
+			add(markupOverlay);
+			createLayout();
+			markupOverlay.repaint();
+		}
+
+		public PdfRendererPanel(PDDocument doc, DocumentSource source) {
 			if (doc == null) {
 				renderer = new NullPdfRenderer();
 			}
 			else {
-				renderer = new PdfRendererForPdfbox(doc);
+				renderer = new PdfRendererForPdfbox(doc, source, pageLayout);
 			}
 			
+			markupOverlay = new MarkupOverlay(markupModel, renderer.getCoordinateManager());
+			add(markupOverlay);
 			createLayout();
 			setDoubleBuffered(true);
+			renderer.addRegionRenderedListener(this);
+			renderer.getCoordinateManager().addLayoutChangeListener(this);
 		}
 		
 		private void createLayout() {
@@ -50,6 +88,13 @@ class CanvasWidgetForPdfboxImpl
 			int width = (int)(bounds.getRightX() - bounds.getLeftX());
 			int height = (int)(bounds.getBottomY() - bounds.getTopY());
 			setPreferredSize(new Dimension(width, height));
+			markupOverlay.setBounds(0, 0, width, height);
+		}
+		
+		public void dispose() {
+			renderer.getCoordinateManager().removeLayoutChangeListener(this);
+			renderer.dispose();
+			markupOverlay.dispose();
 		}
 
 		@Override
@@ -57,13 +102,63 @@ class CanvasWidgetForPdfboxImpl
 			super.paintComponent(g);
 			final Graphics2D g2d = (Graphics2D)g;
 			final AffineTransform oldTransform = g2d.getTransform();
-			final int tx = (int)(-renderer.getCoordinateManager().getBoundsOfDocument().getLeftX());
+			final int tx = getDocumentToPanelOffsetX();
 			g2d.translate(tx, 0);
 			
+			/*
+			 * the renderer expects the visible bounds in document coordinates. It only paints the part 
+			 * within the clip, which after a blit scroll is just the exposed strip, and after a change 
+			 * to the marks is just the bounds of the change.
+			 */
 			final Rectangle rect = scrollPane.getViewport().getViewRect();
+			rect.translate(-tx, 0);
 			renderer.renderVisiblePortion(g, rect);
 			g2d.setTransform(oldTransform);
 		}
+
+		private int getDocumentToPanelOffsetX() {
+			return (int)(-renderer.getCoordinateManager().getBoundsOfDocument().getLeftX());
+		}
+
+		@Override
+		public void regionRendered(PdfRenderer source, Rectangle2D bounds) {
+			final Rectangle panelBounds = bounds.getBounds();
+			panelBounds.translate(getDocumentToPanelOffsetX(), 0);
+			repaint(panelBounds);
+		}
+
+		/**
+		 * Remembers the page at the top of the view. Should be called whenever the view moves.
+		 */
+		private void rememberViewAnchor() {
+			final PdfPageCoordinateManager coordMgr = renderer.getCoordinateManager();
+			final Rectangle viewRect = scrollPane.getViewport().getViewRect();
+			anchorPage = coordMgr.getFirstPageInRange(viewRect.getMinY(), viewRect.getMaxY());
+			if (anchorPage >= 0) {
+				anchorPageTop = coordMgr.getPageTopY(anchorPage);
+			}
+		}
+
+		@Override
+		public void layoutChanged(PdfPageCoordinateManager source, int firstChangedPage) {
+			createLayout();
+			revalidate();
+			
+			/*
+			 * keep the page at the top of the view where it was on screen
+			 */
+			if (anchorPage >= 0 && firstChangedPage <= anchorPage) {
+				final float shift = source.getPageTopY(anchorPage) - anchorPageTop;
+				if (shift != 0) {
+					final JViewport viewport = scrollPane.getViewport();
+					final Point position = viewport.getViewPosition();
+					position.translate(0, Math.round(shift));
+					viewport.setViewPosition(position);
+				}
+			}
+			rememberViewAnchor();
+			repaint();
+		}
 	}
 	
 	private class CurrentPageTracker
@@ -95,6 +190,19 @@ class CanvasWidgetForPdfboxImpl
 				return;
 			}
 			
+			renderDraftsUntilIdle();
+			renderingPanel.rememberViewAnchor();
+			updateCurrentPage();
+		}
+		
+		/**
+		 * Notifies listeners if the current page is no longer the one they were last told about.
+		 */
+		private void updateCurrentPage() {
+			if (currentPage == -1) {
+				return;
+			}
+			
 			final int newPage = getActivePdfDocumentCurrentPage();
 			if (newPage != currentPage) {
 				final Iterator<PdfContainerCurrentPageListener> it = pageListeners.iterator();
@@ -110,18 +218,60 @@ class CanvasWidgetForPdfboxImpl
 	private List<PdfContainerListener> containerListeners = new ArrayList<>();
 	private List<PdfContainerCurrentPageListener> pageListeners = new ArrayList<>();
 	private PDDocument activeDocument = null;
+	private DocumentSource activeSource = null;
+	/**
+	 * records changes to the marks, once they have been loaded from or saved to a file
+	 */
+	private MarkupJournal markupJournal = null;
 	
 	private final CurrentPageTracker pageTracker = this.new CurrentPageTracker();
 	private final JScrollPane scrollPane = createScrollPane();
 	private PdfRendererPanel renderingPanel = null;
+	private PageLayout pageLayout = PageLayout.SINGLE_COLUMN;
+	/**
+	 * the page most recently navigated to, which stays current while its row is at the top of the view
+	 */
+	private int navigatedPage = -1;
 	
 	private static final float FULL_PAGE_JUMP_FRACTION = 0.9f;
 	private static final float SINGLE_LINE_JUMP_FRACTION = 0.1f;
+	/**
+	 * How long the view must stay still before pages are rendered at full quality again
+	 */
+	private static final int FULL_QUALITY_DELAY_MS = 250;
+	
+	private final Timer fullQualityTimer = createFullQualityTimer();
 	
 	public CanvasWidgetForPdfboxImpl() {
 		addPdfContainerListener(pageTracker);
 	}
 	
+	private Timer createFullQualityTimer() {
+		final Timer ret = new Timer(FULL_QUALITY_DELAY_MS, (e) -> restoreFullQuality());
+		ret.setRepeats(false);
+		return ret;
+	}
+	
+	/**
+	 * Switches to draft quality rendering while the view is moving, and schedules a switch back
+	 * to full quality once it has stopped.
+	 */
+	private void renderDraftsUntilIdle() {
+		if (renderingPanel == null) {
+			return;
+		}
+		renderingPanel.getRenderer().setRenderQuality(PdfRenderer.RenderQuality.DRAFT);
+		fullQualityTimer.restart();
+	}
+	
+	private void restoreFullQuality() {
+		if (renderingPanel == null) {
+			return;
+		}
+		renderingPanel.getRenderer().setRenderQuality(PdfRenderer.RenderQuality.FULL);
+		renderingPanel.repaint();
+	}
+	
 	@Override
 	public PDDocument getActivePdfDocument_rNull() {
 		return activeDocument;
@@ -132,13 +282,18 @@ class CanvasWidgetForPdfboxImpl
 		
 		ret.getVerticalScrollBar().setUnitIncrement(40);
 		ret.getVerticalScrollBar().setBlockIncrement(200);
+		/*
+		 * blitting is the viewport's default already; it is stated here because painting relies on it
+		 * to repaint only the newly exposed strip
+		 */
+		ret.getViewport().setScrollMode(JViewport.BLIT_SCROLL_MODE);
 
 		ret.getViewport().addChangeListener(this.pageTracker);
 		return ret;
 	}
 
 	@Override
-	public void setActivePdfDocument(PDDocument newDocument) {
+	public void setActivePdfDocument(PDDocument newDocument, DocumentSource source) {
 		if (newDocument == null) {
 			throw new IllegalArgumentException("Passed null document to setActivePdfDocument on canvas widget");
 		}
@@ -147,10 +302,11 @@ class CanvasWidgetForPdfboxImpl
 			containerListeners.stream().forEach((l) -> {
 				l.unloadingDocument(this, oldDocument);
 			});
-			setDocumentInternal(null);
+			setDocumentInternal(null, null);
 			containerListeners.stream().forEach((l) -> {
 				l.unloadedDocument(this, oldDocument);
 			});
+			SharedResourceCache.getInstance().release(oldDocument);
 			try {
 				oldDocument.close();
 			} catch (IOException e) {
@@ -163,15 +319,24 @@ class CanvasWidgetForPdfboxImpl
 		containerListeners.stream().forEach((l) -> {
 			l.loadingDocument(this, newDocument);
 		});
-		setDocumentInternal(newDocument);
+		setDocumentInternal(newDocument, source);
 		containerListeners.stream().forEach((l) -> {
 			l.loadedDocument(this, newDocument);
 		});
 	}
 
-	private void setDocumentInternal(PDDocument newDocument) {
+	private void setDocumentInternal(PDDocument newDocument, DocumentSource source) {
+		if (renderingPanel != null) {
+			renderingPanel.dispose();
+		}
 		activeDocument = newDocument;
-		renderingPanel = new PdfRendererPanel(activeDocument);
+		activeSource = source;
+		if (markupJournal != null) {
+			markupJournal.close();
+			markupJournal = null;
+		}
+		navigatedPage = -1;
+		renderingPanel = new PdfRendererPanel(activeDocument, source);
 		scrollPane.setViewportView(renderingPanel);
 		renderingPanel.revalidate();
 		renderingPanel.requestFocusInWindow();
@@ -194,24 +359,17 @@ class CanvasWidgetForPdfboxImpl
 		final PdfPageCoordinateManager coordMgr = renderingPanel.getRenderer().getCoordinateManager();
 		final Rectangle viewRect = scrollPane.getViewport().getViewRect();
 		/*
-		 * Implementing for now as brute force. If large pdfs become normal then
-		 * a less naive search, like binary search, will be more appropriate.
-		 * See Issue #1 on github.
-		 * 
 		 * The current page will be defined as the page that intersects the top of the view.
+		 * When pages are side by side, that is the first page of the row, unless another page
+		 * in the same row was navigated to.
 		 */
-		final float viewTop = (float)viewRect.getMinY();
-		for (int pageNr = 0; pageNr < activeDocument.getNumberOfPages(); pageNr++) {
-			final PdfPageRectangle pageCoords = coordMgr.getPageOverallCoordinates(pageNr);
-			final float top = pageCoords.getTopY();
-			final float bottom = pageCoords.getBottomY();
-			
-			if ((top - viewTop) * (bottom - viewTop) <= 0) {
-				return pageNr;
-			}
+		final int rowFirstPage = coordMgr.getPageAt(viewRect.getMinY());
+		final PageLayout layout = coordMgr.getPageLayout();
+		if (rowFirstPage >= 0 && navigatedPage >= 0 && navigatedPage < coordMgr.getPageCount()
+				&& layout.getRow(navigatedPage) == layout.getRow(rowFirstPage)) {
+			return navigatedPage;
 		}
-
-		return -1;
+		return rowFirstPage;
 	}
 
 	@Override
@@ -230,13 +388,100 @@ class CanvasWidgetForPdfboxImpl
 		}
 
 		final PdfPageCoordinateManager coordMgr = renderingPanel.getRenderer().getCoordinateManager();
-		final PdfPageRectangle coords = coordMgr.getPageOverallCoordinates(newPageNumber);
-		final float topY = coords.getTopY();
+		final float topY = coordMgr.getPageTopY(newPageNumber);
+		
+		/*
+		 * only scroll sideways if the page is not already entirely in view
+		 */
+		final JViewport viewport = scrollPane.getViewport();
+		final Rectangle viewRect = viewport.getViewRect();
+		final int offsetX = renderingPanel.getDocumentToPanelOffsetX();
+		final float leftX = coordMgr.getPageLeftX(newPageNumber) + offsetX;
+		final float rightX = coordMgr.getPageRightX(newPageNumber) + offsetX;
+		double newX = viewRect.getX();
+		if (leftX < viewRect.getMinX() || rightX > viewRect.getMaxX()) {
+			newX = Math.max(0, leftX);
+		}
 		
-		final double currX = scrollPane.getViewport().getViewPosition().getX();
+		navigatedPage = newPageNumber;
 		Point newPosition = new Point();
-		newPosition.setLocation(currX, topY);
-		scrollPane.getViewport().setViewPosition(newPosition);
+		newPosition.setLocation(newX, topY);
+		viewport.setViewPosition(newPosition);
+		/*
+		 * the view does not move when navigating within a row, so listeners may not have heard yet
+		 */
+		pageTracker.updateCurrentPage();
+	}
+
+	@Override
+	public PageLayout getPageLayout() {
+		return pageLayout;
+	}
+
+	@Override
+	public void setPageLayout(PageLayout layout) {
+		if (layout == null) {
+			throw new IllegalArgumentException();
+		}
+		pageLayout = layout;
+		if (renderingPanel != null) {
+			renderingPanel.getRenderer().getCoordinateManager().setPageLayout(layout);
+		}
+	}
+
+	@Override
+	public MarkupModel getMarkupModel_rNull() {
+		if (activeDocument == null) {
+			return null;
+		}
+		return renderingPanel.getMarkupModel();
+	}
+
+	@Override
+	public File getMarkupFile_rNull() {
+		if (markupJournal == null) {
+			return null;
+		}
+		return markupJournal.getMarkupFile();
+	}
+
+	@Override
+	public void setMarkup(MarkupJournal journal) {
+		if (journal == null) {
+			throw new IllegalArgumentException();
+		}
+		if (activeDocument == null) {
+			throw new IllegalStateException("Attempted to set markup when no document was open.");
+		}
+		if (markupJournal != null) {
+			markupJournal.close();
+		}
+		markupJournal = journal;
+		renderingPanel.setMarkupModel(journal.getModel());
+	}
+
+	@Override
+	public void saveMarkup(File markupFile) throws IOException {
+		if (activeDocument == null) {
+			throw new IllegalStateException("Attempted to save markup when no document was open.");
+		}
+		if (markupJournal != null 
+				&& markupJournal.getMarkupFile().getAbsoluteFile().equals(markupFile.getAbsoluteFile())) {
+			/*
+			 * every change is already in the journal
+			 */
+			markupJournal.sync();
+			return;
+		}
+		if (activeSource == null) {
+			throw new IOException("The file the document was opened from is not known.");
+		}
+		final MarkupJournal newJournal = MarkupJournal.create(markupFile, renderingPanel.getMarkupModel(), 
+				activeSource.getFile(), activeSource.getFingerprint_rNull());
+		if (markupJournal != null) {
+			markupJournal.close();
+		}
+		markupJournal = newJournal;
 	}
 
 	private void checkPageNumber(int pageNumber) {
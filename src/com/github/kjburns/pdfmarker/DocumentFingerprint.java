@@ -0,0 +1,95 @@
+package com.github.kjburns.pdfmarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Computes a short identifier of a file's content, for keying caches that outlive a session.
+ * <p>
+ * Hashing every byte of a drawing set of several hundred megabytes would take longer than opening it,
+ * so only the length of the file and a fixed number of samples of it are hashed: its head and tail,
+ * where a pdf keeps its header and, after any incremental update, its newest cross-reference section,
+ * and evenly spaced blocks in between. Two files that differ only outside every sample share a fingerprint,
+ * which is an accepted risk for caches of derived data.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class DocumentFingerprint {
+	private static final int HEAD_AND_TAIL_BYTES = 64 * 1024;
+	private static final int SAMPLE_BYTES = 4 * 1024;
+	private static final int SAMPLE_COUNT = 16;
+
+	private DocumentFingerprint() {
+		// static methods only
+	}
+
+	/**
+	 * Computes the fingerprint of a file.
+	 * @param file the file
+	 * @return the fingerprint, as lower-case hexadecimal digits
+	 * @throws IOException if the file cannot be read
+	 */
+	public static String compute(@NotNull File file) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every Java platform must support SHA-1.", e);
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			final long length = raf.length();
+			digest.update(ByteBuffer.allocate(Long.BYTES).putLong(length).array());
+
+			final byte[] buffer = new byte[HEAD_AND_TAIL_BYTES];
+			hashRegion(raf, digest, buffer, 0, HEAD_AND_TAIL_BYTES);
+			for (int i = 1; i <= SAMPLE_COUNT; i++) {
+				hashRegion(raf, digest, buffer, length * i / (SAMPLE_COUNT + 1), SAMPLE_BYTES);
+			}
+			hashRegion(raf, digest, buffer, length - HEAD_AND_TAIL_BYTES, HEAD_AND_TAIL_BYTES);
+		}
+
+		final StringBuilder ret = new StringBuilder();
+		for (byte b : digest.digest()) {
+			ret.append(String.format("%02x", b));
+		}
+		return ret.toString();
+	}
+
+	/**
+	 * Computes the fingerprint of a file, logging any failure to read it.
+	 * @param file the file
+	 * @return the fingerprint, or {@code null} if the file could not be read
+	 */
+	public static String compute_rNull(@NotNull File file) {
+		try {
+			return compute(file);
+		} catch (IOException e) {
+			System.err.println("Unable to fingerprint " + file.getName() + "; it will not be cached.");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Hashes up to {@code count} bytes starting at {@code position}, clipped to the file.
+	 */
+	private static void hashRegion(@NotNull RandomAccessFile raf, @NotNull MessageDigest digest,
+			@NotNull byte[] buffer, long position, int count) throws IOException {
+		final long start = Math.max(0, position);
+		final int length = (int)Math.min(count, raf.length() - start);
+		if (length <= 0) {
+			return;
+		}
+		raf.seek(start);
+		raf.readFully(buffer, 0, length);
+		digest.update(buffer, 0, length);
+	}
+}
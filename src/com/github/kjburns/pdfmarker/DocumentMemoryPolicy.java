@@ -0,0 +1,234 @@
+package com.github.kjburns.pdfmarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessBufferedFileInputStream;
+import org.apache.pdfbox.io.RandomAccessRead;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Decides where the data of an open pdf is kept: the bytes of the file itself, and the scratch
+ * space PdfBox uses for the decoded streams it reads from the file.
+ * <p>
+ * The policy in effect is kept in the user's preferences, and is applied as each document is opened,
+ * so a change affects the next document opened rather than the one already open.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class DocumentMemoryPolicy {
+	static enum Strategy {
+		/**
+		 * The file is read through a small buffer, and scratch data is kept on the heap.
+		 * Fastest, but a large document can exhaust the heap.
+		 */
+		MAIN_MEMORY("Main memory"),
+		/**
+		 * The file is memory-mapped, so its bytes live outside the heap, and scratch data
+		 * is kept on the heap up to a limit, beyond which it spills to a temporary file.
+		 */
+		MEMORY_MAPPED("Memory-mapped, capped heap"),
+		/**
+		 * The file is read through a small buffer, and all scratch data is kept in a temporary file.
+		 * Slowest, but the heap is hardly touched.
+		 */
+		TEMP_FILE("Temporary file"),
+		/**
+		 * One of the others is chosen for each document, from its size and the heap available.
+		 */
+		AUTOMATIC("Automatic");
+
+		private final String description;
+
+		private Strategy(String description) {
+			this.description = description;
+		}
+
+		@Override
+		public String toString() {
+			return description;
+		}
+	}
+
+	private static final String STRATEGY_KEY = "memory-strategy";
+	private static final String SCRATCH_FOLDER_KEY = "scratch-folder";
+	private static final String HEAP_BUFFER_KEY = "memory-heap-buffer-bytes";
+
+	static final long DEFAULT_HEAP_BUFFER_BYTES = 64L * 1024 * 1024;
+	/**
+	 * In the automatic strategy, documents up to this fraction of the maximum heap size are kept in main memory
+	 */
+	private static final int AUTOMATIC_MAIN_MEMORY_HEAP_DIVISOR = 16;
+
+	private final Strategy strategy;
+	private final File scratchFolder;
+	private final long heapBufferBytes;
+
+	/**
+	 * @param strategy how to keep the data of a document
+	 * @param scratchFolder where temporary files are created, or {@code null} for the system's temporary folder
+	 * @param heapBufferBytes how much scratch data may be kept on the heap by {@link Strategy#MEMORY_MAPPED}
+	 * @throws IllegalArgumentException if {@code strategy == null}, or if {@code heapBufferBytes} is negative
+	 */
+	public DocumentMemoryPolicy(@NotNull Strategy strategy, File scratchFolder, long heapBufferBytes) {
+		if (strategy == null) {
+			throw new IllegalArgumentException();
+		}
+		if (heapBufferBytes < 0) {
+			throw new IllegalArgumentException("Heap buffer size may not be negative.");
+		}
+		this.strategy = strategy;
+		this.scratchFolder = scratchFolder;
+		this.heapBufferBytes = heapBufferBytes;
+	}
+
+	/**
+	 * Reads the policy from the user's preferences.
+	 * @return the policy last saved, or the automatic strategy if none has been
+	 */
+	public static DocumentMemoryPolicy loadPreferences() {
+		final Preferences prefs = Preferences.userNodeForPackage(DocumentMemoryPolicy.class);
+		Strategy strategy;
+		try {
+			strategy = Strategy.valueOf(prefs.get(STRATEGY_KEY, Strategy.AUTOMATIC.name()));
+		} catch (IllegalArgumentException e) {
+			strategy = Strategy.AUTOMATIC;
+		}
+		final String scratchFolderStr = prefs.get(SCRATCH_FOLDER_KEY, null);
+		final File scratchFolder = (scratchFolderStr == null) ? null : new File(scratchFolderStr);
+		final long heapBufferBytes = Math.max(0, prefs.getLong(HEAP_BUFFER_KEY, DEFAULT_HEAP_BUFFER_BYTES));
+		return new DocumentMemoryPolicy(strategy, scratchFolder, heapBufferBytes);
+	}
+
+	/**
+	 * Saves this policy to the user's preferences, for documents opened from now on.
+	 */
+	public void savePreferences() {
+		final Preferences prefs = Preferences.userNodeForPackage(DocumentMemoryPolicy.class);
+		prefs.put(STRATEGY_KEY, strategy.name());
+		if (scratchFolder == null) {
+			prefs.remove(SCRATCH_FOLDER_KEY);
+		}
+		else {
+			prefs.put(SCRATCH_FOLDER_KEY, scratchFolder.getPath());
+		}
+		prefs.putLong(HEAP_BUFFER_KEY, heapBufferBytes);
+		try {
+			prefs.flush();
+		} catch (BackingStoreException e) {
+			System.err.println("Unable to save memory policy to preferences.");
+			e.printStackTrace();
+		}
+	}
+
+	public Strategy getStrategy() {
+		return strategy;
+	}
+
+	/**
+	 * @return where temporary files are created, or {@code null} for the system's temporary folder
+	 */
+	public File getScratchFolder_rNull() {
+		return scratchFolder;
+	}
+
+	public long getHeapBufferBytes() {
+		return heapBufferBytes;
+	}
+
+	/**
+	 * Settles on a strategy for a particular file. Under the automatic strategy, files small compared
+	 * to the heap are kept in main memory, files that can be mapped in a single buffer are memory-mapped,
+	 * and anything larger spills to a temporary file.
+	 * @param file the pdf about to be opened
+	 * @return a policy that is never {@link Strategy#AUTOMATIC}
+	 */
+	public DocumentMemoryPolicy resolveFor(@NotNull File file) {
+		if (strategy != Strategy.AUTOMATIC) {
+			return this;
+		}
+		final long fileSize = file.length();
+		final Strategy resolved;
+		if (fileSize <= Runtime.getRuntime().maxMemory() / AUTOMATIC_MAIN_MEMORY_HEAP_DIVISOR) {
+			resolved = Strategy.MAIN_MEMORY;
+		}
+		else if (fileSize <= Integer.MAX_VALUE) {
+			resolved = Strategy.MEMORY_MAPPED;
+		}
+		else {
+			resolved = Strategy.TEMP_FILE;
+		}
+		return new DocumentMemoryPolicy(resolved, scratchFolder, heapBufferBytes);
+	}
+
+	/**
+	 * Gets the settings PdfBox should use for scratch data under this policy.
+	 * @return new settings, which may be given to a single document
+	 */
+	public MemoryUsageSetting createMemoryUsageSetting() {
+		final MemoryUsageSetting ret;
+		switch (strategy) {
+		case MEMORY_MAPPED:
+			ret = MemoryUsageSetting.setupMixed(heapBufferBytes);
+			break;
+		case TEMP_FILE:
+			ret = MemoryUsageSetting.setupTempFileOnly();
+			break;
+		case MAIN_MEMORY:
+		case AUTOMATIC:
+		default:
+			ret = MemoryUsageSetting.setupMainMemoryOnly();
+			break;
+		}
+		if (scratchFolder != null) {
+			ret.setTempDir(scratchFolder);
+		}
+		return ret;
+	}
+
+	/**
+	 * Opens the bytes of a pdf for parsing under this policy. A file that is to be memory-mapped but
+	 * cannot be is read from disk instead.
+	 * @param file the pdf
+	 * @return the source to parse, which the caller must close
+	 * @throws IOException if the file cannot be read
+	 */
+	public RandomAccessRead openSource(@NotNull File file) throws IOException {
+		if (strategy == Strategy.MEMORY_MAPPED) {
+			final ByteBuffer mapped = mapFile_rNull(file);
+			if (mapped != null) {
+				return new ByteBufferRandomAccessRead(mapped);
+			}
+		}
+		return new RandomAccessBufferedFileInputStream(file);
+	}
+
+	/**
+	 * Maps a file into memory, if it is small enough to map in a single buffer.
+	 * @return the mapping, or {@code null} if the file could not be mapped
+	 */
+	static ByteBuffer mapFile_rNull(@NotNull File file) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() <= Integer.MAX_VALUE) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+		} catch (IOException e) {
+			System.err.println("Unable to memory-map pdf; it will be read from disk.");
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return strategy + ((scratchFolder == null) ? "" : ", scratch in " + scratchFolder);
+	}
+}
@@ -0,0 +1,333 @@
+package com.github.kjburns.pdfmarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JOptionPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Opens a pdf on a background thread and hands it to a pdf container once it is ready, so that
+ * the user interface stays responsive while a large file is parsed.
+ * <p>
+ * Progress is shown in a {@link ProgressMonitor}, which only appears if opening the file takes
+ * a noticeable amount of time, and from which opening can be cancelled. Only the document structure
+ * and the first few pages are read before the document is handed over; the rest is read as it is
+ * needed. The container is given the document on the event dispatch thread, so its
+ * {@link HasActivePdfBoxDocument.PdfContainerListener}s are notified there as well.
+ * </p>
+ * <p>
+ * A markup file may be opened instead of a pdf. Its journal is opened and the pdf it marks up is
+ * fingerprinted on the background thread as well, before the pdf is parsed; only asking whether to
+ * open a pdf that has changed since it was marked up is done on the event dispatch thread. The marks
+ * are given to the markup container just after the document is given to the pdf container.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class DocumentOpener {
+	/**
+	 * How many pages at the start of the document are read before it is handed over
+	 */
+	private static final int FIRST_PAGES_TO_PREPARE = 3;
+	/**
+	 * Share of the progress bar given to parsing, rather than to preparing the first pages
+	 */
+	private static final int PARSING_PERCENT = 90;
+	private static final int MONITOR_UPDATE_INTERVAL_MS = 100;
+
+	/**
+	 * A markup file that could not be opened, or whose pdf could not be found.
+	 * The message is shown to the user as it is.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	private static final class MarkupUnavailableException extends IOException {
+		private static final long serialVersionUID = -3409617432541128306L;
+
+		MarkupUnavailableException(String message, Throwable cause) {
+			super(message, cause);
+		}
+	}
+
+	private final class OpenWorker extends SwingWorker<PDDocument, Void> {
+		/**
+		 * guards handing the document over, so that a document finished just as opening
+		 * is cancelled is closed exactly once
+		 */
+		private final Object handoverLock = new Object();
+		private PDDocument openedDocument = null;
+		/**
+		 * the journal of the markup file being opened, until it is given to the markup container; guarded by handoverLock
+		 */
+		private MarkupJournal openedMarkup = null;
+		private volatile File documentFile = null;
+		private volatile boolean parsing = true;
+		private volatile String note = "Reading document structure";
+		private volatile DocumentMemoryPolicy memoryPolicy = null;
+		private volatile String fingerprint = null;
+
+		@Override
+		protected PDDocument doInBackground() throws IOException {
+			if (markupContainer == null) {
+				documentFile = file;
+			}
+			else if (!openMarkup()) {
+				return null;
+			}
+			
+			final PDDocument doc = parse();
+			try {
+				note = "Preparing first pages";
+				prepareFirstPages(doc);
+				if (markupContainer == null) {
+					fingerprint = DocumentFingerprint.compute_rNull(documentFile);
+				}
+			} catch (IOException | RuntimeException e) {
+				closeQuietly(doc);
+				throw e;
+			}
+
+			synchronized (handoverLock) {
+				if (isCancelled()) {
+					closeQuietly(doc);
+					return null;
+				}
+				openedDocument = doc;
+			}
+			return doc;
+		}
+
+		/**
+		 * Opens the journal of the markup file, and finds the pdf it marks up.
+		 * @return {@code false} if opening was cancelled, or the user chose not to open a pdf that has changed
+		 * since it was marked up, in which case the worker has been cancelled
+		 */
+		private boolean openMarkup() throws IOException {
+			note = "Reading marks";
+			final MarkupJournal markup;
+			try {
+				markup = MarkupJournal.open(file);
+			} catch (IOException e) {
+				throw new MarkupUnavailableException("Could not open markup file: " + e.getMessage(), e);
+			}
+			synchronized (handoverLock) {
+				if (isCancelled()) {
+					markup.close();
+					return false;
+				}
+				openedMarkup = markup;
+			}
+			
+			final File markedUp = markup.getDocumentFile();
+			if (!markedUp.isFile()) {
+				throw new MarkupUnavailableException("Could not find the pdf marked up in " + file.getName() 
+						+ ": " + markedUp, null);
+			}
+			documentFile = markedUp;
+			fingerprint = DocumentFingerprint.compute_rNull(markedUp);
+			final String markedUpFingerprint = markup.getDocumentFingerprint_rNull();
+			if (markedUpFingerprint != null && !markedUpFingerprint.equals(fingerprint) && !confirmChangedDocument()) {
+				cancel(false);
+				return false;
+			}
+			return true;
+		}
+
+		private boolean confirmChangedDocument() throws InterruptedIOException {
+			final int[] choice = {JOptionPane.NO_OPTION};
+			try {
+				SwingUtilities.invokeAndWait(() -> {
+					choice[0] = JOptionPane.showConfirmDialog(null, documentFile.getName() 
+							+ " has changed since it was marked up, so marks may be out of place. Open anyway?",
+							"Pdf Marker", JOptionPane.YES_NO_OPTION);
+				});
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Opening of pdf was cancelled.");
+			} catch (InvocationTargetException e) {
+				System.err.println("Unable to ask whether to open a changed pdf.");
+				e.getCause().printStackTrace();
+			}
+			return (choice[0] == JOptionPane.YES_OPTION);
+		}
+
+		private PDDocument parse() throws IOException {
+			final DocumentMemoryPolicy policy = DocumentMemoryPolicy.loadPreferences().resolveFor(documentFile);
+			memoryPolicy = policy;
+			final RandomAccessRead fileSource = policy.openSource(documentFile);
+			ScratchFile scratchFile = null;
+			try {
+				scratchFile = new ScratchFile(policy.createMemoryUsageSetting());
+				final MonitoredRandomAccessRead source = new MonitoredRandomAccessRead(fileSource,
+						(percent) -> {
+							if (parsing) {
+								setProgress(percent * PARSING_PERCENT / 100);
+							}
+						},
+						this::isCancelled);
+				final PDFParser parser = new PDFParser(source, scratchFile);
+				parser.parse();
+				final PDDocument ret = parser.getPDDocument();
+				parsing = false;
+				SharedResourceCache.getInstance().installOn(ret);
+				return ret;
+			} catch (IOException | RuntimeException e) {
+				fileSource.close();
+				if (scratchFile != null) {
+					scratchFile.close();
+				}
+				throw e;
+			}
+		}
+
+		private void prepareFirstPages(@NotNull PDDocument doc) throws IOException {
+			final int pageCount = Math.min(FIRST_PAGES_TO_PREPARE, doc.getNumberOfPages());
+			for (int pageNr = 0; pageNr < pageCount; pageNr++) {
+				if (isCancelled()) {
+					throw new InterruptedIOException("Opening of pdf was cancelled.");
+				}
+				/*
+				 * reading a page's dictionary and resources up front spares the first paint from doing it
+				 */
+				final PDPage page = doc.getPage(pageNr);
+				page.getMediaBox();
+				page.getResources();
+				setProgress(PARSING_PERCENT + (100 - PARSING_PERCENT) * (pageNr + 1) / pageCount);
+			}
+		}
+
+		@Override
+		protected void done() {
+			monitorTimer.stop();
+			monitor.close();
+			try {
+				if (isCancelled()) {
+					synchronized (handoverLock) {
+						if (openedDocument != null) {
+							closeQuietly(openedDocument);
+						}
+					}
+					return;
+				}
+
+				pdfContainer.setActivePdfDocument(get(), new DocumentSource(documentFile, memoryPolicy, fingerprint));
+				if (markupContainer != null) {
+					final MarkupJournal markup;
+					synchronized (handoverLock) {
+						markup = openedMarkup;
+						openedMarkup = null;
+					}
+					markupContainer.setMarkup(markup);
+				}
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof MarkupUnavailableException) {
+					JOptionPane.showMessageDialog(null, e.getCause().getMessage());
+				}
+				else {
+					final String reason = (e.getCause() instanceof InvalidPasswordException)
+							? " (it is password protected)" : "";
+					JOptionPane.showMessageDialog(null, "Could not open pdf: " + documentFile.getName() + reason);
+				}
+				e.getCause().printStackTrace();
+			} catch (InterruptedException | CancellationException e) {
+				// opening was abandoned, which needs no further attention
+			} finally {
+				synchronized (handoverLock) {
+					if (openedMarkup != null) {
+						openedMarkup.close();
+						openedMarkup = null;
+					}
+				}
+				onFinished.run();
+			}
+		}
+	}
+
+	private final HasActivePdfBoxDocument pdfContainer;
+	/**
+	 * the container to give the marks to, or {@code null} if a pdf is being opened by itself
+	 */
+	private final HasMarkupModel markupContainer;
+	/**
+	 * the pdf, or the markup file, being opened
+	 */
+	private final File file;
+	private final Runnable onFinished;
+	private final ProgressMonitor monitor;
+	private final OpenWorker worker = this.new OpenWorker();
+	private final Timer monitorTimer = new Timer(MONITOR_UPDATE_INTERVAL_MS, (e) -> updateMonitor());
+
+	/**
+	 * @param pdfContainer the container to give the document to, once it is open
+	 * @param file the pdf to open
+	 * @param onFinished called on the event dispatch thread once opening has finished,
+	 * failed or been cancelled
+	 */
+	public DocumentOpener(@NotNull HasActivePdfBoxDocument pdfContainer, @NotNull File file,
+			@NotNull Runnable onFinished) {
+		this(pdfContainer, null, file, onFinished);
+	}
+
+	/**
+	 * @param pdfContainer the container to give the document to, once it is open
+	 * @param markupContainer the container to give the marks to, just after the document is given to
+	 * {@code pdfContainer}, or {@code null} if {@code file} is a pdf to open by itself
+	 * @param file the markup file to open, together with the pdf it marks up
+	 * @param onFinished called on the event dispatch thread once opening has finished,
+	 * failed or been cancelled
+	 */
+	public DocumentOpener(@NotNull HasActivePdfBoxDocument pdfContainer, HasMarkupModel markupContainer, 
+			@NotNull File file, @NotNull Runnable onFinished) {
+		this.pdfContainer = pdfContainer;
+		this.markupContainer = markupContainer;
+		this.file = file;
+		this.onFinished = onFinished;
+		monitor = new ProgressMonitor(null, "Opening " + file.getName(), worker.note, 0, 100);
+	}
+
+	/**
+	 * Starts opening the document. Must be called on the event dispatch thread, and only once.
+	 */
+	public void start() {
+		monitorTimer.start();
+		worker.execute();
+	}
+
+	private void updateMonitor() {
+		if (monitor.isCanceled()) {
+			worker.cancel(true);
+			return;
+		}
+		monitor.setNote(worker.note);
+		monitor.setProgress(worker.getProgress());
+	}
+
+	/**
+	 * Closes a document that was opened but never handed over.
+	 */
+	private static void closeQuietly(@NotNull PDDocument doc) {
+		SharedResourceCache.getInstance().release(doc);
+		try {
+			doc.close();
+		} catch (IOException e) {
+			System.err.println("Unable to close pdf that was not handed over.");
+			e.printStackTrace();
+		}
+	}
+}
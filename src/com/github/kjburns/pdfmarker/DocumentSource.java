@@ -0,0 +1,54 @@
+package com.github.kjburns.pdfmarker;
+
+import java.io.File;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Where an open document came from: the file it was loaded from, the {@link DocumentMemoryPolicy}
+ * it was opened under, so that anything else loaded from the file is kept the same way, and the file's
+ * {@link DocumentFingerprint}, computed while the document was opened so that nothing on the event
+ * dispatch thread has to read the file again.
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class DocumentSource {
+	private final File file;
+	private final DocumentMemoryPolicy memoryPolicy;
+	private final String fingerprint;
+
+	/**
+	 * @param file the file the document was loaded from
+	 * @param memoryPolicy the policy the document was opened under, already
+	 * {@link DocumentMemoryPolicy#resolveFor(File) resolved} for the file
+	 * @param fingerprint the file's fingerprint, or {@code null} if it could not be computed
+	 * @throws IllegalArgumentException if {@code file} or {@code memoryPolicy} is {@code null},
+	 * or if the policy is automatic
+	 */
+	public DocumentSource(@NotNull File file, @NotNull DocumentMemoryPolicy memoryPolicy, String fingerprint) {
+		if (file == null || memoryPolicy == null) {
+			throw new IllegalArgumentException();
+		}
+		if (memoryPolicy.getStrategy() == DocumentMemoryPolicy.Strategy.AUTOMATIC) {
+			throw new IllegalArgumentException("Memory policy must be resolved for the file.");
+		}
+		this.file = file;
+		this.memoryPolicy = memoryPolicy;
+		this.fingerprint = fingerprint;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public DocumentMemoryPolicy getMemoryPolicy() {
+		return memoryPolicy;
+	}
+
+	/**
+	 * @return the file's fingerprint, or {@code null} if it could not be computed
+	 */
+	public String getFingerprint_rNull() {
+		return fingerprint;
+	}
+}
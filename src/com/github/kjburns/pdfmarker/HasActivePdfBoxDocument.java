@@ -12,6 +12,7 @@ import com.sun.istack.internal.NotNull;
 interface HasActivePdfBoxDocument {
 	/**
 	 * A listener for monitoring a pdf container's document load/unload.
+	 * Listeners are notified on the event dispatch thread.
 	 * @author Kevin J. Burns, P.E.
 	 *
 	 */
@@ -88,7 +89,22 @@ interface HasActivePdfBoxDocument {
 	 * This parameter must not be null, otherwise an IllegalArgumentException will be raised.
 	 * @throws IllegalArgumentException if {@code doc == null}.
 	 */
-	void setActivePdfDocument(@NotNull PDDocument doc);
+	default void setActivePdfDocument(@NotNull PDDocument doc) {
+		setActivePdfDocument(doc, null);
+	}
+	/**
+	 * Sets the active pdf document, noting where it was loaded from.
+	 * <p>
+	 * This behaves exactly as {@link #setActivePdfDocument(PDDocument)}. Knowing the source file
+	 * allows the container to load independent copies of the document, for instance to render 
+	 * pages on more than one thread at a time, which are kept as the source's memory policy directs.
+	 * </p>
+	 * @param doc The pdf document to give to this container. 
+	 * This parameter must not be null, otherwise an IllegalArgumentException will be raised.
+	 * @param source Where {@code doc} was loaded from, or {@code null} if it is not known.
+	 * @throws IllegalArgumentException if {@code doc == null}.
+	 */
+	void setActivePdfDocument(@NotNull PDDocument doc, DocumentSource source);
 	
 	/**
 	 * Gets the number of pages in the active pdf document. 
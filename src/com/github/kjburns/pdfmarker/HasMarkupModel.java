@@ -0,0 +1,39 @@
+package com.github.kjburns.pdfmarker;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Interface for components that hold the marks made on their active pdf document.
+ * Every document is given an empty set of marks when it is loaded.
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+interface HasMarkupModel {
+	/**
+	 * @return the marks made on the active document, or {@code null} if there is no active document
+	 */
+	MarkupModel getMarkupModel_rNull();
+	/**
+	 * @return the file the marks were last loaded from or saved to, or {@code null} if they have not been
+	 */
+	File getMarkupFile_rNull();
+	/**
+	 * Replaces the marks made on the active document with those of a markup file.
+	 * The journal records every later change to them, until another document is loaded.
+	 * @param journal the journal of the markup file, holding its marks
+	 * @throws IllegalStateException if there is no active document
+	 */
+	void setMarkup(@NotNull MarkupJournal journal);
+	/**
+	 * Saves the marks made on the active document, and remembers the file for later saves.
+	 * Saving to the file the marks were last loaded from or saved to only makes sure the changes
+	 * recorded in its journal are on disk.
+	 * @param markupFile the file to save to
+	 * @throws IOException if the marks cannot be saved
+	 * @throws IllegalStateException if there is no active document
+	 */
+	void saveMarkup(@NotNull File markupFile) throws IOException;
+}
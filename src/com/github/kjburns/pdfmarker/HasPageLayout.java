@@ -0,0 +1,18 @@
+package com.github.kjburns.pdfmarker;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Interface for components that can arrange the pages of a document into rows and columns.
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+interface HasPageLayout {
+	PageLayout getPageLayout();
+	/**
+	 * Rearranges the pages of the active document, and of any document opened later.
+	 * @param layout the new arrangement of pages
+	 * @throws IllegalArgumentException if {@code layout == null}
+	 */
+	void setPageLayout(@NotNull PageLayout layout);
+}
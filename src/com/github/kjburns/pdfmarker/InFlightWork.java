@@ -0,0 +1,90 @@
+package com.github.kjburns.pdfmarker;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Keeps render workers from doing the same work at the same time. The first worker to ask for
+ * a result computes it; any other worker that asks for the same result meanwhile waits for it
+ * instead. Results are not kept once they have been handed out.
+ * <p>
+ * A waiting worker stops waiting if its own render job is cancelled. If the worker computing the
+ * result fails or is cancelled, one of the waiting workers computes the result in its place.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ * @param <K> identifies a result
+ * @param <V> the type of result
+ */
+final class InFlightWork<K, V> {
+	/**
+	 * how often a waiting worker checks whether its own job has been cancelled
+	 */
+	private static final long CANCELLATION_CHECK_INTERVAL_MS = 20;
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Gets a result, computing it on the calling thread unless another thread is already computing it.
+	 * @param key identifies the result
+	 * @param work computes the result
+	 * @return the result
+	 * @throws CancellationException if the render job running on the calling thread is cancelled while waiting
+	 */
+	public V get(@NotNull K key, @NotNull Supplier<V> work) {
+		while (true) {
+			final CompletableFuture<V> mine = new CompletableFuture<>();
+			final CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+			if (running == null) {
+				return compute(key, mine, work);
+			}
+			try {
+				return await(running);
+			} catch (ExecutionException e) {
+				/*
+				 * the thread computing the result failed or was cancelled; try again, most likely computing it here
+				 */
+			}
+		}
+	}
+
+	private V compute(@NotNull K key, @NotNull CompletableFuture<V> mine, @NotNull Supplier<V> work) {
+		try {
+			final V ret = work.get();
+			inFlight.remove(key, mine);
+			mine.complete(ret);
+			return ret;
+		} catch (RuntimeException | Error e) {
+			inFlight.remove(key, mine);
+			mine.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	private static <V> V await(@NotNull CompletableFuture<V> running) throws ExecutionException {
+		while (true) {
+			try {
+				return running.get(CANCELLATION_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+			} catch (CancellationException e) {
+				/*
+				 * the job of the thread computing the result was cancelled, not ours
+				 */
+				throw new ExecutionException(e);
+			} catch (TimeoutException e) {
+				if (PageRenderScheduler.isCurrentRenderCancelled()) {
+					throw new CancellationException();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CancellationException();
+			}
+		}
+	}
+}
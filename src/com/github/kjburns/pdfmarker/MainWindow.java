@@ -53,10 +53,15 @@ class MainWindow extends JFrame {
 		JToolBar ret = new JToolBar();
 		
 		ret.add(new TestAction(getPdfContainer()));
-		ret.add(new OpenFileAction(getPdfContainer()));
+		ret.add(new OpenFileAction(getPdfContainer(), canvas));
+		ret.add(new SaveMarkupAction(canvas));
+		ret.add(new MemoryPolicyAction());
 		
 		PdfNavigationWidget navWidget = new PdfNavigationWidget(getPdfContainer());
 		ret.add(navWidget.getComponent());
+		
+		PageLayoutWidget layoutWidget = new PageLayoutWidget(canvas);
+		ret.add(layoutWidget.getComponent());
 		// TODO Add more toolbar buttons
 		return ret;
 	}
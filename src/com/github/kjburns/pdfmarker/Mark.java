@@ -0,0 +1,138 @@
+package com.github.kjburns.pdfmarker;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * A rectangle marked on a page of a document, with the attributes given to it.
+ * <p>
+ * Bounds are in page coordinates: document units to the right of the page's left edge and below its
+ * top edge, as the page is displayed. Marks stay put on their pages whatever the page layout.
+ * </p>
+ * <p>
+ * A mark is a handle on a slot of the {@link MarkStore} of the {@link MarkupModel} that holds it; the
+ * attributes themselves are kept in the store's columns. Handles are made as they are needed, so the same
+ * mark may be represented by more than one handle, and handles must be compared with
+ * {@link #equals(Object)}. A mark is changed only through its model, which keeps its spatial index in step,
+ * and every change is recorded in the mark's change log.
+ * </p>
+ * <p>
+ * Once a mark has been removed from its model, only its identifier and page number may be read.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class Mark {
+	private final MarkStore store;
+	private final int slot;
+	private final long id;
+	private final int pageNr;
+
+	Mark(@NotNull MarkStore store, int slot) {
+		this.store = store;
+		this.slot = slot;
+		this.id = store.getId(slot);
+		this.pageNr = store.getPageNumber(slot);
+	}
+
+	/**
+	 * @return an identifier unique among the marks of a model
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * @return zero-based number of the page the mark is on
+	 */
+	public int getPageNumber() {
+		return pageNr;
+	}
+
+	public float getLeftX() {
+		return store.getLeftX(getSlot());
+	}
+
+	public float getTopY() {
+		return store.getTopY(getSlot());
+	}
+
+	public float getRightX() {
+		return store.getRightX(getSlot());
+	}
+
+	public float getBottomY() {
+		return store.getBottomY(getSlot());
+	}
+
+	/**
+	 * @return the mark's category, or {@code null} if it has not been categorized
+	 */
+	public String getCategory_rNull() {
+		return store.getCategory_rNull(getSlot());
+	}
+
+	/**
+	 * @return how sure the marker is of the mark, from 0 to 1
+	 */
+	public float getConfidence() {
+		return store.getConfidence(getSlot());
+	}
+
+	/**
+	 * @return the changes made to the mark, oldest first, each prefixed with the time it was made
+	 */
+	public List<String> getChangeLog() {
+		return Collections.unmodifiableList(store.getChangeLog(getSlot()));
+	}
+
+	/**
+	 * @return the latest entry of the change log, or {@code null} if it is empty
+	 */
+	public String getLatestChange_rNull() {
+		return store.getLatestLogEntry_rNull(getSlot());
+	}
+
+	/**
+	 * @return {@code true} if the point is within the mark's bounds, edges included
+	 */
+	public boolean contains(double x, double y) {
+		final int slot = getSlot();
+		return x >= store.getLeftX(slot) && x <= store.getRightX(slot)
+				&& y >= store.getTopY(slot) && y <= store.getBottomY(slot);
+	}
+
+	/**
+	 * @return {@code true} if this mark is still held by the store
+	 */
+	boolean isHeldBy(@NotNull MarkStore store) {
+		return this.store == store && store.holds(slot, id);
+	}
+
+	/**
+	 * @return the mark's slot in its store
+	 * @throws IllegalStateException if the mark has been removed
+	 */
+	int getSlot() {
+		if (!store.holds(slot, id)) {
+			throw new IllegalStateException("Mark " + id + " has been removed.");
+		}
+		return slot;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Mark)) {
+			return false;
+		}
+		final Mark other = (Mark)obj;
+		return store == other.store && id == other.id;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(id);
+	}
+}
@@ -0,0 +1,544 @@
+package com.github.kjburns.pdfmarker;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Stores marks in columns of primitives, one array per attribute, indexed by slot.
+ * <p>
+ * Categories are kept in a dictionary, and each mark holds the id of its category. Change logs share one byte
+ * buffer: each entry is the offset of the mark's previous entry, the length of the entry's text, the time of
+ * the change in nanoseconds since the epoch as a long, and the text's UTF-8 encoding, and each mark holds the
+ * offset of its latest entry. Entries are handed out as the time, as {@link Instant#toString()} gives it,
+ * followed by a space and the text; an entry given in any other form is kept whole, with no time. Apart from
+ * its change log, a mark takes {@value #BYTES_PER_MARK} bytes, and scanning an attribute of every mark runs
+ * over a single array.
+ * </p>
+ * <p>
+ * The slot of a removed mark is reused. A removed mark's log entries stay in the buffer until enough of the
+ * buffer is taken by them to make it worth compacting.
+ * </p>
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class MarkStore {
+	/**
+	 * the category id of marks that have not been categorized
+	 */
+	static final int NO_CATEGORY = -1;
+	private static final long FREE_SLOT = -1;
+	private static final int NO_LOG_ENTRY = -1;
+	/**
+	 * the time of a log entry kept whole
+	 */
+	private static final long NO_TIME = Long.MIN_VALUE;
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final int SECONDS_PER_DAY = 24 * 60 * 60;
+	/**
+	 * the length of a time as {@link Instant#toString()} writes it, without a fraction of a second
+	 */
+	private static final int WHOLE_SECOND_TIME_CHARS = "2000-01-01T00:00:00Z".length();
+	private static final int BYTES_PER_MARK =
+			Long.BYTES + Integer.BYTES + 4 * Float.BYTES + Integer.BYTES + Float.BYTES + Integer.BYTES;
+	private static final int LOG_ENTRY_HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES;
+	private static final int INITIAL_CAPACITY = 64;
+	/**
+	 * the log buffer is not compacted until it is at least this large
+	 */
+	private static final int MIN_LOG_COMPACTION_BYTES = 1024 * 1024;
+
+	private long[] ids = new long[INITIAL_CAPACITY];
+	private int[] pageNumbers = new int[INITIAL_CAPACITY];
+	private float[] lefts = new float[INITIAL_CAPACITY];
+	private float[] tops = new float[INITIAL_CAPACITY];
+	private float[] rights = new float[INITIAL_CAPACITY];
+	private float[] bottoms = new float[INITIAL_CAPACITY];
+	private int[] categoryIds = new int[INITIAL_CAPACITY];
+	private float[] confidences = new float[INITIAL_CAPACITY];
+	private int[] logTails = new int[INITIAL_CAPACITY];
+	/**
+	 * one past the highest slot ever used
+	 */
+	private int slotLimit = 0;
+	private int size = 0;
+	private int[] freeSlots = new int[INITIAL_CAPACITY];
+	private int freeSlotCount = 0;
+
+	private final List<String> categoryNames = new ArrayList<>();
+	private final Map<String, Integer> categoryIdsByName = new HashMap<>();
+
+	private byte[] log = new byte[INITIAL_CAPACITY * 64];
+	private int logBytes = 0;
+	private int wastedLogBytes = 0;
+
+	/**
+	 * @return the number of marks stored
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return one more than the highest slot that may hold a mark
+	 */
+	public int getSlotLimit() {
+		return slotLimit;
+	}
+
+	/**
+	 * Stores a mark, with an empty change log.
+	 * @return the mark's slot
+	 */
+	public int add(long id, int pageNr, float left, float top, float right, float bottom,
+			String category, float confidence) {
+		final int slot;
+		if (freeSlotCount > 0) {
+			slot = freeSlots[--freeSlotCount];
+		}
+		else {
+			if (slotLimit == ids.length) {
+				grow();
+			}
+			slot = slotLimit++;
+		}
+		ids[slot] = id;
+		pageNumbers[slot] = pageNr;
+		setBounds(slot, left, top, right, bottom);
+		categoryIds[slot] = getCategoryId(category);
+		confidences[slot] = confidence;
+		logTails[slot] = NO_LOG_ENTRY;
+		size++;
+		return slot;
+	}
+
+	/**
+	 * Removes the mark in a slot, freeing the slot.
+	 */
+	public void remove(int slot) {
+		for (int entry = logTails[slot]; entry != NO_LOG_ENTRY; entry = readInt(log, entry)) {
+			wastedLogBytes += LOG_ENTRY_HEADER_BYTES + readInt(log, entry + Integer.BYTES);
+		}
+		ids[slot] = FREE_SLOT;
+		logTails[slot] = NO_LOG_ENTRY;
+		if (freeSlotCount == freeSlots.length) {
+			freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+		}
+		freeSlots[freeSlotCount++] = slot;
+		size--;
+		compactLogIfWasteful();
+	}
+
+	/**
+	 * @return {@code true} if the slot holds the mark with the identifier
+	 */
+	public boolean holds(int slot, long id) {
+		return slot >= 0 && slot < slotLimit && ids[slot] == id && id != FREE_SLOT;
+	}
+
+	/**
+	 * Finds a mark by scanning the identifier column.
+	 * @return the mark's slot, or -1 if no slot holds a mark with the identifier
+	 */
+	public int findSlot(long id) {
+		if (id == FREE_SLOT) {
+			return -1;
+		}
+		for (int slot = 0; slot < slotLimit; slot++) {
+			if (ids[slot] == id) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Visits every slot that holds a mark, in slot order.
+	 */
+	public void forEachSlot(@NotNull IntConsumer action) {
+		for (int slot = 0; slot < slotLimit; slot++) {
+			if (ids[slot] != FREE_SLOT) {
+				action.accept(slot);
+			}
+		}
+	}
+
+	public long getId(int slot) {
+		return ids[slot];
+	}
+
+	public int getPageNumber(int slot) {
+		return pageNumbers[slot];
+	}
+
+	public float getLeftX(int slot) {
+		return lefts[slot];
+	}
+
+	public float getTopY(int slot) {
+		return tops[slot];
+	}
+
+	public float getRightX(int slot) {
+		return rights[slot];
+	}
+
+	public float getBottomY(int slot) {
+		return bottoms[slot];
+	}
+
+	/**
+	 * @return the id of the mark's category in the dictionary, or {@link #NO_CATEGORY}
+	 */
+	public int getCategoryId(int slot) {
+		return categoryIds[slot];
+	}
+
+	/**
+	 * @return the mark's category, or {@code null} if it has not been categorized
+	 */
+	public String getCategory_rNull(int slot) {
+		return getCategoryName_rNull(categoryIds[slot]);
+	}
+
+	public float getConfidence(int slot) {
+		return confidences[slot];
+	}
+
+	/**
+	 * Sets the bounds of a mark. The corners may be given in either order.
+	 */
+	public void setBounds(int slot, float x1, float y1, float x2, float y2) {
+		lefts[slot] = Math.min(x1, x2);
+		tops[slot] = Math.min(y1, y2);
+		rights[slot] = Math.max(x1, x2);
+		bottoms[slot] = Math.max(y1, y2);
+	}
+
+	public void setCategory(int slot, String category) {
+		categoryIds[slot] = getCategoryId(category);
+	}
+
+	public void setConfidence(int slot, float confidence) {
+		confidences[slot] = confidence;
+	}
+
+	/**
+	 * @return the number of categories in the dictionary; their ids run from 0 to one less than this
+	 */
+	public int getCategoryCount() {
+		return categoryNames.size();
+	}
+
+	/**
+	 * @param categoryId a category id, or {@link #NO_CATEGORY}
+	 * @return the category's name, or {@code null} for {@link #NO_CATEGORY}
+	 */
+	public String getCategoryName_rNull(int categoryId) {
+		return (categoryId == NO_CATEGORY) ? null : categoryNames.get(categoryId);
+	}
+
+	/**
+	 * Gets the id of a category, adding it to the dictionary if it is new.
+	 * @param category the category, or {@code null}
+	 * @return the category's id, or {@link #NO_CATEGORY} if {@code category == null}
+	 */
+	public int getCategoryId(String category) {
+		if (category == null) {
+			return NO_CATEGORY;
+		}
+		return categoryIdsByName.computeIfAbsent(category, (name) -> {
+			categoryNames.add(name);
+			return categoryNames.size() - 1;
+		});
+	}
+
+	/**
+	 * Adds an entry to the end of a mark's change log.
+	 * @param time when the change was made
+	 * @param change what the change was
+	 */
+	public void appendLogEntry(int slot, @NotNull Instant time, @NotNull String change) {
+		final long nanos = toNanos(time);
+		if (nanos == NO_TIME) {
+			appendLogEntry(slot, NO_TIME, time + " " + change);
+		}
+		else {
+			appendLogEntry(slot, nanos, change);
+		}
+	}
+
+	/**
+	 * Adds an entry, as read back from a change log, to the end of a mark's change log.
+	 */
+	public void appendLogEntry(int slot, @NotNull String entry) {
+		final int space = entry.indexOf(' ');
+		final long nanos = (space < 0) ? NO_TIME : parseTime(entry, space);
+		if (nanos == NO_TIME) {
+			appendLogEntry(slot, NO_TIME, entry);
+		}
+		else {
+			appendLogEntry(slot, nanos, entry.substring(space + 1));
+		}
+	}
+
+	private void appendLogEntry(int slot, long nanos, @NotNull String text) {
+		final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		final int needed = logBytes + LOG_ENTRY_HEADER_BYTES + bytes.length;
+		if (needed > log.length) {
+			log = Arrays.copyOf(log, Math.max(needed, log.length + (log.length >> 1)));
+		}
+		writeInt(logBytes, logTails[slot]);
+		writeInt(logBytes + Integer.BYTES, bytes.length);
+		writeLong(logBytes + 2 * Integer.BYTES, nanos);
+		System.arraycopy(bytes, 0, log, logBytes + LOG_ENTRY_HEADER_BYTES, bytes.length);
+		logTails[slot] = logBytes;
+		logBytes = needed;
+	}
+
+	/**
+	 * @return the time in nanoseconds since the epoch, or {@link #NO_TIME} if it does not fit in a long
+	 */
+	private static long toNanos(@NotNull Instant time) {
+		try {
+			return Math.addExact(Math.multiplyExact(time.getEpochSecond(), NANOS_PER_SECOND), time.getNano());
+		} catch (ArithmeticException e) {
+			return NO_TIME;
+		}
+	}
+
+	/**
+	 * @return the mark's change log, oldest entry first
+	 */
+	public List<String> getChangeLog(int slot) {
+		final List<String> ret = new ArrayList<>();
+		for (int entry = logTails[slot]; entry != NO_LOG_ENTRY; entry = readInt(log, entry)) {
+			ret.add(readLogEntry(entry));
+		}
+		Collections.reverse(ret);
+		return ret;
+	}
+
+	/**
+	 * @return the latest entry of the mark's change log, or {@code null} if it is empty
+	 */
+	public String getLatestLogEntry_rNull(int slot) {
+		return (logTails[slot] == NO_LOG_ENTRY) ? null : readLogEntry(logTails[slot]);
+	}
+
+	private String readLogEntry(int entry) {
+		final String text = new String(log, entry + LOG_ENTRY_HEADER_BYTES, readInt(log, entry + Integer.BYTES),
+				StandardCharsets.UTF_8);
+		final long nanos = readLong(log, entry + 2 * Integer.BYTES);
+		if (nanos == NO_TIME) {
+			return text;
+		}
+		final StringBuilder ret = new StringBuilder(WHOLE_SECOND_TIME_CHARS + 11 + text.length());
+		formatTime(ret, nanos);
+		return ret.append(' ').append(text).toString();
+	}
+
+	/**
+	 * Reads a time at the start of a log entry, written exactly as {@link Instant#toString()} writes it.
+	 * This is done by hand, since log entries are read back by the million and the general parser is slow.
+	 * @param end where the time ends
+	 * @return the time in nanoseconds since the epoch, or {@link #NO_TIME} if it is not written so,
+	 * or does not fit in a long
+	 */
+	private static long parseTime(@NotNull String entry, int end) {
+		final int fractionDigits = (end == WHOLE_SECOND_TIME_CHARS) ? 0 : end - WHOLE_SECOND_TIME_CHARS - 1;
+		if ((fractionDigits != 0 && fractionDigits != 3 && fractionDigits != 6 && fractionDigits != 9)
+				|| entry.charAt(4) != '-' || entry.charAt(7) != '-' || entry.charAt(10) != 'T'
+				|| entry.charAt(13) != ':' || entry.charAt(16) != ':' || entry.charAt(end - 1) != 'Z'
+				|| (fractionDigits > 0 && entry.charAt(19) != '.')) {
+			return NO_TIME;
+		}
+		final int year = parseDigits(entry, 0, 4);
+		final int month = parseDigits(entry, 5, 2);
+		final int day = parseDigits(entry, 8, 2);
+		final int hour = parseDigits(entry, 11, 2);
+		final int minute = parseDigits(entry, 14, 2);
+		final int second = parseDigits(entry, 17, 2);
+		int nano = (fractionDigits == 0) ? 0 : parseDigits(entry, 20, fractionDigits);
+		if (year < 0 || month < 0 || day < 0 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+				|| second < 0 || second > 59 || nano < 0) {
+			return NO_TIME;
+		}
+		for (int i = fractionDigits; i < 9; i++) {
+			nano *= 10;
+		}
+		/*
+		 * a fraction that Instant would have written with fewer digits was not written by it
+		 */
+		if (getFractionDigits(nano) != fractionDigits) {
+			return NO_TIME;
+		}
+		final long epochDay;
+		try {
+			epochDay = LocalDate.of(year, month, day).toEpochDay();
+		} catch (DateTimeException e) {
+			return NO_TIME;
+		}
+		final long epochSecond = epochDay * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+		try {
+			return Math.addExact(Math.multiplyExact(epochSecond, NANOS_PER_SECOND), nano);
+		} catch (ArithmeticException e) {
+			return NO_TIME;
+		}
+	}
+
+	/**
+	 * @return the decimal value of some digits, or -1 if any of them is not a digit
+	 */
+	private static int parseDigits(@NotNull String str, int start, int count) {
+		int ret = 0;
+		for (int i = start; i < start + count; i++) {
+			final char c = str.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			ret = ret * 10 + (c - '0');
+		}
+		return ret;
+	}
+
+	/**
+	 * Writes a time as {@link Instant#toString()} does, for the years a time in nanoseconds may fall in.
+	 */
+	private static void formatTime(@NotNull StringBuilder out, long nanos) {
+		final long epochSecond = Math.floorDiv(nanos, NANOS_PER_SECOND);
+		final int nano = (int)Math.floorMod(nanos, NANOS_PER_SECOND);
+		final LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(epochSecond, SECONDS_PER_DAY));
+		final int secondOfDay = (int)Math.floorMod(epochSecond, SECONDS_PER_DAY);
+		appendDigits(out, date.getYear(), 4);
+		out.append('-');
+		appendDigits(out, date.getMonthValue(), 2);
+		out.append('-');
+		appendDigits(out, date.getDayOfMonth(), 2);
+		out.append('T');
+		appendDigits(out, secondOfDay / 3600, 2);
+		out.append(':');
+		appendDigits(out, secondOfDay / 60 % 60, 2);
+		out.append(':');
+		appendDigits(out, secondOfDay % 60, 2);
+		final int fractionDigits = getFractionDigits(nano);
+		if (fractionDigits > 0) {
+			int fraction = nano;
+			for (int i = fractionDigits; i < 9; i++) {
+				fraction /= 10;
+			}
+			out.append('.');
+			appendDigits(out, fraction, fractionDigits);
+		}
+		out.append('Z');
+	}
+
+	/**
+	 * @return how many digits of a fraction of a second {@link Instant#toString()} writes: none, 3, 6 or 9
+	 */
+	private static int getFractionDigits(int nano) {
+		if (nano == 0) {
+			return 0;
+		}
+		if (nano % 1000000 == 0) {
+			return 3;
+		}
+		return (nano % 1000 == 0) ? 6 : 9;
+	}
+
+	private static void appendDigits(@NotNull StringBuilder out, int value, int count) {
+		int divisor = 1;
+		for (int i = 1; i < count; i++) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			out.append((char)('0' + value / divisor % 10));
+		}
+	}
+
+	private void writeInt(int offset, int value) {
+		log[offset] = (byte)(value >>> 24);
+		log[offset + 1] = (byte)(value >>> 16);
+		log[offset + 2] = (byte)(value >>> 8);
+		log[offset + 3] = (byte)value;
+	}
+
+	private void writeLong(int offset, long value) {
+		writeInt(offset, (int)(value >>> 32));
+		writeInt(offset + Integer.BYTES, (int)value);
+	}
+
+	/**
+	 * Copies the log entries of the marks still stored into a new buffer, once the entries of removed marks
+	 * take up more than half of the buffer.
+	 */
+	private void compactLogIfWasteful() {
+		if (logBytes < MIN_LOG_COMPACTION_BYTES || wastedLogBytes * 2 < logBytes) {
+			return;
+		}
+
+		final byte[] oldLog = log;
+		log = new byte[Math.max(INITIAL_CAPACITY * 64, (logBytes - wastedLogBytes) * 2)];
+		logBytes = 0;
+		wastedLogBytes = 0;
+		final List<Integer> entries = new ArrayList<>();
+		for (int slot = 0; slot < slotLimit; slot++) {
+			if (ids[slot] == FREE_SLOT) {
+				continue;
+			}
+			/*
+			 * the entries are linked newest first, so gather them before copying them oldest first
+			 */
+			entries.clear();
+			for (int entry = logTails[slot]; entry != NO_LOG_ENTRY; entry = readInt(oldLog, entry)) {
+				entries.add(entry);
+			}
+			logTails[slot] = NO_LOG_ENTRY;
+			for (int i = entries.size() - 1; i >= 0; i--) {
+				final int entry = entries.get(i);
+				final int length = readInt(oldLog, entry + Integer.BYTES);
+				writeInt(logBytes, logTails[slot]);
+				writeInt(logBytes + Integer.BYTES, length);
+				System.arraycopy(oldLog, entry + 2 * Integer.BYTES, log, logBytes + 2 * Integer.BYTES,
+						Long.BYTES + length);
+				logTails[slot] = logBytes;
+				logBytes += LOG_ENTRY_HEADER_BYTES + length;
+			}
+		}
+	}
+
+	private static int readInt(@NotNull byte[] buffer, int offset) {
+		return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16)
+				| ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+	}
+
+	private static long readLong(@NotNull byte[] buffer, int offset) {
+		return ((long)readInt(buffer, offset) << 32) | (readInt(buffer, offset + Integer.BYTES) & 0xffffffffL);
+	}
+
+	private void grow() {
+		final int capacity = ids.length * 2;
+		ids = Arrays.copyOf(ids, capacity);
+		pageNumbers = Arrays.copyOf(pageNumbers, capacity);
+		lefts = Arrays.copyOf(lefts, capacity);
+		tops = Arrays.copyOf(tops, capacity);
+		rights = Arrays.copyOf(rights, capacity);
+		bottoms = Arrays.copyOf(bottoms, capacity);
+		categoryIds = Arrays.copyOf(categoryIds, capacity);
+		confidences = Arrays.copyOf(confidences, capacity);
+		logTails = Arrays.copyOf(logTails, capacity);
+	}
+}
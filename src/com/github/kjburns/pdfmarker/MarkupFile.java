@@ -0,0 +1,441 @@
+package com.github.kjburns.pdfmarker;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * A {@code .pdfmarkup} file: the marks made on a document, and where the document is.
+ * <p>
+ * The file is read into the heap in one go, but only its header and page table are decoded up front;
+ * the marks of each page are decoded when the page is first looked at. It is not memory-mapped, since
+ * the merges of a {@link MarkupJournal} replace the file while it is in use, which some platforms refuse
+ * to do to a mapped file.
+ * </p>
+ * <p>
+ * The format, with all numbers big-endian:
+ * </p>
+ * <ul>
+ * <li>A header of {@value #HEADER_BYTES} bytes: the magic number, the format version as a short, a short
+ * of flags (none are defined), the identifier for the next mark as a long, the number of marks, the string
+ * indexes of the document's path and fingerprint, the number of entries in the page table, the offset
+ * of the string table as a long, and the sequence number of the last {@link MarkupJournal} entry included
+ * in the file as a long.</li>
+ * <li>The page table, one entry of {@value #PAGE_ENTRY_BYTES} bytes for each page that has marks, in
+ * ascending page order: the page number, the index of its first record and its number of records.</li>
+ * <li>The records, {@value #RECORD_BYTES} bytes for each mark, grouped by page: the mark's identifier as a
+ * long; its left, top, right and bottom as floats; the string index of its category; its confidence as
+ * a float; and the string index of its first change log entry and the number of entries, which are
+ * consecutive in the string table.</li>
+ * <li>The string table: the number of strings, the offset of each from the end of the offsets, and then
+ * each string as its length in bytes followed by its UTF-8 encoding. Categories are stored once each.</li>
+ * </ul>
+ * <p>
+ * A string index of {@value #NO_STRING} stands for {@code null}. The document's path is relative to the
+ * folder of the markup file where possible. Files of a later format version are refused.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class MarkupFile implements MarkupModel.MarkSource {
+	private static final int MAGIC = 0x504d4d4b; // "PMMK"
+	private static final short FORMAT_VERSION = 1;
+	private static final int HEADER_BYTES = 48;
+	private static final int PAGE_ENTRY_BYTES = 12;
+	private static final int RECORD_BYTES = 40;
+	private static final int NO_STRING = -1;
+
+	private final File file;
+	private final ByteBuffer buffer;
+	private final long nextMarkId;
+	private final long journalSequence;
+	private final String documentPath;
+	private final String documentFingerprint;
+	/*
+	 * the page table, in ascending page order
+	 */
+	private final int[] pageNumbers;
+	private final int[] firstRecords;
+	private final int[] recordCounts;
+	private final int recordsOffset;
+	private final int stringCount;
+	private final int stringOffsetsOffset;
+	private final int stringDataOffset;
+	/**
+	 * categories already decoded, by string index; there are few, and each is shared by many marks
+	 */
+	private final Map<Integer, String> categories = new HashMap<>();
+
+	private MarkupFile(@NotNull File file, @NotNull ByteBuffer buffer) throws IOException {
+		this.file = file;
+		this.buffer = buffer;
+		try {
+			if (buffer.getInt(0) != MAGIC) {
+				throw new IOException(file.getName() + " is not a markup file.");
+			}
+			final short version = buffer.getShort(4);
+			if (version > FORMAT_VERSION) {
+				throw new IOException(file.getName() + " was written by a later version of this program.");
+			}
+			nextMarkId = buffer.getLong(8);
+			journalSequence = buffer.getLong(40);
+			final int documentPathIndex = buffer.getInt(20);
+			final int documentFingerprintIndex = buffer.getInt(24);
+			final int pageEntryCount = buffer.getInt(28);
+			final long stringTableOffset = buffer.getLong(32);
+			if (pageEntryCount < 0 || HEADER_BYTES + (long)pageEntryCount * PAGE_ENTRY_BYTES > buffer.limit()) {
+				throw new IOException(file.getName() + " is damaged.");
+			}
+
+			pageNumbers = new int[pageEntryCount];
+			firstRecords = new int[pageEntryCount];
+			recordCounts = new int[pageEntryCount];
+			for (int i = 0; i < pageEntryCount; i++) {
+				final int position = HEADER_BYTES + i * PAGE_ENTRY_BYTES;
+				pageNumbers[i] = buffer.getInt(position);
+				firstRecords[i] = buffer.getInt(position + 4);
+				recordCounts[i] = buffer.getInt(position + 8);
+			}
+			recordsOffset = HEADER_BYTES + pageEntryCount * PAGE_ENTRY_BYTES;
+
+			if (stringTableOffset < recordsOffset || stringTableOffset > buffer.limit() - Integer.BYTES) {
+				throw new IOException(file.getName() + " is damaged.");
+			}
+			stringCount = buffer.getInt((int)stringTableOffset);
+			if (stringCount < 0 || stringTableOffset + Integer.BYTES + (long)stringCount * Integer.BYTES > buffer.limit()) {
+				throw new IOException(file.getName() + " is damaged.");
+			}
+			stringOffsetsOffset = (int)stringTableOffset + Integer.BYTES;
+			stringDataOffset = stringOffsetsOffset + stringCount * Integer.BYTES;
+			for (int i = 0; i < pageEntryCount; i++) {
+				/*
+				 * pages are looked up by binary search, which needs them in strictly ascending order
+				 */
+				if (pageNumbers[i] < 0 || (i > 0 && pageNumbers[i] <= pageNumbers[i - 1])) {
+					throw new IOException(file.getName() + " is damaged.");
+				}
+				if (firstRecords[i] < 0 || recordCounts[i] < 0
+						|| recordsOffset + (long)(firstRecords[i] + recordCounts[i]) * RECORD_BYTES > stringTableOffset) {
+					throw new IOException(file.getName() + " is damaged.");
+				}
+			}
+			documentPath = getString_rNull(documentPathIndex);
+			documentFingerprint = getString_rNull(documentFingerprintIndex);
+			if (documentPath == null) {
+				throw new IOException(file.getName() + " does not say which document it marks up.");
+			}
+		} catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+			throw new IOException(file.getName() + " is damaged.", e);
+		}
+	}
+
+	/**
+	 * Reads a markup file into the heap. Only the header and page table are decoded; the marks are decoded
+	 * as they are needed. No handle on the file is kept, so it may be replaced while its marks are still
+	 * being read.
+	 * @param file the file
+	 * @return the file's contents
+	 * @throws IOException if the file cannot be read, is not a markup file, is damaged,
+	 * or is of a later format version
+	 */
+	public static MarkupFile read(@NotNull File file) throws IOException {
+		if (file.length() > Integer.MAX_VALUE) {
+			throw new IOException(file.getName() + " is too large to be a markup file.");
+		}
+		final byte[] bytes = Files.readAllBytes(file.toPath());
+		if (bytes.length < HEADER_BYTES) {
+			throw new IOException(file.getName() + " is not a markup file.");
+		}
+		return new MarkupFile(file, ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * @return the document the marks were made on
+	 */
+	public File getDocumentFile() {
+		return file.getAbsoluteFile().getParentFile().toPath().resolve(documentPath).normalize().toFile();
+	}
+
+	/**
+	 * @return the {@link DocumentFingerprint} the document had when it was marked up,
+	 * or {@code null} if it was not known
+	 */
+	public String getDocumentFingerprint_rNull() {
+		return documentFingerprint;
+	}
+
+	/**
+	 * @return the identifier for the next mark added to the marks in this file
+	 */
+	public long getNextMarkId() {
+		return nextMarkId;
+	}
+
+	/**
+	 * @return the sequence number of the last journal entry included in this file, or 0 if there is none
+	 */
+	public long getJournalSequence() {
+		return journalSequence;
+	}
+
+	/**
+	 * Creates a model of the marks in this file, which reads each page's marks from the file when the page
+	 * is first looked at.
+	 */
+	public MarkupModel createModel() {
+		return new MarkupModel(this, nextMarkId);
+	}
+
+	@Override
+	public int[] getMarkedPages() {
+		return pageNumbers.clone();
+	}
+
+	@Override
+	public int getMarkCount(int pageNr) {
+		final int entry = Arrays.binarySearch(pageNumbers, pageNr);
+		return (entry < 0) ? 0 : recordCounts[entry];
+	}
+
+	@Override
+	public void loadPage(int pageNr, Consumer<MarkupModel.MarkRecord> consumer) {
+		final int entry = Arrays.binarySearch(pageNumbers, pageNr);
+		if (entry < 0) {
+			return;
+		}
+
+		try {
+			for (int i = 0; i < recordCounts[entry]; i++) {
+				final int position = recordsOffset + (firstRecords[entry] + i) * RECORD_BYTES;
+				final int categoryIndex = buffer.getInt(position + 24);
+				final MarkupModel.MarkRecord mark = new MarkupModel.MarkRecord();
+				mark.id = buffer.getLong(position);
+				mark.left = buffer.getFloat(position + 8);
+				mark.top = buffer.getFloat(position + 12);
+				mark.right = buffer.getFloat(position + 16);
+				mark.bottom = buffer.getFloat(position + 20);
+				mark.category = (categoryIndex == NO_STRING) ? null
+						: categories.computeIfAbsent(categoryIndex, this::getString_rNull);
+				mark.confidence = buffer.getFloat(position + 28);
+				final int firstLogEntry = buffer.getInt(position + 32);
+				final int logEntryCount = buffer.getInt(position + 36);
+				for (int j = 0; j < logEntryCount; j++) {
+					mark.changeLog.add(getString_rNull(firstLogEntry + j));
+				}
+				consumer.accept(mark);
+			}
+		} catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+			System.err.println("Unable to read the marks of page " + (pageNr + 1) + " from " + file.getName()
+					+ "; the file is damaged.");
+			e.printStackTrace();
+		}
+	}
+
+	private String getString_rNull(int index) {
+		if (index == NO_STRING) {
+			return null;
+		}
+		if (index < 0 || index >= stringCount) {
+			throw new IndexOutOfBoundsException("String index " + index + " out of range");
+		}
+		final long position = (long)stringDataOffset + buffer.getInt(stringOffsetsOffset + index * Integer.BYTES);
+		if (position < stringDataOffset || position > buffer.limit() - Integer.BYTES) {
+			throw new IndexOutOfBoundsException("String " + index + " lies outside the string table");
+		}
+		final int length = buffer.getInt((int)position);
+		/*
+		 * checked before allocating, so that a damaged length cannot exhaust the heap
+		 */
+		if (length < 0 || length > buffer.limit() - position - Integer.BYTES) {
+			throw new IndexOutOfBoundsException("String " + index + " has a length of " + length 
+					+ ", which runs past the end of the file");
+		}
+		final byte[] bytes = new byte[length];
+		final ByteBuffer view = buffer.duplicate();
+		view.position((int)position + Integer.BYTES);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the marks made on a document to a markup file, replacing it if it exists.
+	 * This loads every page of the model that has not been loaded yet.
+	 * @param markupFile the file to write
+	 * @param model the marks
+	 * @param documentFile the document the marks were made on
+	 * @param documentFingerprint the document's {@link DocumentFingerprint}, or {@code null} if it is not known
+	 * @param journalSequence the sequence number of the last journal entry included in the marks, or 0 if none
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(@NotNull File markupFile, @NotNull MarkupModel model, @NotNull File documentFile,
+			String documentFingerprint, long journalSequence) throws IOException {
+		model.loadAllPages();
+		final MarkStore store = model.getStore();
+		final int[] marks = getSlotsByPage(store);
+
+		final Map<String, Integer> strings = new LinkedHashMap<>();
+		final List<String> logEntries = new ArrayList<>();
+		final int documentPathIndex = addString(strings, getDocumentPath(markupFile, documentFile));
+		final int documentFingerprintIndex = (documentFingerprint == null) ? NO_STRING : addString(strings, documentFingerprint);
+		/*
+		 * only the categories still in use are written, each once
+		 */
+		final int[] categoryStrings = new int[store.getCategoryCount()];
+		Arrays.fill(categoryStrings, NO_STRING);
+		for (int slot : marks) {
+			final int categoryId = store.getCategoryId(slot);
+			if (categoryId != MarkStore.NO_CATEGORY && categoryStrings[categoryId] == NO_STRING) {
+				categoryStrings[categoryId] = addString(strings, store.getCategoryName_rNull(categoryId));
+			}
+		}
+		/*
+		 * log entries are rarely repeated, and each mark's must be consecutive, so they follow the shared strings
+		 */
+		final int firstLogString = strings.size();
+		final int[] logEntryCounts = new int[marks.length];
+		for (int i = 0; i < marks.length; i++) {
+			final List<String> changeLog = store.getChangeLog(marks[i]);
+			logEntries.addAll(changeLog);
+			logEntryCounts[i] = changeLog.size();
+		}
+
+		final List<Integer> pageNumbers = new ArrayList<>();
+		final List<Integer> firstRecords = new ArrayList<>();
+		for (int i = 0; i < marks.length; i++) {
+			if (i == 0 || store.getPageNumber(marks[i]) != store.getPageNumber(marks[i - 1])) {
+				pageNumbers.add(store.getPageNumber(marks[i]));
+				firstRecords.add(i);
+			}
+		}
+		final long stringTableOffset = HEADER_BYTES + (long)pageNumbers.size() * PAGE_ENTRY_BYTES
+				+ (long)marks.length * RECORD_BYTES;
+
+		final File folder = markupFile.getAbsoluteFile().getParentFile();
+		final File tempFile = new File(folder, markupFile.getName() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				out.writeInt(MAGIC);
+				out.writeShort(FORMAT_VERSION);
+				out.writeShort(0);
+				out.writeLong(model.getNextId());
+				out.writeInt(marks.length);
+				out.writeInt(documentPathIndex);
+				out.writeInt(documentFingerprintIndex);
+				out.writeInt(pageNumbers.size());
+				out.writeLong(stringTableOffset);
+				out.writeLong(journalSequence);
+
+				for (int i = 0; i < pageNumbers.size(); i++) {
+					final int nextFirstRecord = (i + 1 < firstRecords.size()) ? firstRecords.get(i + 1) : marks.length;
+					out.writeInt(pageNumbers.get(i));
+					out.writeInt(firstRecords.get(i));
+					out.writeInt(nextFirstRecord - firstRecords.get(i));
+				}
+
+				int logString = firstLogString;
+				for (int i = 0; i < marks.length; i++) {
+					final int slot = marks[i];
+					final int categoryId = store.getCategoryId(slot);
+					out.writeLong(store.getId(slot));
+					out.writeFloat(store.getLeftX(slot));
+					out.writeFloat(store.getTopY(slot));
+					out.writeFloat(store.getRightX(slot));
+					out.writeFloat(store.getBottomY(slot));
+					out.writeInt((categoryId == MarkStore.NO_CATEGORY) ? NO_STRING : categoryStrings[categoryId]);
+					out.writeFloat(store.getConfidence(slot));
+					out.writeInt(logString);
+					out.writeInt(logEntryCounts[i]);
+					logString += logEntryCounts[i];
+				}
+
+				writeStringTable(out, strings.keySet(), logEntries);
+			}
+			/*
+			 * readers never see a partly written file
+			 */
+			Files.move(tempFile.toPath(), markupFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			tempFile.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Orders the slots of a store's marks by page, by counting sort over the page column.
+	 * Within a page, marks are in slot order.
+	 */
+	private static int[] getSlotsByPage(@NotNull MarkStore store) {
+		final int[] maxPage = { -1 };
+		store.forEachSlot((slot) -> maxPage[0] = Math.max(maxPage[0], store.getPageNumber(slot)));
+		final int[] nextPositions = new int[maxPage[0] + 2];
+		store.forEachSlot((slot) -> nextPositions[store.getPageNumber(slot) + 1]++);
+		for (int pageNr = 1; pageNr < nextPositions.length; pageNr++) {
+			nextPositions[pageNr] += nextPositions[pageNr - 1];
+		}
+		final int[] ret = new int[store.size()];
+		store.forEachSlot((slot) -> ret[nextPositions[store.getPageNumber(slot)]++] = slot);
+		return ret;
+	}
+
+	private static int addString(@NotNull Map<String, Integer> strings, @NotNull String s) {
+		return strings.computeIfAbsent(s, (key) -> strings.size());
+	}
+
+	private static void writeStringTable(@NotNull DataOutputStream out, @NotNull Iterable<String> sharedStrings,
+			@NotNull List<String> logEntries) throws IOException {
+		final List<byte[]> encoded = new ArrayList<>();
+		for (String s : sharedStrings) {
+			encoded.add(s.getBytes(StandardCharsets.UTF_8));
+		}
+		for (String s : logEntries) {
+			encoded.add(s.getBytes(StandardCharsets.UTF_8));
+		}
+
+		out.writeInt(encoded.size());
+		int offset = 0;
+		for (byte[] bytes : encoded) {
+			out.writeInt(offset);
+			offset += Integer.BYTES + bytes.length;
+		}
+		for (byte[] bytes : encoded) {
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * @return the path of the document relative to the folder of the markup file, if it has one
+	 */
+	private static String getDocumentPath(@NotNull File markupFile, @NotNull File documentFile) {
+		final Path folder = markupFile.getAbsoluteFile().getParentFile().toPath();
+		final Path document = documentFile.getAbsoluteFile().toPath();
+		try {
+			/*
+			 * with forward slashes, which every platform can resolve
+			 */
+			return folder.relativize(document).toString().replace(File.separatorChar, '/');
+		} catch (IllegalArgumentException e) {
+			/*
+			 * on another drive
+			 */
+			return document.toString();
+		}
+	}
+}
@@ -0,0 +1,695 @@
+package com.github.kjburns.pdfmarker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import javax.swing.JOptionPane;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * A write-ahead journal of the edits made to the marks of a {@link MarkupFile}, kept beside it, so that
+ * saving costs only the edits made since the last save, and no edit is lost if the program stops unexpectedly.
+ * <p>
+ * Each edit is appended to the journal as soon as it is made, so it survives the program crashing. The journal
+ * is forced to the storage device in batches, at most {@value #SYNC_INTERVAL_MS} ms after an edit, so that
+ * marking quickly never waits on the disk. Once the journal grows past {@value #COMPACTION_THRESHOLD_BYTES}
+ * bytes it is set aside and a new one begun, and the set aside journal is merged into the markup file in the
+ * background. The markup file records the sequence number of the last edit it includes, so a merge interrupted
+ * at any point is simply done again. Opening a markup file replays the newer edits in its journals, one page
+ * at a time as the marks of each page are loaded. Opening waits for a merge in progress to finish, so that it
+ * never reads a markup file and journals from either side of a merge. The markup file is read into the heap
+ * rather than mapped, so that a merge can replace it while it is open.
+ * </p>
+ * <p>
+ * A journal begins with a magic number and a format version as a short. Each entry is framed by the length of
+ * its content and a CRC-32 of it, so that an entry torn by a crash is recognized and dropped. The content is
+ * the entry's sequence number as a long, its type as a byte, and the identifier of the mark as a long and its
+ * page number; an edit then gives the mark's left, top, right and bottom as floats, its category as a flag and,
+ * if it has one, a string, its confidence as a float, and the change log entry describing the edit as a string.
+ * Strings are written as their length in bytes followed by their UTF-8 encoding. Journals of a later format
+ * version are refused.
+ * </p>
+ * <p>
+ * Edits are recorded on the event dispatch thread, where the model is used. Forcing the journal, setting it
+ * aside and closing it are all done on a background thread, so that the event dispatch thread never waits
+ * on the storage device.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class MarkupJournal implements MarkupModel.MarkEditListener {
+	private static final int MAGIC = 0x504d4a4c; // "PMJL"
+	private static final short FORMAT_VERSION = 1;
+	private static final int HEADER_BYTES = Integer.BYTES + Short.BYTES;
+	private static final int FRAME_BYTES = 2 * Integer.BYTES;
+	private static final byte ENTRY_EDIT = 1;
+	private static final byte ENTRY_REMOVE = 2;
+	private static final int SYNC_INTERVAL_MS = 250;
+	private static final long COMPACTION_THRESHOLD_BYTES = 4L * 1024 * 1024;
+	private static final String JOURNAL_EXTENSION = ".journal";
+	private static final String SET_ASIDE_EXTENSION = ".journal.old";
+
+	private static final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor((r) -> {
+		final Thread ret = new Thread(r, "markup-journal-sync");
+		ret.setDaemon(true);
+		return ret;
+	});
+	private static final ExecutorService compactor = Executors.newSingleThreadExecutor((r) -> {
+		final Thread ret = new Thread(r, "markup-journal-compactor");
+		ret.setDaemon(true);
+		ret.setPriority(Thread.MIN_PRIORITY);
+		return ret;
+	});
+	/**
+	 * held while a merge replaces a markup file and deletes its set aside journal, and while a markup file
+	 * and its journals are read on opening
+	 */
+	private static final Object mergeLock = new Object();
+
+	/**
+	 * An entry of a journal, read back or about to be appended.
+	 */
+	private static final class Entry {
+		long sequence;
+		byte type;
+		long markId;
+		int pageNr;
+		float left;
+		float top;
+		float right;
+		float bottom;
+		String category;
+		float confidence;
+		String logEntry;
+	}
+
+	/**
+	 * The marks of a markup file with the edits of its journals applied, page by page.
+	 */
+	private static final class ReplaySource implements MarkupModel.MarkSource {
+		private final MarkupFile base;
+		private final Map<Integer, List<Entry>> entriesByPage = new HashMap<>();
+		private final Map<Integer, Integer> markCountChanges = new HashMap<>();
+
+		/**
+		 * @param base the markup file
+		 * @param entries the entries newer than the markup file, in order
+		 */
+		ReplaySource(@NotNull MarkupFile base, @NotNull List<Entry> entries) {
+			this.base = base;
+			/*
+			 * identifiers are never reused, so an edit to a mark newer than the markup file,
+			 * seen for the first time, creates it
+			 */
+			final Set<Long> created = new HashSet<>();
+			for (Entry entry : entries) {
+				entriesByPage.computeIfAbsent(entry.pageNr, (pageNr) -> new ArrayList<>()).add(entry);
+				int change = 0;
+				if (entry.type == ENTRY_REMOVE) {
+					change = -1;
+				}
+				else if (entry.markId >= base.getNextMarkId() && created.add(entry.markId)) {
+					change = 1;
+				}
+				markCountChanges.merge(entry.pageNr, change, Integer::sum);
+			}
+		}
+
+		@Override
+		public int[] getMarkedPages() {
+			final Set<Integer> pages = new TreeSet<>(entriesByPage.keySet());
+			for (int pageNr : base.getMarkedPages()) {
+				pages.add(pageNr);
+			}
+			return pages.stream().mapToInt(Integer::intValue).toArray();
+		}
+
+		@Override
+		public int getMarkCount(int pageNr) {
+			return base.getMarkCount(pageNr) + markCountChanges.getOrDefault(pageNr, 0);
+		}
+
+		@Override
+		public void loadPage(int pageNr, Consumer<MarkupModel.MarkRecord> consumer) {
+			final Map<Long, MarkupModel.MarkRecord> marks = new LinkedHashMap<>();
+			base.loadPage(pageNr, (mark) -> marks.put(mark.id, mark));
+			for (Entry entry : entriesByPage.getOrDefault(pageNr, new ArrayList<>())) {
+				if (entry.type == ENTRY_REMOVE) {
+					marks.remove(entry.markId);
+					continue;
+				}
+				final MarkupModel.MarkRecord mark = marks.computeIfAbsent(entry.markId, (id) -> {
+					final MarkupModel.MarkRecord ret = new MarkupModel.MarkRecord();
+					ret.id = id;
+					return ret;
+				});
+				mark.left = entry.left;
+				mark.top = entry.top;
+				mark.right = entry.right;
+				mark.bottom = entry.bottom;
+				mark.category = entry.category;
+				mark.confidence = entry.confidence;
+				mark.changeLog.add(entry.logEntry);
+			}
+			marks.values().forEach(consumer);
+		}
+	}
+
+	private final File markupFile;
+	private final File journalFile;
+	private final File setAsideFile;
+	private final MarkupModel model;
+	private final File documentFile;
+	private final String documentFingerprint;
+	/**
+	 * guards which channel is the journal's and whether it has been written since it was last forced;
+	 * forcing itself is done outside it
+	 */
+	private final Object channelLock = new Object();
+	private FileChannel channel;
+	private boolean unsynced = false;
+	/*
+	 * the length of the journal, and the length at which it is next set aside; guarded by channelLock
+	 */
+	private long journalBytes;
+	private long nextCompactionBytes = COMPACTION_THRESHOLD_BYTES;
+	private long nextSequence;
+	private volatile boolean compacting = false;
+	private volatile boolean writeFailed = false;
+	private final ScheduledFuture<?> syncTask;
+
+	private MarkupJournal(@NotNull File markupFile, @NotNull MarkupModel model, @NotNull File documentFile,
+			String documentFingerprint, long nextSequence, long validJournalBytes) throws IOException {
+		this.markupFile = markupFile;
+		this.journalFile = getJournalFile(markupFile);
+		this.setAsideFile = getSetAsideFile(markupFile);
+		this.model = model;
+		this.documentFile = documentFile;
+		this.documentFingerprint = documentFingerprint;
+		this.nextSequence = nextSequence;
+		channel = openJournal(journalFile, validJournalBytes);
+		journalBytes = channel.size();
+		/*
+		 * a journal begun afresh has a header that has not been forced yet
+		 */
+		unsynced = true;
+
+		syncTask = syncer.scheduleWithFixedDelay(this::syncQuietly, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS,
+				TimeUnit.MILLISECONDS);
+		model.addMarkEditListener(this);
+	}
+
+	/**
+	 * Opens a markup file, replaying the edits in its journals, and continues its journal.
+	 * Only the markup file's header, page table and journals are read; the marks are read as they are needed.
+	 * @param markupFile the markup file
+	 * @return the journal, whose model holds the marks of the file with every recorded edit
+	 * @throws IOException if the markup file or its journals cannot be read
+	 */
+	public static MarkupJournal open(@NotNull File markupFile) throws IOException {
+		final MarkupFile base;
+		final List<Entry> entries = new ArrayList<>();
+		final File setAsideFile = getSetAsideFile(markupFile);
+		final File journalFile = getJournalFile(markupFile);
+		final long validJournalBytes;
+		synchronized (mergeLock) {
+			base = MarkupFile.read(markupFile);
+			if (setAsideFile.isFile()) {
+				readEntries(setAsideFile, entries);
+			}
+			if (journalFile.isFile()) {
+				validJournalBytes = readEntries(journalFile, entries);
+			}
+			else {
+				validJournalBytes = 0;
+			}
+		}
+		entries.removeIf((entry) -> entry.sequence <= base.getJournalSequence());
+
+		long nextId = base.getNextMarkId();
+		long lastSequence = base.getJournalSequence();
+		for (Entry entry : entries) {
+			nextId = Math.max(nextId, entry.markId + 1);
+			lastSequence = Math.max(lastSequence, entry.sequence);
+		}
+		final MarkupModel model = entries.isEmpty() ? base.createModel()
+				: new MarkupModel(new ReplaySource(base, entries), nextId);
+		final MarkupJournal ret = new MarkupJournal(markupFile, model, base.getDocumentFile(),
+				base.getDocumentFingerprint_rNull(), lastSequence + 1, validJournalBytes);
+		if (setAsideFile.isFile()) {
+			/*
+			 * the last merge did not finish
+			 */
+			ret.startCompaction();
+		}
+		return ret;
+	}
+
+	/**
+	 * Writes the marks made on a document to a new markup file, replacing it if it exists, and begins its journal.
+	 * @param markupFile the markup file
+	 * @param model the marks
+	 * @param documentFile the document the marks were made on
+	 * @param documentFingerprint the document's {@link DocumentFingerprint}, or {@code null} if it is not known
+	 * @return the journal, which records later edits to {@code model}
+	 * @throws IOException if the markup file cannot be written
+	 */
+	public static MarkupJournal create(@NotNull File markupFile, @NotNull MarkupModel model,
+			@NotNull File documentFile, String documentFingerprint) throws IOException {
+		MarkupFile.write(markupFile, model, documentFile, documentFingerprint, 0);
+		/*
+		 * any journals there belong to the file just replaced
+		 */
+		Files.deleteIfExists(getSetAsideFile(markupFile).toPath());
+		Files.deleteIfExists(getJournalFile(markupFile).toPath());
+		return new MarkupJournal(markupFile, model, documentFile, documentFingerprint, 1, 0);
+	}
+
+	public MarkupModel getModel() {
+		return model;
+	}
+
+	public File getMarkupFile() {
+		return markupFile;
+	}
+
+	/**
+	 * @return the document the marks were made on
+	 */
+	public File getDocumentFile() {
+		return documentFile;
+	}
+
+	/**
+	 * @return the {@link DocumentFingerprint} the document had when it was marked up,
+	 * or {@code null} if it was not known
+	 */
+	public String getDocumentFingerprint_rNull() {
+		return documentFingerprint;
+	}
+
+	/**
+	 * Forces every edit recorded so far to the storage device.
+	 * @throws IOException if the journal cannot be forced
+	 */
+	public void sync() throws IOException {
+		/*
+		 * forced outside the lock, so that edits go on being appended meanwhile;
+		 * any appended after the flag is cleared are forced next time
+		 */
+		final FileChannel toForce;
+		synchronized (channelLock) {
+			if (!unsynced) {
+				return;
+			}
+			toForce = channel;
+			unsynced = false;
+		}
+		try {
+			toForce.force(false);
+		} catch (ClosedChannelException e) {
+			// the journal was set aside or closed, and forced before it was
+		} catch (IOException e) {
+			synchronized (channelLock) {
+				if (channel == toForce) {
+					unsynced = true;
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Stops recording edits. Those recorded so far are forced to the storage device, and the journal closed,
+	 * in the background. A merge in progress carries on in the background as well.
+	 */
+	public void close() {
+		model.removeMarkEditListener(this);
+		syncTask.cancel(false);
+		syncer.execute(this::closeChannel);
+	}
+
+	private void closeChannel() {
+		synchronized (channelLock) {
+			try {
+				channel.force(false);
+				channel.close();
+			} catch (IOException e) {
+				System.err.println("Unable to close markup journal " + journalFile.getName());
+				e.printStackTrace();
+			}
+		}
+	}
+
+	@Override
+	public void markEdited(MarkupModel source, Mark mark) {
+		final String change = mark.getLatestChange_rNull();
+		final Entry entry = new Entry();
+		entry.type = ENTRY_EDIT;
+		entry.markId = mark.getId();
+		entry.pageNr = mark.getPageNumber();
+		entry.left = mark.getLeftX();
+		entry.top = mark.getTopY();
+		entry.right = mark.getRightX();
+		entry.bottom = mark.getBottomY();
+		entry.category = mark.getCategory_rNull();
+		entry.confidence = mark.getConfidence();
+		entry.logEntry = (change == null) ? "" : change;
+		append(entry);
+	}
+
+	@Override
+	public void markRemoved(MarkupModel source, Mark mark) {
+		final Entry entry = new Entry();
+		entry.type = ENTRY_REMOVE;
+		entry.markId = mark.getId();
+		entry.pageNr = mark.getPageNumber();
+		append(entry);
+	}
+
+	private void append(@NotNull Entry entry) {
+		if (writeFailed) {
+			return;
+		}
+
+		entry.sequence = nextSequence;
+		final ByteBuffer frame = frame(entry);
+		final boolean compactionDue;
+		try {
+			synchronized (channelLock) {
+				while (frame.hasRemaining()) {
+					channel.write(frame);
+				}
+				unsynced = true;
+				journalBytes += frame.capacity();
+				compactionDue = (journalBytes >= nextCompactionBytes);
+				if (compactionDue) {
+					nextCompactionBytes = journalBytes + COMPACTION_THRESHOLD_BYTES;
+				}
+			}
+		} catch (IOException e) {
+			writeFailed = true;
+			System.err.println("Unable to record edit in markup journal " + journalFile.getName());
+			e.printStackTrace();
+			JOptionPane.showMessageDialog(null, "Changes to the marks can no longer be recorded in "
+					+ markupFile.getName() + ". Save the markup to another file to keep them.");
+			return;
+		}
+		nextSequence++;
+		if (compactionDue) {
+			startCompaction();
+		}
+	}
+
+	private void syncQuietly() {
+		try {
+			sync();
+		} catch (IOException e) {
+			System.err.println("Unable to force markup journal " + journalFile.getName() + " to disk.");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Has the journal set aside, unless an earlier one still is, and merged into the markup file in the background.
+	 */
+	private void startCompaction() {
+		if (compacting) {
+			return;
+		}
+		compacting = true;
+		syncer.execute(this::setAside);
+	}
+
+	/**
+	 * Sets the journal aside and begins a new one, and then starts merging the set aside journal.
+	 * Runs on the syncer thread.
+	 */
+	private void setAside() {
+		if (!setAsideFile.exists()) {
+			/*
+			 * forced before the lock is taken, so that edits go on being appended meanwhile;
+			 * the few appended after it are forced once the journal has been set aside
+			 */
+			syncQuietly();
+			synchronized (channelLock) {
+				try {
+					channel.close();
+					Files.move(journalFile.toPath(), setAsideFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+					channel = openJournal(journalFile, 0);
+					unsynced = true;
+					journalBytes = HEADER_BYTES;
+					nextCompactionBytes = COMPACTION_THRESHOLD_BYTES;
+				} catch (IOException e) {
+					System.err.println("Unable to set aside markup journal " + journalFile.getName());
+					e.printStackTrace();
+					try {
+						/*
+						 * carry on with the journal as it was
+						 */
+						if (!channel.isOpen()) {
+							channel = openJournal(journalFile, journalFile.length());
+							unsynced = true;
+						}
+					} catch (IOException e2) {
+						writeFailed = true;
+						System.err.println("Unable to reopen markup journal " + journalFile.getName());
+						e2.printStackTrace();
+					}
+					compacting = false;
+					return;
+				}
+			}
+			try (FileChannel setAside = FileChannel.open(setAsideFile.toPath(), StandardOpenOption.WRITE)) {
+				setAside.force(false);
+			} catch (IOException e) {
+				/*
+				 * the merge reads the entries all the same; only a crash before it finishes could lose them
+				 */
+				System.err.println("Unable to force set aside markup journal " + setAsideFile.getName() + " to disk.");
+				e.printStackTrace();
+			}
+		}
+
+		compactor.execute(this::compact);
+	}
+
+	/**
+	 * Merges the set aside journal into the markup file. Runs in the background, on copies of the marks.
+	 */
+	private void compact() {
+		try {
+			synchronized (mergeLock) {
+				/*
+				 * read into the heap, since a mapping would keep the file from being replaced on some platforms
+				 */
+				final MarkupFile base = MarkupFile.read(markupFile);
+				final List<Entry> entries = new ArrayList<>();
+				readEntries(setAsideFile, entries);
+				entries.removeIf((entry) -> entry.sequence <= base.getJournalSequence());
+				if (!entries.isEmpty()) {
+					long nextId = base.getNextMarkId();
+					long lastSequence = base.getJournalSequence();
+					for (Entry entry : entries) {
+						nextId = Math.max(nextId, entry.markId + 1);
+						lastSequence = Math.max(lastSequence, entry.sequence);
+					}
+					final MarkupModel merged = new MarkupModel(new ReplaySource(base, entries), nextId);
+					MarkupFile.write(markupFile, merged, base.getDocumentFile(), base.getDocumentFingerprint_rNull(),
+							lastSequence);
+				}
+				Files.delete(setAsideFile.toPath());
+			}
+		} catch (IOException | RuntimeException e) {
+			/*
+			 * nothing is lost; the set aside journal is replayed on opening until a merge succeeds
+			 */
+			System.err.println("Unable to merge markup journal into " + markupFile.getName() + "; will try again later.");
+			e.printStackTrace();
+		} finally {
+			compacting = false;
+		}
+	}
+
+	/**
+	 * Opens a journal for appending, starting it afresh if it has no valid header. A new header is not forced;
+	 * a journal torn before its header reached the disk is simply begun again.
+	 * @param validBytes the length of the part of the journal known to be whole; anything after it is cut off
+	 */
+	private static FileChannel openJournal(@NotNull File file, long validBytes) throws IOException {
+		final FileChannel ret = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			if (validBytes < HEADER_BYTES) {
+				ret.truncate(0);
+				final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				header.putInt(MAGIC).putShort(FORMAT_VERSION).flip();
+				while (header.hasRemaining()) {
+					ret.write(header);
+				}
+			}
+			else {
+				ret.truncate(validBytes);
+			}
+			ret.position(ret.size());
+			return ret;
+		} catch (IOException e) {
+			ret.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the whole entries of a journal, stopping at the first that is torn.
+	 * @param file the journal
+	 * @param entries where to put the entries read
+	 * @return the length of the part of the journal holding whole entries
+	 * @throws IOException if the journal cannot be read, is not a journal, or is of a later format version
+	 */
+	private static long readEntries(@NotNull File file, @NotNull List<Entry> entries) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		if (buffer.limit() < HEADER_BYTES) {
+			/*
+			 * torn before its header was written
+			 */
+			return 0;
+		}
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException(file.getName() + " is not a markup journal.");
+		}
+		final short version = buffer.getShort();
+		if (version > FORMAT_VERSION) {
+			throw new IOException(file.getName() + " was written by a later version of this program.");
+		}
+
+		final CRC32 crc = new CRC32();
+		while (buffer.remaining() >= FRAME_BYTES) {
+			final int start = buffer.position();
+			final int length = buffer.getInt();
+			final int checksum = buffer.getInt();
+			if (length < 0 || length > buffer.remaining()) {
+				return start;
+			}
+			crc.reset();
+			crc.update(buffer.array(), buffer.position(), length);
+			if ((int)crc.getValue() != checksum) {
+				return start;
+			}
+
+			final DataInputStream content = new DataInputStream(
+					new ByteArrayInputStream(buffer.array(), buffer.position(), length));
+			buffer.position(buffer.position() + length);
+			try {
+				entries.add(readEntry(content));
+			} catch (IOException | IllegalArgumentException e) {
+				return start;
+			}
+		}
+		return buffer.position();
+	}
+
+	/**
+	 * Frames an entry, ready to be appended to a journal.
+	 */
+	private static ByteBuffer frame(@NotNull Entry entry) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeLong(entry.sequence);
+			out.writeByte(entry.type);
+			out.writeLong(entry.markId);
+			out.writeInt(entry.pageNr);
+			if (entry.type == ENTRY_EDIT) {
+				out.writeFloat(entry.left);
+				out.writeFloat(entry.top);
+				out.writeFloat(entry.right);
+				out.writeFloat(entry.bottom);
+				out.writeBoolean(entry.category != null);
+				if (entry.category != null) {
+					writeString(out, entry.category);
+				}
+				out.writeFloat(entry.confidence);
+				writeString(out, entry.logEntry);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to write to memory", e);
+		}
+
+		final byte[] content = bytes.toByteArray();
+		final CRC32 crc = new CRC32();
+		crc.update(content);
+		final ByteBuffer ret = ByteBuffer.allocate(FRAME_BYTES + content.length);
+		ret.putInt(content.length).putInt((int)crc.getValue()).put(content).flip();
+		return ret;
+	}
+
+	private static void writeString(@NotNull DataOutputStream out, @NotNull String str) throws IOException {
+		final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(@NotNull DataInputStream in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0 || length > in.available()) {
+			throw new IOException("String runs past the end of its entry");
+		}
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static Entry readEntry(@NotNull DataInputStream content) throws IOException {
+		final Entry ret = new Entry();
+		ret.sequence = content.readLong();
+		ret.type = content.readByte();
+		ret.markId = content.readLong();
+		ret.pageNr = content.readInt();
+		if (ret.type == ENTRY_EDIT) {
+			ret.left = content.readFloat();
+			ret.top = content.readFloat();
+			ret.right = content.readFloat();
+			ret.bottom = content.readFloat();
+			ret.category = content.readBoolean() ? readString(content) : null;
+			ret.confidence = content.readFloat();
+			ret.logEntry = readString(content);
+		}
+		else if (ret.type != ENTRY_REMOVE) {
+			throw new IllegalArgumentException("Unknown journal entry type " + ret.type);
+		}
+		return ret;
+	}
+
+	private static File getJournalFile(@NotNull File markupFile) {
+		return new File(markupFile.getAbsoluteFile().getParentFile(), markupFile.getName() + JOURNAL_EXTENSION);
+	}
+
+	private static File getSetAsideFile(@NotNull File markupFile) {
+		return new File(markupFile.getAbsoluteFile().getParentFile(), markupFile.getName() + SET_ASIDE_EXTENSION);
+	}
+}
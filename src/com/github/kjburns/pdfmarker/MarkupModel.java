@@ -0,0 +1,481 @@
+package com.github.kjburns.pdfmarker;
+
+import java.awt.geom.Rectangle2D;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * The marks made on a document.
+ * <p>
+ * The marks of each page are kept in a spatial index, so that finding the mark under the pointer,
+ * or the marks within the visible part of a page, takes time logarithmic in the number of marks on
+ * the page rather than linear. Pages without marks take no space. The marks themselves are kept in
+ * the columns of a {@link MarkStore}, and the indexes hold their slots, so that millions of marks fit in
+ * a modest heap; the {@link Mark}s handed out are made as they are needed.
+ * </p>
+ * <p>
+ * A model may be backed by a {@link MarkSource}, such as a markup file, from which the marks of each page
+ * are loaded the first time the page is looked at.
+ * </p>
+ * <p>
+ * This class is not thread-safe, and is meant to be used on the event dispatch thread.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class MarkupModel {
+	/**
+	 * A listener that is notified when marks are added, removed or changed.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	static interface MarkupChangeListener {
+		/**
+		 * Called after marks on a page change.
+		 * @param source the model whose marks changed
+		 * @param pageNr zero-based number of the page the marks are on
+		 * @param dirtyBounds bounds enclosing every mark changed, both before and after the change,
+		 * in page coordinates
+		 */
+		void marksChanged(@NotNull MarkupModel source, int pageNr, @NotNull Rectangle2D dirtyBounds);
+	}
+
+	/**
+	 * A listener that is notified of each edit made to a mark, for recording the edits.
+	 * Marks loaded from a {@link MarkSource} are not edits.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	static interface MarkEditListener {
+		/**
+		 * Called after a mark is added, or its bounds or attributes change.
+		 * The last entry of the mark's change log describes the edit.
+		 * @param source the model the mark is in
+		 * @param mark the mark
+		 */
+		void markEdited(@NotNull MarkupModel source, @NotNull Mark mark);
+		/**
+		 * Called after a mark is removed. Only the mark's identifier and page number may be read.
+		 * @param source the model the mark was in
+		 * @param mark the mark
+		 */
+		void markRemoved(@NotNull MarkupModel source, @NotNull Mark mark);
+	}
+
+	/**
+	 * Supplies the marks of a model one page at a time, as they are needed.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	static interface MarkSource {
+		/**
+		 * @return the zero-based numbers of the pages that have marks
+		 */
+		int[] getMarkedPages();
+		/**
+		 * @param pageNr zero-based page number
+		 * @return the number of marks on the page
+		 */
+		int getMarkCount(int pageNr);
+		/**
+		 * Reads the marks of a page. Called at most once per page.
+		 * @param pageNr zero-based page number
+		 * @param consumer called with each mark of the page
+		 */
+		void loadPage(int pageNr, @NotNull Consumer<MarkRecord> consumer);
+	}
+
+	/**
+	 * A mark as supplied by a {@link MarkSource}, before it is stored.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	static final class MarkRecord {
+		long id;
+		float left;
+		float top;
+		float right;
+		float bottom;
+		String category;
+		float confidence;
+		final List<String> changeLog = new ArrayList<>();
+	}
+
+	private final Map<Integer, RTree> pageIndexes = new HashMap<>();
+	private final MarkStore store = new MarkStore();
+	private long nextId = 1;
+	private final List<MarkupChangeListener> listeners = new ArrayList<>();
+	private final List<MarkEditListener> editListeners = new ArrayList<>();
+	private MarkSource source = null;
+	/**
+	 * the pages whose marks are still only in {@link #source}, and how many marks they have in all
+	 */
+	private final Set<Integer> unloadedPages = new HashSet<>();
+	private int unloadedMarkCount = 0;
+
+	/**
+	 * Creates an empty model.
+	 */
+	MarkupModel() {
+		// nothing to do here
+	}
+
+	/**
+	 * Creates a model whose marks are loaded from a source as they are needed.
+	 * @param source the source of the marks
+	 * @param nextId the identifier to give the next mark added, which must be greater than that
+	 * of every mark in the source
+	 */
+	MarkupModel(@NotNull MarkSource source, long nextId) {
+		this.source = source;
+		this.nextId = nextId;
+		for (int pageNr : source.getMarkedPages()) {
+			unloadedPages.add(pageNr);
+			unloadedMarkCount += source.getMarkCount(pageNr);
+		}
+		releaseSourceIfLoaded();
+	}
+
+	/**
+	 * @return the number of marks on all pages
+	 */
+	public int getMarkCount() {
+		return store.size() + unloadedMarkCount;
+	}
+
+	/**
+	 * @return the identifier that will be given to the next mark added
+	 */
+	public long getNextId() {
+		return nextId;
+	}
+
+	/**
+	 * Gets a mark by its identifier. This loads every page that has not been loaded yet, and scans
+	 * the identifiers of every mark.
+	 * @return the mark, or {@code null} if there is none with that identifier
+	 */
+	public Mark getMark_rNull(long id) {
+		loadAllPages();
+		final int slot = store.findSlot(id);
+		return (slot < 0) ? null : new Mark(store, slot);
+	}
+
+	/**
+	 * @return {@code true} if the mark is in this model
+	 */
+	public boolean contains(@NotNull Mark mark) {
+		/*
+		 * a mark on a page not yet loaded cannot have been handed out, so there is no need to load anything
+		 */
+		return mark.isHeldBy(store);
+	}
+
+	/**
+	 * Visits every mark, in no particular order. This loads every page that has not been loaded yet.
+	 * The model must not be changed while its marks are being visited.
+	 */
+	public void forEachMark(@NotNull Consumer<Mark> action) {
+		loadAllPages();
+		store.forEachSlot((slot) -> action.accept(new Mark(store, slot)));
+	}
+
+	/**
+	 * Gets the store holding the marks, for reading the attributes of many marks without making a
+	 * {@link Mark} for each. The store must only be changed through this model. Marks on pages that
+	 * have not been loaded yet are not in the store.
+	 */
+	MarkStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Adds a mark that was made earlier, as it was, without recording a change or notifying listeners.
+	 * @param pageNr zero-based number of the page the mark is on
+	 * @param record the mark, whose identifier must not be in use
+	 */
+	private void restoreMark(int pageNr, @NotNull MarkRecord record) {
+		final int slot = store.add(record.id, pageNr, record.left, record.top, record.right, record.bottom,
+				record.category, record.confidence);
+		for (String entry : record.changeLog) {
+			store.appendLogEntry(slot, entry);
+		}
+		index(slot);
+		nextId = Math.max(nextId, record.id + 1);
+	}
+
+	/**
+	 * Loads the marks of every page that has not been loaded yet, and lets go of the source.
+	 */
+	public void loadAllPages() {
+		if (source == null) {
+			return;
+		}
+		for (Integer pageNr : new ArrayList<>(unloadedPages)) {
+			ensurePageLoaded(pageNr);
+		}
+	}
+
+	private void ensurePageLoaded(int pageNr) {
+		if (source == null || !unloadedPages.remove(pageNr)) {
+			return;
+		}
+		unloadedMarkCount -= source.getMarkCount(pageNr);
+		source.loadPage(pageNr, (record) -> restoreMark(pageNr, record));
+		releaseSourceIfLoaded();
+	}
+
+	private void releaseSourceIfLoaded() {
+		if (unloadedPages.isEmpty()) {
+			source = null;
+		}
+	}
+
+	/**
+	 * Adds a mark. The corners may be given in either order.
+	 * @param pageNr zero-based number of the page to mark
+	 * @param category the mark's category, or {@code null} if it is not categorized
+	 * @param confidence how sure the marker is of the mark, from 0 to 1
+	 * @return the new mark
+	 */
+	public Mark addMark(int pageNr, float x1, float y1, float x2, float y2, String category, float confidence) {
+		ensurePageLoaded(pageNr);
+		final int slot = store.add(nextId++, pageNr, x1, y1, x2, y2, category, confidence);
+		log(slot, "created");
+		index(slot);
+		final Mark ret = new Mark(store, slot);
+		fireMarkEdited(ret);
+		fireMarksChanged(pageNr, getBounds(slot));
+		return ret;
+	}
+
+	/**
+	 * Removes a mark. Nothing happens if the mark is not in this model.
+	 */
+	public void removeMark(@NotNull Mark mark) {
+		if (!contains(mark)) {
+			return;
+		}
+		final int slot = mark.getSlot();
+		final Rectangle2D dirtyBounds = getBounds(slot);
+		unindex(slot);
+		store.remove(slot);
+		/*
+		 * copy in case a listener unregisters itself
+		 */
+		new ArrayList<>(editListeners).forEach((l) -> l.markRemoved(this, mark));
+		fireMarksChanged(mark.getPageNumber(), dirtyBounds);
+	}
+
+	/**
+	 * Moves or resizes a mark on its page. The corners may be given in either order.
+	 * @throws IllegalArgumentException if the mark is not in this model
+	 */
+	public void setMarkBounds(@NotNull Mark mark, float x1, float y1, float x2, float y2) {
+		final int slot = checkMark(mark);
+		final Rectangle2D dirtyBounds = getBounds(slot);
+		unindex(slot);
+		store.setBounds(slot, x1, y1, x2, y2);
+		index(slot);
+		log(slot, String.format("moved to (%.1f, %.1f)-(%.1f, %.1f)",
+				store.getLeftX(slot), store.getTopY(slot), store.getRightX(slot), store.getBottomY(slot)));
+		dirtyBounds.add(getBounds(slot));
+		fireMarkEdited(mark);
+		fireMarksChanged(mark.getPageNumber(), dirtyBounds);
+	}
+
+	/**
+	 * Moves or resizes a mark on its page without recording the change, to show an edit that is still
+	 * under way, such as a drag. {@link MarkupChangeListener}s are told, but {@link MarkEditListener}s
+	 * are not, and nothing is added to the change log. The edit must be finished with
+	 * {@link #setMarkBounds(Mark, float, float, float, float)}, which records it once.
+	 * @throws IllegalArgumentException if the mark is not in this model
+	 */
+	public void previewMarkBounds(@NotNull Mark mark, float x1, float y1, float x2, float y2) {
+		final int slot = checkMark(mark);
+		final Rectangle2D dirtyBounds = getBounds(slot);
+		unindex(slot);
+		store.setBounds(slot, x1, y1, x2, y2);
+		index(slot);
+		dirtyBounds.add(getBounds(slot));
+		fireMarksChanged(mark.getPageNumber(), dirtyBounds);
+	}
+
+	/**
+	 * Changes the category of a mark.
+	 * @param category the new category, or {@code null} to leave the mark uncategorized
+	 * @throws IllegalArgumentException if the mark is not in this model
+	 */
+	public void setMarkCategory(@NotNull Mark mark, String category) {
+		final int slot = checkMark(mark);
+		log(slot, "category changed from " + store.getCategory_rNull(slot) + " to " + category);
+		store.setCategory(slot, category);
+		fireMarkEdited(mark);
+		fireMarksChanged(mark.getPageNumber(), getBounds(slot));
+	}
+
+	/**
+	 * Changes how sure the marker is of a mark.
+	 * @param confidence the new confidence, from 0 to 1
+	 * @throws IllegalArgumentException if the mark is not in this model
+	 */
+	public void setMarkConfidence(@NotNull Mark mark, float confidence) {
+		final int slot = checkMark(mark);
+		log(slot, "confidence changed from " + store.getConfidence(slot) + " to " + confidence);
+		store.setConfidence(slot, confidence);
+		fireMarkEdited(mark);
+		fireMarksChanged(mark.getPageNumber(), getBounds(slot));
+	}
+
+	/**
+	 * Finds the mark at a point of a page. Where marks overlap, the most recently added one is on top.
+	 * @param pageNr zero-based page number
+	 * @param x horizontal position, in page coordinates
+	 * @param y vertical position, in page coordinates
+	 * @return the topmost mark whose bounds contain the point, or {@code null} if there is none
+	 */
+	public Mark getMarkAt_rNull(int pageNr, double x, double y) {
+		ensurePageLoaded(pageNr);
+		final RTree index = pageIndexes.get(pageNr);
+		if (index == null) {
+			return null;
+		}
+		final int[] ret = { -1 };
+		index.search(x, y, x, y, (slot) -> {
+			if (ret[0] < 0 || store.getId(slot) > store.getId(ret[0])) {
+				ret[0] = slot;
+			}
+		});
+		return (ret[0] < 0) ? null : new Mark(store, ret[0]);
+	}
+
+	/**
+	 * Visits the marks of a page that intersect some region, in no particular order.
+	 * The model must not be changed while its marks are being visited.
+	 * @param pageNr zero-based page number
+	 * @param region the region, in page coordinates
+	 * @param action called with each mark found
+	 */
+	public void forEachMarkInRegion(int pageNr, @NotNull Rectangle2D region, @NotNull Consumer<Mark> action) {
+		forEachSlotInRegion(pageNr, region, (slot) -> action.accept(new Mark(store, slot)));
+	}
+
+	/**
+	 * Visits the {@link #getStore() store} slots of the marks of a page that intersect some region,
+	 * in no particular order. The model must not be changed while its marks are being visited.
+	 * @param pageNr zero-based page number
+	 * @param region the region, in page coordinates
+	 * @param action called with the slot of each mark found
+	 */
+	void forEachSlotInRegion(int pageNr, @NotNull Rectangle2D region, @NotNull IntConsumer action) {
+		ensurePageLoaded(pageNr);
+		final RTree index = pageIndexes.get(pageNr);
+		if (index == null) {
+			return;
+		}
+		index.search(region.getMinX(), region.getMinY(), region.getMaxX(), region.getMaxY(), action);
+	}
+
+	/**
+	 * Registers a markup change listener.
+	 * @param l Listener to be registered. May not be {@code null}.
+	 * If the listener has already been registered, it will be ignored.
+	 * @throws IllegalArgumentException if {@code l == null}.
+	 */
+	public void addMarkupChangeListener(@NotNull MarkupChangeListener l) {
+		if (l == null) {
+			throw new IllegalArgumentException();
+		}
+		if (!listeners.contains(l)) {
+			listeners.add(l);
+		}
+	}
+
+	/**
+	 * Unregisters a markup change listener.
+	 * @param l Listener to be unregistered. If the supplied listener has not been
+	 * registered, or if it is {@code null}, nothing happens.
+	 */
+	public void removeMarkupChangeListener(MarkupChangeListener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * Registers a mark edit listener.
+	 * @param l Listener to be registered. May not be {@code null}.
+	 * If the listener has already been registered, it will be ignored.
+	 * @throws IllegalArgumentException if {@code l == null}.
+	 */
+	public void addMarkEditListener(@NotNull MarkEditListener l) {
+		if (l == null) {
+			throw new IllegalArgumentException();
+		}
+		if (!editListeners.contains(l)) {
+			editListeners.add(l);
+		}
+	}
+
+	/**
+	 * Unregisters a mark edit listener.
+	 * @param l Listener to be unregistered. If the supplied listener has not been
+	 * registered, or if it is {@code null}, nothing happens.
+	 */
+	public void removeMarkEditListener(MarkEditListener l) {
+		editListeners.remove(l);
+	}
+
+	/**
+	 * @return the mark's slot
+	 */
+	private int checkMark(@NotNull Mark mark) {
+		if (!contains(mark)) {
+			throw new IllegalArgumentException("Mark does not belong to this markup model.");
+		}
+		return mark.getSlot();
+	}
+
+	private void log(int slot, @NotNull String change) {
+		store.appendLogEntry(slot, Instant.now(), change);
+	}
+
+	private void index(int slot) {
+		pageIndexes.computeIfAbsent(store.getPageNumber(slot), (pageNr) -> new RTree())
+				.insert(store.getLeftX(slot), store.getTopY(slot), store.getRightX(slot), store.getBottomY(slot), slot);
+	}
+
+	private void unindex(int slot) {
+		final RTree index = pageIndexes.get(store.getPageNumber(slot));
+		index.remove(store.getLeftX(slot), store.getTopY(slot), store.getRightX(slot), store.getBottomY(slot), slot);
+		if (index.size() == 0) {
+			pageIndexes.remove(store.getPageNumber(slot));
+		}
+	}
+
+	private Rectangle2D getBounds(int slot) {
+		return new Rectangle2D.Float(store.getLeftX(slot), store.getTopY(slot),
+				store.getRightX(slot) - store.getLeftX(slot), store.getBottomY(slot) - store.getTopY(slot));
+	}
+
+	private void fireMarkEdited(@NotNull Mark mark) {
+		/*
+		 * copy in case a listener unregisters itself
+		 */
+		new ArrayList<>(editListeners).forEach((l) -> l.markEdited(this, mark));
+	}
+
+	private void fireMarksChanged(int pageNr, @NotNull Rectangle2D dirtyBounds) {
+		/*
+		 * copy in case a listener unregisters itself
+		 */
+		new ArrayList<>(listeners).forEach((l) -> l.marksChanged(this, pageNr, dirtyBounds));
+	}
+}
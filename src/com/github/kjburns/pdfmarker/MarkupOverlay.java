@@ -0,0 +1,407 @@
+package com.github.kjburns.pdfmarker;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Stroke;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Objects;
+
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
+import javax.swing.JOptionPane;
+import javax.swing.JPopupMenu;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * A transparent layer over the pages of a document that shows its marks and lets the user make and edit them.
+ * <p>
+ * Marks are made by clicking down a page. The first click remembers the north line of a rectangle; each
+ * click after that marks a rectangle across the width of the page from the north line down to the click,
+ * and remembers the click as the north line of the next rectangle. Escape, a right click in an empty spot,
+ * or a click on another page ends the run. A mark can be dragged to move it, and right clicked to change
+ * its attributes or delete it.
+ * </p>
+ * <p>
+ * Every change repaints only the bounds it affects. The pages beneath are not rendered again;
+ * the panel under this layer paints them from its cached page layer.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class MarkupOverlay extends JComponent implements MarkupModel.MarkupChangeListener {
+	private static final long serialVersionUID = -3620418712374530566L;
+	private static final Color PREVIEW_COLOR = new Color(0, 0, 0, 160);
+	private static final Stroke PREVIEW_STROKE = new BasicStroke(1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER,
+			10, new float[] {4, 4}, 0);
+	private static final Stroke HOVER_STROKE = new BasicStroke(3);
+	/**
+	 * how far strokes reach outside the bounds they outline, in pixels
+	 */
+	private static final int STROKE_MARGIN = 3;
+	/**
+	 * how far the pointer may move between press and release for it to count as a click
+	 */
+	private static final int CLICK_SLOP = 3;
+
+	private final class MouseHandler extends MouseAdapter {
+		private Mark dragMark = null;
+		private int pressX = 0;
+		private int pressY = 0;
+		private float dragStartLeft = 0;
+		private float dragStartTop = 0;
+		private boolean dragging = false;
+
+		@Override
+		public void mousePressed(MouseEvent e) {
+			pressX = e.getX();
+			pressY = e.getY();
+			dragging = false;
+			dragMark = null;
+			if (e.isPopupTrigger()) {
+				showPopup(e);
+				return;
+			}
+			if (SwingUtilities.isLeftMouseButton(e) && northLinePage < 0) {
+				dragMark = getMarkAtPanelPoint_rNull(e.getX(), e.getY());
+				if (dragMark != null) {
+					dragStartLeft = dragMark.getLeftX();
+					dragStartTop = dragMark.getTopY();
+				}
+			}
+		}
+
+		@Override
+		public void mouseDragged(MouseEvent e) {
+			if (dragMark == null) {
+				return;
+			}
+			if (!dragging && Math.abs(e.getX() - pressX) <= CLICK_SLOP && Math.abs(e.getY() - pressY) <= CLICK_SLOP) {
+				return;
+			}
+			dragging = true;
+
+			/*
+			 * the mark stays on its page
+			 */
+			final int pageNr = dragMark.getPageNumber();
+			final float width = dragMark.getRightX() - dragMark.getLeftX();
+			final float height = dragMark.getBottomY() - dragMark.getTopY();
+			final float pageWidth = coordManager.getPageRightX(pageNr) - coordManager.getPageLeftX(pageNr);
+			final float pageHeight = coordManager.getPageBottomY(pageNr) - coordManager.getPageTopY(pageNr);
+			final float left = clamp(dragStartLeft + e.getX() - pressX, 0, pageWidth - width);
+			final float top = clamp(dragStartTop + e.getY() - pressY, 0, pageHeight - height);
+			/*
+			 * the move is recorded once, when the mark is dropped
+			 */
+			model.previewMarkBounds(dragMark, left, top, left + width, top + height);
+		}
+
+		@Override
+		public void mouseReleased(MouseEvent e) {
+			final boolean wasDragging = dragging;
+			if (wasDragging && model.contains(dragMark)) {
+				model.setMarkBounds(dragMark, dragMark.getLeftX(), dragMark.getTopY(), 
+						dragMark.getRightX(), dragMark.getBottomY());
+			}
+			dragMark = null;
+			dragging = false;
+			if (e.isPopupTrigger()) {
+				showPopup(e);
+				return;
+			}
+			if (!wasDragging && SwingUtilities.isLeftMouseButton(e)) {
+				clickAt(e.getX(), e.getY());
+			}
+		}
+
+		@Override
+		public void mouseMoved(MouseEvent e) {
+			setHoverMark(getMarkAtPanelPoint_rNull(e.getX(), e.getY()));
+			updatePreview(e.getX(), e.getY());
+		}
+
+		@Override
+		public void mouseExited(MouseEvent e) {
+			setHoverMark(null);
+			updatePreview(-1, -1);
+		}
+	}
+
+	private final MarkupModel model;
+	private final PdfPageCoordinateManager coordManager;
+	/*
+	 * the run of rectangles being marked: its page, or -1 if there is none, and the north line of
+	 * the next rectangle, in page coordinates
+	 */
+	private int northLinePage = -1;
+	private float northLineY = 0;
+	/**
+	 * the rectangle that would be marked by clicking where the pointer is, in page coordinates of
+	 * {@link #northLinePage}, or {@code null} if there is none
+	 */
+	private Rectangle2D preview = null;
+	private Mark hoverMark = null;
+
+	/**
+	 * @param model the marks to show and edit
+	 * @param coordManager the layout of the pages under this layer
+	 */
+	MarkupOverlay(@NotNull MarkupModel model, @NotNull PdfPageCoordinateManager coordManager) {
+		this.model = model;
+		this.coordManager = coordManager;
+		setOpaque(false);
+
+		final MouseHandler mouseHandler = this.new MouseHandler();
+		addMouseListener(mouseHandler);
+		addMouseMotionListener(mouseHandler);
+
+		getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "endMarking");
+		getActionMap().put("endMarking", new AbstractAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				endMarking();
+			}
+		});
+		model.addMarkupChangeListener(this);
+	}
+
+	/**
+	 * Stops listening to the model. Should be called when the overlay is no longer shown.
+	 */
+	public void dispose() {
+		model.removeMarkupChangeListener(this);
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		final Rectangle clipBounds = g.getClipBounds();
+		if (clipBounds == null || clipBounds.isEmpty()) {
+			return;
+		}
+		final Graphics2D g2d = (Graphics2D)g.create();
+		try {
+			final int tx = getDocumentToPanelOffsetX();
+			g2d.translate(tx, 0);
+			clipBounds.translate(-tx, 0);
+			MarkupPainter.paintMarks(g2d, model, coordManager, clipBounds);
+
+			if (hoverMark != null) {
+				g2d.setColor(MarkupPainter.getColor(hoverMark.getCategory_rNull()));
+				g2d.setStroke(HOVER_STROKE);
+				g2d.draw(toDocument(hoverMark.getPageNumber(), getBounds(hoverMark)));
+			}
+			if (northLinePage >= 0) {
+				g2d.setColor(PREVIEW_COLOR);
+				g2d.setStroke(PREVIEW_STROKE);
+				final float pageTop = coordManager.getPageTopY(northLinePage);
+				g2d.draw(new Line2D.Float(coordManager.getPageLeftX(northLinePage), pageTop + northLineY,
+						coordManager.getPageRightX(northLinePage), pageTop + northLineY));
+				if (preview != null) {
+					g2d.draw(toDocument(northLinePage, preview));
+				}
+			}
+		} finally {
+			g2d.dispose();
+		}
+	}
+
+	@Override
+	public void marksChanged(MarkupModel source, int pageNr, Rectangle2D dirtyBounds) {
+		if (hoverMark != null && !model.contains(hoverMark)) {
+			hoverMark = null;
+		}
+		repaintPageBounds(pageNr, dirtyBounds);
+	}
+
+	private int getDocumentToPanelOffsetX() {
+		return (int)(-coordManager.getBoundsOfDocument().getLeftX());
+	}
+
+	/**
+	 * Finds the page under a point of the panel.
+	 * @return zero-based page number, or -1 if the point is not on a page
+	 */
+	private int getPageAtPanelPoint(int x, int y) {
+		final double docX = x - getDocumentToPanelOffsetX();
+		final int[] ret = {-1};
+		coordManager.forEachPageInRegion(new Rectangle2D.Double(docX, y, 0, 0), (pageNr) -> {
+			if (docX >= coordManager.getPageLeftX(pageNr) && docX <= coordManager.getPageRightX(pageNr)
+					&& y >= coordManager.getPageTopY(pageNr) && y <= coordManager.getPageBottomY(pageNr)) {
+				ret[0] = pageNr;
+			}
+		});
+		return ret[0];
+	}
+
+	private Mark getMarkAtPanelPoint_rNull(int x, int y) {
+		final int pageNr = getPageAtPanelPoint(x, y);
+		if (pageNr < 0) {
+			return null;
+		}
+		return model.getMarkAt_rNull(pageNr,
+				x - getDocumentToPanelOffsetX() - coordManager.getPageLeftX(pageNr),
+				y - coordManager.getPageTopY(pageNr));
+	}
+
+	/**
+	 * Takes a click as the next step of marking a run of rectangles.
+	 */
+	private void clickAt(int x, int y) {
+		final int pageNr = getPageAtPanelPoint(x, y);
+		if (pageNr < 0) {
+			endMarking();
+			return;
+		}
+		final float pageY = y - coordManager.getPageTopY(pageNr);
+		if (pageNr != northLinePage) {
+			endMarking();
+			northLinePage = pageNr;
+			northLineY = pageY;
+			repaintNorthLine();
+			return;
+		}
+		if (pageY == northLineY) {
+			return;
+		}
+
+		final float pageWidth = coordManager.getPageRightX(pageNr) - coordManager.getPageLeftX(pageNr);
+		repaintNorthLine();
+		clearPreview();
+		model.addMark(pageNr, 0, northLineY, pageWidth, pageY, null, 1);
+		northLineY = pageY;
+		repaintNorthLine();
+	}
+
+	private void endMarking() {
+		if (northLinePage < 0) {
+			return;
+		}
+		repaintNorthLine();
+		clearPreview();
+		northLinePage = -1;
+	}
+
+	private void updatePreview(int x, int y) {
+		if (northLinePage < 0) {
+			return;
+		}
+		clearPreview();
+		if (getPageAtPanelPoint(x, y) != northLinePage) {
+			return;
+		}
+		final float pageY = y - coordManager.getPageTopY(northLinePage);
+		final float pageWidth = coordManager.getPageRightX(northLinePage) - coordManager.getPageLeftX(northLinePage);
+		preview = new Rectangle2D.Float(0, Math.min(pageY, northLineY), pageWidth, Math.abs(pageY - northLineY));
+		repaintPageBounds(northLinePage, preview);
+	}
+
+	private void clearPreview() {
+		if (preview != null) {
+			repaintPageBounds(northLinePage, preview);
+			preview = null;
+		}
+	}
+
+	private void setHoverMark(Mark mark) {
+		if (Objects.equals(mark, hoverMark)) {
+			return;
+		}
+		if (hoverMark != null) {
+			repaintPageBounds(hoverMark.getPageNumber(), getBounds(hoverMark));
+		}
+		hoverMark = mark;
+		if (hoverMark != null) {
+			repaintPageBounds(hoverMark.getPageNumber(), getBounds(hoverMark));
+		}
+	}
+
+	private void showPopup(@NotNull MouseEvent e) {
+		final Mark mark = getMarkAtPanelPoint_rNull(e.getX(), e.getY());
+		if (mark == null) {
+			endMarking();
+			return;
+		}
+
+		final JPopupMenu popup = new JPopupMenu();
+		popup.add(new AbstractAction("Category...") {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent ev) {
+				final String category = JOptionPane.showInputDialog(MarkupOverlay.this, "Category:",
+						mark.getCategory_rNull());
+				if (category != null) {
+					model.setMarkCategory(mark, category.trim().isEmpty() ? null : category.trim());
+				}
+			}
+		});
+		popup.add(new AbstractAction("Confidence...") {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent ev) {
+				final String confidence = JOptionPane.showInputDialog(MarkupOverlay.this, "Confidence (0 to 1):",
+						mark.getConfidence());
+				if (confidence == null) {
+					return;
+				}
+				try {
+					model.setMarkConfidence(mark, clamp(Float.parseFloat(confidence.trim()), 0, 1));
+				} catch (NumberFormatException ex) {
+					JOptionPane.showMessageDialog(MarkupOverlay.this, "Confidence must be a number from 0 to 1.");
+				}
+			}
+		});
+		popup.add(new AbstractAction("Delete") {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void actionPerformed(ActionEvent ev) {
+				model.removeMark(mark);
+			}
+		});
+		popup.show(this, e.getX(), e.getY());
+	}
+
+	private void repaintNorthLine() {
+		final float pageWidth = coordManager.getPageRightX(northLinePage) - coordManager.getPageLeftX(northLinePage);
+		repaintPageBounds(northLinePage, new Rectangle2D.Float(0, northLineY, pageWidth, 0));
+	}
+
+	/**
+	 * Repaints some bounds of a page, given in page coordinates, allowing for the width of strokes.
+	 */
+	private void repaintPageBounds(int pageNr, @NotNull Rectangle2D pageBounds) {
+		final Rectangle panelBounds = toDocument(pageNr, pageBounds).getBounds();
+		panelBounds.translate(getDocumentToPanelOffsetX(), 0);
+		panelBounds.grow(STROKE_MARGIN, STROKE_MARGIN);
+		repaint(panelBounds);
+	}
+
+	private Rectangle2D toDocument(int pageNr, @NotNull Rectangle2D pageBounds) {
+		return new Rectangle2D.Double(pageBounds.getX() + coordManager.getPageLeftX(pageNr),
+				pageBounds.getY() + coordManager.getPageTopY(pageNr), pageBounds.getWidth(), pageBounds.getHeight());
+	}
+
+	private static Rectangle2D getBounds(@NotNull Mark mark) {
+		return new Rectangle2D.Float(mark.getLeftX(), mark.getTopY(),
+				mark.getRightX() - mark.getLeftX(), mark.getBottomY() - mark.getTopY());
+	}
+
+	private static float clamp(float value, float min, float max) {
+		return Math.max(min, Math.min(max, value));
+	}
+}
@@ -0,0 +1,81 @@
+package com.github.kjburns.pdfmarker;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Paints the marks of a {@link MarkupModel} over the pages they are on.
+ * <p>
+ * Only the marks within the bounds being painted are looked at, so the cost of painting
+ * does not grow with the number of marks elsewhere in the document. Marks are read straight from the
+ * columns of the model's {@link MarkStore}.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class MarkupPainter {
+	private static final Color UNCATEGORIZED_COLOR = new Color(0x1f77b4);
+	private static final Color[] CATEGORY_COLORS = {
+			new Color(0xd62728), new Color(0x2ca02c), new Color(0xff7f0e), new Color(0x9467bd),
+			new Color(0x8c564b), new Color(0xe377c2), new Color(0x17becf), new Color(0xbcbd22),
+	};
+	private static final float FILL_ALPHA = 0.2f;
+
+	private MarkupPainter() {
+		// static methods only
+	}
+
+	/**
+	 * Paints the marks that intersect some bounds.
+	 * @param g2d graphics context whose user space is in document coordinates
+	 * @param model the marks
+	 * @param coordManager the layout of the pages the marks are on
+	 * @param paintBounds the bounds to paint, in document coordinates
+	 */
+	public static void paintMarks(@NotNull Graphics2D g2d, @NotNull MarkupModel model,
+			@NotNull PdfPageCoordinateManager coordManager, @NotNull Rectangle2D paintBounds) {
+		if (model.getMarkCount() == 0) {
+			return;
+		}
+
+		final Composite oldComposite = g2d.getComposite();
+		final MarkStore store = model.getStore();
+		final Rectangle2D pageRegion = new Rectangle2D.Double();
+		final Rectangle2D.Float rect = new Rectangle2D.Float();
+		coordManager.forEachPageInRegion(paintBounds, (pageNr) -> {
+			final float pageLeft = coordManager.getPageLeftX(pageNr);
+			final float pageTop = coordManager.getPageTopY(pageNr);
+			pageRegion.setRect(paintBounds.getX() - pageLeft, paintBounds.getY() - pageTop,
+					paintBounds.getWidth(), paintBounds.getHeight());
+			model.forEachSlotInRegion(pageNr, pageRegion, (slot) -> {
+				rect.setRect(pageLeft + store.getLeftX(slot), pageTop + store.getTopY(slot),
+						store.getRightX(slot) - store.getLeftX(slot), store.getBottomY(slot) - store.getTopY(slot));
+				paintMark(g2d, rect, store.getCategory_rNull(slot));
+			});
+		});
+		g2d.setComposite(oldComposite);
+	}
+
+	private static void paintMark(@NotNull Graphics2D g2d, @NotNull Rectangle2D rect, String category) {
+		g2d.setColor(getColor(category));
+		g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, FILL_ALPHA));
+		g2d.fill(rect);
+		g2d.setComposite(AlphaComposite.SrcOver);
+		g2d.draw(rect);
+	}
+
+	/**
+	 * @return the color marks of a category are painted in; the same category always gets the same color
+	 */
+	static Color getColor(String category) {
+		if (category == null) {
+			return UNCATEGORIZED_COLOR;
+		}
+		return CATEGORY_COLORS[Math.floorMod(category.hashCode(), CATEGORY_COLORS.length)];
+	}
+}
@@ -0,0 +1,86 @@
+package com.github.kjburns.pdfmarker;
+
+import java.awt.BorderLayout;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.io.File;
+
+import javax.swing.AbstractAction;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+
+/**
+ * Action for choosing how documents opened from now on are kept in memory.
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class MemoryPolicyAction extends AbstractAction {
+	private static final long serialVersionUID = -6003425372457810346L;
+	private static final long BYTES_PER_MEGABYTE = 1024L * 1024;
+	private static final int MAX_HEAP_BUFFER_MEGABYTES = 64 * 1024;
+
+	public MemoryPolicyAction() {
+		putValue(SHORT_DESCRIPTION, "Choose how opened pdfs are kept in memory");
+		putValue(NAME, "memory");
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent ev) {
+		final DocumentMemoryPolicy current = DocumentMemoryPolicy.loadPreferences();
+
+		final JComboBox<DocumentMemoryPolicy.Strategy> strategyInput =
+				new JComboBox<>(DocumentMemoryPolicy.Strategy.values());
+		strategyInput.setSelectedItem(current.getStrategy());
+
+		final File currentFolder = current.getScratchFolder_rNull();
+		final JTextField folderInput = new JTextField((currentFolder == null) ? "" : currentFolder.getPath(), 20);
+		folderInput.setToolTipText("Leave blank to use the system's temporary folder");
+		final JButton browseButton = new JButton("...");
+		browseButton.addActionListener((e) -> {
+			final JFileChooser chooser = new JFileChooser(folderInput.getText());
+			chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+			if (chooser.showOpenDialog(browseButton) == JFileChooser.APPROVE_OPTION) {
+				folderInput.setText(chooser.getSelectedFile().getPath());
+			}
+		});
+		final JPanel folderPanel = new JPanel(new BorderLayout());
+		folderPanel.add(folderInput, BorderLayout.CENTER);
+		folderPanel.add(browseButton, BorderLayout.LINE_END);
+
+		final int currentMegabytes = (int)Math.min(MAX_HEAP_BUFFER_MEGABYTES,
+				current.getHeapBufferBytes() / BYTES_PER_MEGABYTE);
+		final JSpinner heapBufferInput = new JSpinner(
+				new SpinnerNumberModel(currentMegabytes, 0, MAX_HEAP_BUFFER_MEGABYTES, 16));
+
+		final JPanel panel = new JPanel(new GridLayout(0, 2, 6, 6));
+		panel.add(new JLabel("Keep documents in:"));
+		panel.add(strategyInput);
+		panel.add(new JLabel("Scratch folder:"));
+		panel.add(folderPanel);
+		panel.add(new JLabel("Heap buffer when memory-mapped (MB):"));
+		panel.add(heapBufferInput);
+
+		final int result = JOptionPane.showConfirmDialog(null, panel, "Memory policy",
+				JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+		if (result != JOptionPane.OK_OPTION) {
+			return;
+		}
+
+		final String folderText = folderInput.getText().trim();
+		final File scratchFolder = folderText.isEmpty() ? null : new File(folderText);
+		if (scratchFolder != null && !scratchFolder.isDirectory()) {
+			JOptionPane.showMessageDialog(null, "Scratch folder does not exist: " + folderText);
+			return;
+		}
+		final long heapBufferBytes = ((Number)heapBufferInput.getValue()).longValue() * BYTES_PER_MEGABYTE;
+		new DocumentMemoryPolicy((DocumentMemoryPolicy.Strategy)strategyInput.getSelectedItem(),
+				scratchFolder, heapBufferBytes).savePreferences();
+	}
+}
@@ -0,0 +1,135 @@
+package com.github.kjburns.pdfmarker;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+import org.apache.pdfbox.io.RandomAccessRead;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Wraps a PdfBox {@link RandomAccessRead} to report how much of it has been read, and to
+ * abandon reading once the work it is read for has been cancelled.
+ * <p>
+ * The parser does not read a pdf from front to back, and may read some parts more than once,
+ * so the amount read is only an estimate of how far parsing has come. It never exceeds 100 percent.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class MonitoredRandomAccessRead implements RandomAccessRead {
+	private final RandomAccessRead source;
+	private final IntConsumer percentReadListener;
+	private final BooleanSupplier cancelled;
+	private final long length;
+	private long bytesRead = 0;
+
+	/**
+	 * @param source the data to read. Closing this object closes the source.
+	 * @param percentReadListener called, on the reading thread, with the percentage of the source read so far
+	 * @param cancelled checked before every read. Once it returns {@code true}, reads throw an
+	 * {@link InterruptedIOException}.
+	 * @throws IOException if the length of the source cannot be read
+	 */
+	public MonitoredRandomAccessRead(@NotNull RandomAccessRead source, @NotNull IntConsumer percentReadListener,
+			@NotNull BooleanSupplier cancelled) throws IOException {
+		this.source = source;
+		this.percentReadListener = percentReadListener;
+		this.cancelled = cancelled;
+		this.length = source.length();
+	}
+
+	private void checkCancelled() throws IOException {
+		if (cancelled.getAsBoolean()) {
+			throw new InterruptedIOException("Reading of pdf was cancelled.");
+		}
+	}
+
+	private void countRead(int count) {
+		if (count <= 0 || length <= 0) {
+			return;
+		}
+		bytesRead += count;
+		percentReadListener.accept((int)(100 * Math.min(bytesRead, length) / length));
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkCancelled();
+		final int ret = source.read();
+		if (ret >= 0) {
+			countRead(1);
+		}
+		return ret;
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	@Override
+	public int read(byte[] b, int offset, int length) throws IOException {
+		checkCancelled();
+		final int ret = source.read(b, offset, length);
+		countRead(ret);
+		return ret;
+	}
+
+	@Override
+	public long getPosition() throws IOException {
+		return source.getPosition();
+	}
+
+	@Override
+	public void seek(long position) throws IOException {
+		checkCancelled();
+		source.seek(position);
+	}
+
+	@Override
+	public long length() throws IOException {
+		return source.length();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return source.isClosed();
+	}
+
+	@Override
+	public int peek() throws IOException {
+		checkCancelled();
+		return source.peek();
+	}
+
+	@Override
+	public void rewind(int bytes) throws IOException {
+		source.rewind(bytes);
+	}
+
+	@Override
+	public byte[] readFully(int length) throws IOException {
+		checkCancelled();
+		final byte[] ret = source.readFully(length);
+		countRead(ret.length);
+		return ret;
+	}
+
+	@Override
+	public boolean isEOF() throws IOException {
+		return source.isEOF();
+	}
+
+	@Override
+	public int available() throws IOException {
+		return source.available();
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+}
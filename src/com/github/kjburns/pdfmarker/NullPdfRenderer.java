@@ -2,6 +2,7 @@ package com.github.kjburns.pdfmarker;
 
 import java.awt.Graphics;
 import java.awt.geom.Rectangle2D;
+import java.util.function.IntConsumer;
 
 /**
  * A pdf renderer to be used when no document is loaded.
@@ -30,6 +31,82 @@ public class NullPdfRenderer implements PdfRenderer {
 		public PdfPageRectangle getBoundsOfDocument() {
 			return NULL_PAGE_RECTANGLE;
 		}
+
+		@Override
+		public int getPageCount() {
+			return 0;
+		}
+
+		@Override
+		public int getPageRotation(int pageNumber) {
+			return 0;
+		}
+
+		@Override
+		public void addLayoutChangeListener(LayoutChangeListener l) {
+			if (l == null) {
+				throw new IllegalArgumentException();
+			}
+			// the layout never changes, so there is no need to keep the listener
+		}
+
+		@Override
+		public void removeLayoutChangeListener(LayoutChangeListener l) {
+			// nothing to do
+		}
+
+		@Override
+		public float getPageLeftX(int pageNumber) {
+			return NULL_PAGE_RECTANGLE.getLeftX();
+		}
+
+		@Override
+		public float getPageRightX(int pageNumber) {
+			return NULL_PAGE_RECTANGLE.getRightX();
+		}
+
+		@Override
+		public float getPageTopY(int pageNumber) {
+			return NULL_PAGE_RECTANGLE.getTopY();
+		}
+
+		@Override
+		public float getPageBottomY(int pageNumber) {
+			return NULL_PAGE_RECTANGLE.getBottomY();
+		}
+
+		@Override
+		public int getPageAt(double y) {
+			return -1;
+		}
+
+		@Override
+		public int getFirstPageInRange(double top, double bottom) {
+			return -1;
+		}
+
+		@Override
+		public int getLastPageInRange(double top, double bottom) {
+			return -1;
+		}
+
+		@Override
+		public void forEachPageInRegion(Rectangle2D region, IntConsumer action) {
+			// there are no pages
+		}
+
+		@Override
+		public PageLayout getPageLayout() {
+			return PageLayout.SINGLE_COLUMN;
+		}
+
+		@Override
+		public void setPageLayout(PageLayout layout) {
+			if (layout == null) {
+				throw new IllegalArgumentException();
+			}
+			// there are no pages to arrange
+		}
 	}
 	
 	private static final PdfPageCoordinateManager COORD_MGR = new NullCoordinateManager();
@@ -42,4 +119,35 @@ public class NullPdfRenderer implements PdfRenderer {
 	public PdfPageCoordinateManager getCoordinateManager() {
 		return COORD_MGR;
 	}
+
+	@Override
+	public void addRegionRenderedListener(RegionRenderedListener l) {
+		if (l == null) {
+			throw new IllegalArgumentException();
+		}
+		// nothing will ever be rendered, so there is no need to keep the listener
+	}
+
+	@Override
+	public void removeRegionRenderedListener(RegionRenderedListener l) {
+		// nothing to do
+	}
+
+	@Override
+	public void setRenderQuality(RenderQuality quality) {
+		if (quality == null) {
+			throw new IllegalArgumentException();
+		}
+		// nothing is rendered, so quality makes no difference
+	}
+
+	@Override
+	public RenderQuality getRenderQuality() {
+		return RenderQuality.FULL;
+	}
+
+	@Override
+	public void dispose() {
+		// nothing to do
+	}
 }
@@ -2,33 +2,31 @@ package com.github.kjburns.pdfmarker;
 
 import java.awt.event.ActionEvent;
 import java.io.File;
-import java.io.IOException;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
 import javax.swing.AbstractAction;
 import javax.swing.JFileChooser;
-import javax.swing.JOptionPane;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.encryption.InvalidPasswordException;
 
 import com.sun.istack.internal.NotNull;
 
 /**
- * Action for opening a file from the main window
+ * Action for opening a file from the main window: either a pdf, or a markup file together with the pdf it marks up.
  * @author Kevin J. Burns, P.E.
  *
  */
 final class OpenFileAction extends AbstractAction 
 		implements FilenameFilters {
-	private static final String MOST_RECENT_FOLDER_KEY = "last-folder";
+	static final String MOST_RECENT_FOLDER_KEY = "last-folder";
 
 	private static final long serialVersionUID = 7137760649854671754L;
 	
 	private final HasActivePdfBoxDocument pdfContainer;
+	private final HasMarkupModel markupContainer;
 	
-	public OpenFileAction(@NotNull HasActivePdfBoxDocument pdfContainer) {
+	public OpenFileAction(@NotNull HasActivePdfBoxDocument pdfContainer, @NotNull HasMarkupModel markupContainer) {
 		this.pdfContainer = pdfContainer;
+		this.markupContainer = markupContainer;
 		
 		putValue(SHORT_DESCRIPTION, "Open pdf");
 		putValue(NAME, "open");
@@ -52,13 +50,15 @@ final class OpenFileAction extends AbstractAction
 				e.printStackTrace();
 			}
 			
-			try {
-				PDDocument doc;
-				doc = openPdf(selectedFile);
-				pdfContainer.setActivePdfDocument(doc);
-			} catch (IOException e) {
-				JOptionPane.showMessageDialog(chooser, "Could not open pdf: " + selectedFile.getName());
-				e.printStackTrace();
+			/*
+			 * only one document may be opened at a time
+			 */
+			setEnabled(false);
+			if (selectedFile.getName().endsWith("." + MARKUP_FILE_EXTENSION)) {
+				new DocumentOpener(pdfContainer, markupContainer, selectedFile, () -> setEnabled(true)).start();
+			}
+			else {
+				new DocumentOpener(pdfContainer, selectedFile, () -> setEnabled(true)).start();
 			}
 		}
 	}
@@ -78,12 +78,6 @@ final class OpenFileAction extends AbstractAction
 		return chooser;
 	}
 
-	private PDDocument openPdf(File selectedFile) throws InvalidPasswordException, IOException {
-		PDDocument ret = PDDocument.load(selectedFile);
-
-		return ret;
-	}
-
 	private File getDefaultFolder() {
 		final String homeFolder = System.getProperty("user.home");
 		return new File(homeFolder);
@@ -0,0 +1,189 @@
+package com.github.kjburns.pdfmarker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * An on-disk cache of the page boxes and rotations of documents that have been opened before,
+ * so that reopening a document can lay it out without reading its page tree.
+ * <p>
+ * Each document is stored in its own file, named for its {@link DocumentFingerprint}. The format is
+ * a header of a magic number, a format version and the page count, followed by one fixed-size record
+ * per page: the lower left x, lower left y, upper right x and upper right y of the media box as floats,
+ * and the rotation in degrees as a short. Files of any other version are ignored. Only the most recently
+ * used documents are kept.
+ * </p>
+ * <p>
+ * Documents laid out on the event dispatch thread are written on a single low priority background thread.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class PageBoxCache {
+	/**
+	 * The boxes and rotations of every page of a document, indexed by page number.
+	 */
+	static final class Entry {
+		final float[] lowerLeftXs;
+		final float[] lowerLeftYs;
+		final float[] upperRightXs;
+		final float[] upperRightYs;
+		final short[] rotations;
+
+		Entry(int pageCount) {
+			lowerLeftXs = new float[pageCount];
+			lowerLeftYs = new float[pageCount];
+			upperRightXs = new float[pageCount];
+			upperRightYs = new float[pageCount];
+			rotations = new short[pageCount];
+		}
+
+		int getPageCount() {
+			return rotations.length;
+		}
+	}
+
+	private static final int MAGIC = 0x504d4243; // "PMBC"
+	private static final short FORMAT_VERSION = 1;
+	private static final String FILE_EXTENSION = ".boxes";
+	private static final int DEFAULT_MAX_ENTRIES = 500;
+
+	private static final PageBoxCache instance = new PageBoxCache(
+			new File(System.getProperty("user.home"), ".pdfmarker" + File.separator + "page-boxes"),
+			DEFAULT_MAX_ENTRIES);
+
+	private final File folder;
+	private final int maxEntries;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor((r) -> {
+		final Thread ret = new Thread(r, "page-box-writer");
+		ret.setDaemon(true);
+		ret.setPriority(Thread.MIN_PRIORITY);
+		return ret;
+	});
+
+	/**
+	 * @param folder where the cache files are kept. It is created when first written to.
+	 * @param maxEntries how many documents to keep
+	 */
+	PageBoxCache(@NotNull File folder, int maxEntries) {
+		this.folder = folder;
+		this.maxEntries = maxEntries;
+	}
+
+	public static PageBoxCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Reads the page boxes of a document, marking it as recently used.
+	 * @param fingerprint the document's fingerprint
+	 * @param pageCount the number of pages the document is known to have
+	 * @return the document's page boxes, or {@code null} if they are not cached,
+	 * or the cached entry is unreadable or does not have {@code pageCount} pages
+	 */
+	public Entry read_rNull(@NotNull String fingerprint, int pageCount) {
+		final File file = getFile(fingerprint);
+		if (!file.isFile()) {
+			return null;
+		}
+
+		final Entry ret = new Entry(pageCount);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readShort() != FORMAT_VERSION || in.readInt() != pageCount) {
+				return null;
+			}
+			for (int pageNr = 0; pageNr < pageCount; pageNr++) {
+				ret.lowerLeftXs[pageNr] = in.readFloat();
+				ret.lowerLeftYs[pageNr] = in.readFloat();
+				ret.upperRightXs[pageNr] = in.readFloat();
+				ret.upperRightYs[pageNr] = in.readFloat();
+				ret.rotations[pageNr] = in.readShort();
+			}
+		} catch (IOException e) {
+			System.err.println("Unable to read cached page boxes; the document will be laid out from scratch.");
+			e.printStackTrace();
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		return ret;
+	}
+
+	/**
+	 * Writes the page boxes of a document on a background thread.
+	 * @param fingerprint the document's fingerprint
+	 * @param entry the document's page boxes, which must not be changed afterwards
+	 */
+	public void writeLater(@NotNull String fingerprint, @NotNull Entry entry) {
+		writer.execute(() -> write(fingerprint, entry));
+	}
+
+	/**
+	 * Writes the page boxes of a document, evicting the least recently used documents
+	 * if there are too many.
+	 * @param fingerprint the document's fingerprint
+	 * @param entry the document's page boxes
+	 */
+	public void write(@NotNull String fingerprint, @NotNull Entry entry) {
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			System.err.println("Unable to create page box cache folder " + folder);
+			return;
+		}
+
+		final File file = getFile(fingerprint);
+		final File tempFile = new File(folder, fingerprint + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+				out.writeInt(MAGIC);
+				out.writeShort(FORMAT_VERSION);
+				out.writeInt(entry.getPageCount());
+				for (int pageNr = 0; pageNr < entry.getPageCount(); pageNr++) {
+					out.writeFloat(entry.lowerLeftXs[pageNr]);
+					out.writeFloat(entry.lowerLeftYs[pageNr]);
+					out.writeFloat(entry.upperRightXs[pageNr]);
+					out.writeFloat(entry.upperRightYs[pageNr]);
+					out.writeShort(entry.rotations[pageNr]);
+				}
+			}
+			/*
+			 * readers never see a partly written file
+			 */
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.err.println("Unable to write page boxes to cache.");
+			e.printStackTrace();
+			tempFile.delete();
+			return;
+		}
+
+		evictToLimit();
+	}
+
+	private File getFile(@NotNull String fingerprint) {
+		return new File(folder, fingerprint + FILE_EXTENSION);
+	}
+
+	private void evictToLimit() {
+		final File[] files = folder.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+		if (files == null || files.length <= maxEntries) {
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (int i = 0; i < files.length - maxEntries; i++) {
+			files[i].delete();
+		}
+	}
+}
@@ -0,0 +1,1062 @@
+package com.github.kjburns.pdfmarker;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.TexturePaint;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.DataBuffer;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * The drawing operations needed to paint a single page, recorded once so that the page can be
+ * painted again at any zoom level without reading and interpreting its content stream again.
+ * <p>
+ * A display list is made by handing a {@link Recorder} to the pdf library in place of a real
+ * graphics context. Shapes, glyph outlines, images and the graphics state they are drawn with
+ * are kept in memory, and {@link #replay(Graphics2D)} sends them to a real graphics context.
+ * Since shapes are recorded as geometry, they are as sharp at any zoom as a direct render.
+ * Anything the pdf library has already turned into pixels before drawing it, such as
+ * transparency groups, is recorded at {@link #RECORDING_SCALE} times the page's natural size.
+ * </p>
+ * <p>
+ * Some drawing operations depend on the device being drawn to and cannot be replayed faithfully
+ * on another. If a page uses any of them, no display list is produced for it, and the page
+ * must be rendered directly instead.
+ * </p>
+ * <p>
+ * A finished display list is never modified, and may be replayed on several threads at once.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class PageDisplayList {
+	/**
+	 * The scale of the device that pages are recorded on, relative to the page's natural size
+	 */
+	static final double RECORDING_SCALE = 2.0;
+	/**
+	 * How many commands are replayed between checks for cancellation
+	 */
+	private static final int COMMANDS_PER_CANCELLATION_CHECK = 256;
+	/*
+	 * estimates of the memory retained by what a display list holds on to, in bytes
+	 */
+	/**
+	 * a command object capturing a few values, and its slot in the list of commands
+	 */
+	private static final long COMMAND_SIZE = 24;
+	/**
+	 * each coordinate a command captures in addition to what it draws
+	 */
+	private static final long CAPTURED_VALUE_SIZE = 4;
+	private static final long OBJECT_HEADER_SIZE = 16;
+	private static final long TRANSFORM_SIZE = OBJECT_HEADER_SIZE + 6 * Double.BYTES + 2 * Integer.BYTES;
+	private static final long COLOR_SIZE = 32;
+	private static final long STROKE_SIZE = 48;
+	private static final long SMALL_STATE_SIZE = 64;
+	/**
+	 * each rendering hint, as an entry in a hash map
+	 */
+	private static final long RENDERING_HINT_SIZE = 40;
+	private static final long BYTES_PER_PIXEL = 4;
+	/**
+	 * Rendering hints used in place of the recorded ones when replaying a draft
+	 */
+	private static final RenderingHints DRAFT_HINTS = createDraftHints();
+
+	/**
+	 * A single recorded operation
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	private static interface Command {
+		void replay(@NotNull Replayer replayer);
+	}
+
+	/**
+	 * An immutable path held in arrays of exactly the size it needs, so that what it retains is known.
+	 * The pdf library reuses and modifies its paths after drawing them, so every recorded shape is
+	 * copied into one of these.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	private static final class RecordedPath implements Shape {
+		/**
+		 * Walks the segments of a recorded path
+		 * @author Kevin J. Burns, P.E.
+		 *
+		 */
+		private final class SegmentIterator implements PathIterator {
+			private final AffineTransform transform;
+			private int typeIndex = 0;
+			private int coordIndex = 0;
+
+			public SegmentIterator(AffineTransform transform) {
+				this.transform = transform;
+			}
+
+			@Override
+			public int getWindingRule() {
+				return windingRule;
+			}
+
+			@Override
+			public boolean isDone() {
+				return typeIndex >= types.length;
+			}
+
+			@Override
+			public void next() {
+				coordIndex += getCoordCount(types[typeIndex]);
+				typeIndex++;
+			}
+
+			@Override
+			public int currentSegment(float[] segmentCoords) {
+				final int type = types[typeIndex];
+				final int count = getCoordCount(type);
+				if (transform == null) {
+					System.arraycopy(coords, coordIndex, segmentCoords, 0, count);
+				}
+				else {
+					transform.transform(coords, coordIndex, segmentCoords, 0, count / 2);
+				}
+				return type;
+			}
+
+			@Override
+			public int currentSegment(double[] segmentCoords) {
+				final int type = types[typeIndex];
+				final int count = getCoordCount(type);
+				if (transform == null) {
+					for (int i = 0; i < count; i++) {
+						segmentCoords[i] = coords[coordIndex + i];
+					}
+				}
+				else {
+					transform.transform(coords, coordIndex, segmentCoords, 0, count / 2);
+				}
+				return type;
+			}
+		}
+
+		private final byte[] types;
+		private final float[] coords;
+		private final int windingRule;
+
+		private RecordedPath(byte[] types, float[] coords, int windingRule) {
+			this.types = types;
+			this.coords = coords;
+			this.windingRule = windingRule;
+		}
+
+		public static RecordedPath copyOf(@NotNull Shape shape) {
+			final float[] segmentCoords = new float[6];
+			int segmentCount = 0;
+			int coordCount = 0;
+			for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next()) {
+				segmentCount++;
+				coordCount += getCoordCount(it.currentSegment(segmentCoords));
+			}
+
+			final byte[] types = new byte[segmentCount];
+			final float[] coords = new float[coordCount];
+			final PathIterator it = shape.getPathIterator(null);
+			int coordIndex = 0;
+			for (int i = 0; i < segmentCount; i++, it.next()) {
+				final int type = it.currentSegment(segmentCoords);
+				final int count = getCoordCount(type);
+				types[i] = (byte)type;
+				System.arraycopy(segmentCoords, 0, coords, coordIndex, count);
+				coordIndex += count;
+			}
+			return new RecordedPath(types, coords, it.getWindingRule());
+		}
+
+		private static int getCoordCount(int segmentType) {
+			switch (segmentType) {
+			case PathIterator.SEG_MOVETO:
+			case PathIterator.SEG_LINETO:
+				return 2;
+			case PathIterator.SEG_QUADTO:
+				return 4;
+			case PathIterator.SEG_CUBICTO:
+				return 6;
+			default:
+				return 0;
+			}
+		}
+
+		/**
+		 * @return the number of bytes this path holds on to
+		 */
+		public long getRetainedSize() {
+			return 3 * OBJECT_HEADER_SIZE + types.length + (long)coords.length * Float.BYTES;
+		}
+
+		@Override
+		public Rectangle2D getBounds2D() {
+			if (coords.length == 0) {
+				return new Rectangle2D.Float();
+			}
+			float minX = coords[0];
+			float minY = coords[1];
+			float maxX = minX;
+			float maxY = minY;
+			for (int i = 2; i < coords.length; i += 2) {
+				minX = Math.min(minX, coords[i]);
+				maxX = Math.max(maxX, coords[i]);
+				minY = Math.min(minY, coords[i + 1]);
+				maxY = Math.max(maxY, coords[i + 1]);
+			}
+			return new Rectangle2D.Float(minX, minY, maxX - minX, maxY - minY);
+		}
+
+		@Override
+		public Rectangle getBounds() {
+			return getBounds2D().getBounds();
+		}
+
+		@Override
+		public boolean contains(double x, double y) {
+			return Path2D.contains(getPathIterator(null), x, y);
+		}
+
+		@Override
+		public boolean contains(Point2D p) {
+			return Path2D.contains(getPathIterator(null), p);
+		}
+
+		@Override
+		public boolean intersects(double x, double y, double w, double h) {
+			return Path2D.intersects(getPathIterator(null), x, y, w, h);
+		}
+
+		@Override
+		public boolean intersects(Rectangle2D r) {
+			return Path2D.intersects(getPathIterator(null), r);
+		}
+
+		@Override
+		public boolean contains(double x, double y, double w, double h) {
+			return Path2D.contains(getPathIterator(null), x, y, w, h);
+		}
+
+		@Override
+		public boolean contains(Rectangle2D r) {
+			return Path2D.contains(getPathIterator(null), r);
+		}
+
+		@Override
+		public PathIterator getPathIterator(AffineTransform at) {
+			return this.new SegmentIterator(at);
+		}
+
+		@Override
+		public PathIterator getPathIterator(AffineTransform at, double flatness) {
+			return new FlatteningPathIterator(getPathIterator(at), flatness);
+		}
+	}
+
+	/**
+	 * The graphics context a display list is being replayed on, along with the transform
+	 * and clip it had when replay began
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	private static final class Replayer {
+		private final Graphics2D target;
+		/**
+		 * maps the recording device onto the target device
+		 */
+		private final AffineTransform baseTransform;
+		private final Shape baseClip;
+		private final boolean draft;
+
+		public Replayer(Graphics2D target, boolean draft) {
+			this.target = target;
+			this.draft = draft;
+			target.scale(1 / RECORDING_SCALE, 1 / RECORDING_SCALE);
+			baseTransform = target.getTransform();
+			baseClip = target.getClip();
+		}
+
+		private void setTransform(AffineTransform recorded) {
+			target.setTransform(baseTransform);
+			target.transform(recorded);
+		}
+
+		private void setRenderingHints(RenderingHints recorded) {
+			target.setRenderingHints(draft ? DRAFT_HINTS : recorded);
+		}
+
+		/**
+		 * @param recorded the recorded clip in recording device space, or {@code null} for no clip
+		 */
+		private void setClip(Shape recorded) {
+			target.setTransform(baseTransform);
+			target.setClip(baseClip);
+			if (recorded != null) {
+				target.clip(recorded);
+			}
+		}
+	}
+
+	/**
+	 * Everything a recorder and the recorders created from it have recorded so far
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	private static final class Recording {
+		private static final Object UNSET = new Object();
+
+		private final List<Command> commands = new ArrayList<>();
+		/*
+		 * state objects already counted, since the same one may be set many times
+		 */
+		private final Set<Object> measured = Collections.newSetFromMap(new IdentityHashMap<>());
+		/*
+		 * the pixel data of every image drawn, by identity, and the bytes it holds
+		 */
+		private final Map<Object, Long> retainedImages = new IdentityHashMap<>();
+		private long estimatedSize = 0;
+		private boolean replayable = true;
+		/*
+		 * the graphics state as of the last recorded command
+		 */
+		private Object clip = UNSET;
+		private AffineTransform transform = null;
+		private Object paint = UNSET;
+		private Object stroke = UNSET;
+		private Object composite = UNSET;
+		private Object hints = UNSET;
+
+		/**
+		 * @param size the number of bytes retained by the command beyond the command itself and any images
+		 */
+		private void add(Command command, long size) {
+			commands.add(command);
+			estimatedSize += COMMAND_SIZE + size;
+		}
+
+		/**
+		 * Counts something a command holds on to that other commands may hold on to as well.
+		 * @return the number of bytes it retains, if it has not been counted already; otherwise zero
+		 */
+		private long measureShared(Object retained, long size) {
+			return measured.add(retained) ? size : 0;
+		}
+	}
+
+	/**
+	 * A graphics context that records what is drawn on it instead of drawing it.
+	 * Queries about the graphics state are answered by an off-screen graphics context
+	 * that follows every change made to this one.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	static final class Recorder extends Graphics2D {
+		private final Recording recording;
+		private final Graphics2D state;
+		/**
+		 * the clip in recording device space, or {@code null} for no clip
+		 */
+		private Shape deviceClip;
+		private RenderingHints hints;
+		/**
+		 * the background color, or {@code null} to clear with whatever background the replay target has
+		 */
+		private Color background;
+
+		private Recorder(Recording recording, Graphics2D state, Shape deviceClip, RenderingHints hints,
+				Color background) {
+			this.recording = recording;
+			this.state = state;
+			this.deviceClip = deviceClip;
+			this.hints = hints;
+			this.background = background;
+		}
+
+		/**
+		 * Ends the recording.
+		 * @return the recorded display list, or {@code null} if something that cannot be replayed was drawn
+		 */
+		public PageDisplayList finish_rNull() {
+			if (!recording.replayable) {
+				return null;
+			}
+			return new PageDisplayList(recording.commands, recording.estimatedSize, recording.retainedImages);
+		}
+
+		private void markUnreplayable() {
+			recording.replayable = false;
+		}
+
+		/**
+		 * Records any change in the graphics state since the last recorded command.
+		 * The clip is recorded before the transform, because replaying a clip disturbs the transform.
+		 */
+		private void recordState() {
+			if (recording.clip != deviceClip) {
+				final RecordedPath clip = (deviceClip == null) ? null : RecordedPath.copyOf(deviceClip);
+				recording.add((r) -> r.setClip(clip), (clip == null) ? 0 : clip.getRetainedSize());
+				recording.clip = deviceClip;
+				recording.transform = null;
+			}
+
+			final AffineTransform transform = state.getTransform();
+			if (!transform.equals(recording.transform)) {
+				recording.add((r) -> r.setTransform(transform), TRANSFORM_SIZE);
+				recording.transform = transform;
+			}
+
+			final Paint paint = state.getPaint();
+			if (recording.paint != paint) {
+				if (!isReplayable(paint)) {
+					markUnreplayable();
+				}
+				recording.add((r) -> r.target.setPaint(paint), recording.measureShared(paint, sizeOf(paint)));
+				recording.paint = paint;
+			}
+
+			final Stroke stroke = state.getStroke();
+			if (recording.stroke != stroke) {
+				recording.add((r) -> r.target.setStroke(stroke), recording.measureShared(stroke, sizeOf(stroke)));
+				recording.stroke = stroke;
+			}
+
+			final Composite composite = state.getComposite();
+			if (recording.composite != composite) {
+				if (!isReplayable(composite)) {
+					markUnreplayable();
+				}
+				recording.add((r) -> r.target.setComposite(composite),
+						recording.measureShared(composite, SMALL_STATE_SIZE));
+				recording.composite = composite;
+			}
+
+			final RenderingHints currentHints = hints;
+			if (recording.hints != currentHints) {
+				recording.add((r) -> r.setRenderingHints(currentHints), recording.measureShared(currentHints,
+						OBJECT_HEADER_SIZE + ((currentHints == null) ? 0 : currentHints.size() * RENDERING_HINT_SIZE)));
+				recording.hints = currentHints;
+			}
+		}
+
+		/**
+		 * Paints that work from device coordinates, such as PdfBox's soft masks, would end up
+		 * in the wrong place when replayed at another zoom.
+		 */
+		private static boolean isReplayable(Paint paint) {
+			if (paint instanceof Color) {
+				return true;
+			}
+			final String className = paint.getClass().getName();
+			return className.startsWith("java.awt.")
+					|| className.startsWith("org.apache.pdfbox.pdmodel.graphics.shading.")
+					|| className.equals("org.apache.pdfbox.rendering.TilingPaint");
+		}
+
+		private static boolean isReplayable(Composite composite) {
+			return (composite instanceof AlphaComposite)
+					|| composite.getClass().getName().startsWith("org.apache.pdfbox.pdmodel.graphics.blend.");
+		}
+
+		/**
+		 * Notes that the display list holds on to an image's pixels.
+		 */
+		private void retainImage(Image img) {
+			final long size;
+			if (img instanceof BufferedImage) {
+				final DataBuffer pixels = ((BufferedImage)img).getRaster().getDataBuffer();
+				size = (long)pixels.getSize() * pixels.getNumBanks() * DataBuffer.getDataTypeSize(pixels.getDataType())
+						/ Byte.SIZE;
+			}
+			else {
+				size = (long)Math.max(0, img.getWidth(null)) * Math.max(0, img.getHeight(null)) * BYTES_PER_PIXEL;
+			}
+			recording.retainedImages.putIfAbsent(img, OBJECT_HEADER_SIZE + size);
+		}
+
+		private void retainRenderedImage(RenderedImage img) {
+			if (img instanceof Image) {
+				retainImage((Image)img);
+				return;
+			}
+			recording.retainedImages.putIfAbsent(img,
+					OBJECT_HEADER_SIZE + (long)img.getWidth() * img.getHeight() * BYTES_PER_PIXEL);
+		}
+
+		private long sizeOf(Paint paint) {
+			if (paint instanceof Color) {
+				return COLOR_SIZE;
+			}
+			if (paint instanceof TexturePaint) {
+				retainImage((Image)((TexturePaint)paint).getImage());
+			}
+			return SMALL_STATE_SIZE;
+		}
+
+		private static long sizeOf(Stroke stroke) {
+			if (stroke instanceof BasicStroke) {
+				final float[] dashes = ((BasicStroke)stroke).getDashArray();
+				return STROKE_SIZE + ((dashes == null) ? 0 : OBJECT_HEADER_SIZE + dashes.length * Float.BYTES);
+			}
+			return SMALL_STATE_SIZE;
+		}
+
+		@Override
+		public void fill(Shape s) {
+			recordState();
+			final RecordedPath path = RecordedPath.copyOf(s);
+			recording.add((r) -> r.target.fill(path), path.getRetainedSize());
+		}
+
+		@Override
+		public void draw(Shape s) {
+			recordState();
+			final RecordedPath path = RecordedPath.copyOf(s);
+			recording.add((r) -> r.target.draw(path), path.getRetainedSize());
+		}
+
+		@Override
+		public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) {
+			recordState();
+			final AffineTransform imageTransform = (xform == null) ? null : new AffineTransform(xform);
+			retainImage(img);
+			recording.add((r) -> r.target.drawImage(img, imageTransform, null), TRANSFORM_SIZE);
+			return true;
+		}
+
+		@Override
+		public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+			recordState();
+			retainImage(img);
+			recording.add((r) -> r.target.drawImage(img, op, x, y), 2 * CAPTURED_VALUE_SIZE + SMALL_STATE_SIZE);
+		}
+
+		@Override
+		public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+			recordState();
+			final AffineTransform imageTransform = new AffineTransform(xform);
+			retainRenderedImage(img);
+			recording.add((r) -> r.target.drawRenderedImage(img, imageTransform), TRANSFORM_SIZE);
+		}
+
+		@Override
+		public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+			recordState();
+			final AffineTransform imageTransform = new AffineTransform(xform);
+			recording.add((r) -> r.target.drawRenderableImage(img, imageTransform),
+					TRANSFORM_SIZE + recording.measureShared(img, SMALL_STATE_SIZE));
+		}
+
+		@Override
+		public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+			recordState();
+			retainImage(img);
+			recording.add((r) -> r.target.drawImage(img, x, y, null), 2 * CAPTURED_VALUE_SIZE);
+			return true;
+		}
+
+		@Override
+		public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+			recordState();
+			retainImage(img);
+			recording.add((r) -> r.target.drawImage(img, x, y, width, height, null), 4 * CAPTURED_VALUE_SIZE);
+			return true;
+		}
+
+		@Override
+		public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+			recordState();
+			retainImage(img);
+			recording.add((r) -> r.target.drawImage(img, x, y, bgcolor, null), 3 * CAPTURED_VALUE_SIZE);
+			return true;
+		}
+
+		@Override
+		public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor,
+				ImageObserver observer) {
+			recordState();
+			retainImage(img);
+			recording.add((r) -> r.target.drawImage(img, x, y, width, height, bgcolor, null), 5 * CAPTURED_VALUE_SIZE);
+			return true;
+		}
+
+		@Override
+		public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2,
+				ImageObserver observer) {
+			recordState();
+			retainImage(img);
+			recording.add((r) -> r.target.drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null),
+					8 * CAPTURED_VALUE_SIZE);
+			return true;
+		}
+
+		@Override
+		public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2,
+				Color bgcolor, ImageObserver observer) {
+			recordState();
+			retainImage(img);
+			recording.add((r) -> r.target.drawImage(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bgcolor, null),
+					9 * CAPTURED_VALUE_SIZE);
+			return true;
+		}
+
+		@Override
+		public void clearRect(int x, int y, int width, int height) {
+			recordState();
+			final Color color = background;
+			recording.add((r) -> {
+				if (color != null) {
+					r.target.setBackground(color);
+				}
+				r.target.clearRect(x, y, width, height);
+			}, 4 * CAPTURED_VALUE_SIZE);
+		}
+
+		@Override
+		public void drawString(String str, int x, int y) {
+			drawString(str, (float)x, (float)y);
+		}
+
+		@Override
+		public void drawString(String str, float x, float y) {
+			drawGlyphVector(getFont().createGlyphVector(getFontRenderContext(), str), x, y);
+		}
+
+		@Override
+		public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+			drawString(iterator, (float)x, (float)y);
+		}
+
+		@Override
+		public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+			final TextLayout layout = new TextLayout(iterator, getFontRenderContext());
+			fill(layout.getOutline(AffineTransform.getTranslateInstance(x, y)));
+		}
+
+		@Override
+		public void drawGlyphVector(GlyphVector g, float x, float y) {
+			fill(g.getOutline(x, y));
+		}
+
+		@Override
+		public void drawLine(int x1, int y1, int x2, int y2) {
+			draw(new Line2D.Float(x1, y1, x2, y2));
+		}
+
+		@Override
+		public void fillRect(int x, int y, int width, int height) {
+			fill(new Rectangle(x, y, width, height));
+		}
+
+		@Override
+		public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+			draw(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+		}
+
+		@Override
+		public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+			fill(new RoundRectangle2D.Float(x, y, width, height, arcWidth, arcHeight));
+		}
+
+		@Override
+		public void drawOval(int x, int y, int width, int height) {
+			draw(new Ellipse2D.Float(x, y, width, height));
+		}
+
+		@Override
+		public void fillOval(int x, int y, int width, int height) {
+			fill(new Ellipse2D.Float(x, y, width, height));
+		}
+
+		@Override
+		public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+			draw(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+		}
+
+		@Override
+		public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+			fill(new Arc2D.Float(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
+		}
+
+		@Override
+		public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+			if (nPoints < 1) {
+				return;
+			}
+			final Path2D.Float path = new Path2D.Float();
+			path.moveTo(xPoints[0], yPoints[0]);
+			for (int i = 1; i < nPoints; i++) {
+				path.lineTo(xPoints[i], yPoints[i]);
+			}
+			draw(path);
+		}
+
+		@Override
+		public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+			draw(new Polygon(xPoints, yPoints, nPoints));
+		}
+
+		@Override
+		public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+			fill(new Polygon(xPoints, yPoints, nPoints));
+		}
+
+		@Override
+		public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+			/*
+			 * copies whatever happens to be on the device already
+			 */
+			markUnreplayable();
+		}
+
+		@Override
+		public void setXORMode(Color c1) {
+			markUnreplayable();
+			state.setXORMode(c1);
+		}
+
+		@Override
+		public void setPaintMode() {
+			state.setPaintMode();
+		}
+
+		@Override
+		public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+			return state.hit(rect, s, onStroke);
+		}
+
+		@Override
+		public GraphicsConfiguration getDeviceConfiguration() {
+			return state.getDeviceConfiguration();
+		}
+
+		@Override
+		public void setComposite(Composite comp) {
+			state.setComposite(comp);
+		}
+
+		@Override
+		public Composite getComposite() {
+			return state.getComposite();
+		}
+
+		@Override
+		public void setPaint(Paint paint) {
+			state.setPaint(paint);
+		}
+
+		@Override
+		public Paint getPaint() {
+			return state.getPaint();
+		}
+
+		@Override
+		public void setColor(Color c) {
+			state.setColor(c);
+		}
+
+		@Override
+		public Color getColor() {
+			return state.getColor();
+		}
+
+		@Override
+		public void setStroke(Stroke s) {
+			state.setStroke(s);
+		}
+
+		@Override
+		public Stroke getStroke() {
+			return state.getStroke();
+		}
+
+		@Override
+		public void setBackground(Color color) {
+			state.setBackground(color);
+			background = color;
+		}
+
+		@Override
+		public Color getBackground() {
+			return state.getBackground();
+		}
+
+		@Override
+		public void setFont(Font font) {
+			state.setFont(font);
+		}
+
+		@Override
+		public Font getFont() {
+			return state.getFont();
+		}
+
+		@Override
+		public FontMetrics getFontMetrics(Font f) {
+			return state.getFontMetrics(f);
+		}
+
+		@Override
+		public FontRenderContext getFontRenderContext() {
+			return state.getFontRenderContext();
+		}
+
+		@Override
+		public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
+			state.setRenderingHint(hintKey, hintValue);
+			hints = state.getRenderingHints();
+		}
+
+		@Override
+		public Object getRenderingHint(RenderingHints.Key hintKey) {
+			return state.getRenderingHint(hintKey);
+		}
+
+		@Override
+		public void setRenderingHints(Map<?, ?> hintMap) {
+			state.setRenderingHints(hintMap);
+			hints = state.getRenderingHints();
+		}
+
+		@Override
+		public void addRenderingHints(Map<?, ?> hintMap) {
+			state.addRenderingHints(hintMap);
+			hints = state.getRenderingHints();
+		}
+
+		@Override
+		public RenderingHints getRenderingHints() {
+			return state.getRenderingHints();
+		}
+
+		@Override
+		public void translate(int x, int y) {
+			state.translate(x, y);
+		}
+
+		@Override
+		public void translate(double tx, double ty) {
+			state.translate(tx, ty);
+		}
+
+		@Override
+		public void rotate(double theta) {
+			state.rotate(theta);
+		}
+
+		@Override
+		public void rotate(double theta, double x, double y) {
+			state.rotate(theta, x, y);
+		}
+
+		@Override
+		public void scale(double sx, double sy) {
+			state.scale(sx, sy);
+		}
+
+		@Override
+		public void shear(double shx, double shy) {
+			state.shear(shx, shy);
+		}
+
+		@Override
+		public void transform(AffineTransform tx) {
+			state.transform(tx);
+		}
+
+		@Override
+		public void setTransform(AffineTransform tx) {
+			state.setTransform(tx);
+		}
+
+		@Override
+		public AffineTransform getTransform() {
+			return state.getTransform();
+		}
+
+		@Override
+		public void clip(Shape s) {
+			state.clip(s);
+			updateDeviceClip();
+		}
+
+		@Override
+		public void clipRect(int x, int y, int width, int height) {
+			state.clipRect(x, y, width, height);
+			updateDeviceClip();
+		}
+
+		@Override
+		public void setClip(int x, int y, int width, int height) {
+			state.setClip(x, y, width, height);
+			updateDeviceClip();
+		}
+
+		@Override
+		public void setClip(Shape clip) {
+			state.setClip(clip);
+			updateDeviceClip();
+		}
+
+		private void updateDeviceClip() {
+			final Shape userClip = state.getClip();
+			deviceClip = (userClip == null) ? null : state.getTransform().createTransformedShape(userClip);
+		}
+
+		@Override
+		public Shape getClip() {
+			return state.getClip();
+		}
+
+		@Override
+		public Rectangle getClipBounds() {
+			return state.getClipBounds();
+		}
+
+		@Override
+		public Graphics create() {
+			return new Recorder(recording, (Graphics2D)state.create(), deviceClip, hints, background);
+		}
+
+		@Override
+		public void dispose() {
+			state.dispose();
+		}
+	}
+
+	private final List<Command> commands;
+	private final long ownSize;
+	private final Map<Object, Long> retainedImages;
+
+	private PageDisplayList(List<Command> commands, long ownSize, Map<Object, Long> retainedImages) {
+		this.commands = Collections.unmodifiableList(commands);
+		this.ownSize = ownSize;
+		this.retainedImages = Collections.unmodifiableMap(retainedImages);
+	}
+
+	/**
+	 * Starts recording a page. The recorder is passed to the pdf library in place of the graphics
+	 * context it would normally draw the page on, with the upper left corner of the page at (0, 0).
+	 * Once the page has been drawn, the recorder must be disposed, and the display list collected
+	 * with {@link Recorder#finish_rNull()}.
+	 * @return a recorder for a new display list
+	 */
+	public static Recorder startRecording() {
+		/*
+		 * the image only supplies a graphics context to keep track of the graphics state
+		 */
+		final Graphics2D state = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+		state.scale(RECORDING_SCALE, RECORDING_SCALE);
+		return new Recorder(new Recording(), state, null, state.getRenderingHints(), null);
+	}
+
+	private static RenderingHints createDraftHints() {
+		final RenderingHints ret = new RenderingHints(null);
+		ret.put(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+		ret.put(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+		ret.put(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
+		ret.put(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+		ret.put(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_SPEED);
+		ret.put(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_SPEED);
+		return ret;
+	}
+
+	/**
+	 * Paints the recorded page. The upper left corner of the page is placed at (0, 0) in the provided
+	 * graphics context. The graphics context is left as it was found.
+	 * @param g2d the graphics context to draw on
+	 * @param quality how carefully to paint the page. Drafts are painted without antialiasing and with
+	 * nearest-neighbor image scaling, regardless of the rendering hints that were recorded.
+	 * @throws CancellationException if the render job running on this thread is cancelled partway through
+	 */
+	public void replay(@NotNull Graphics2D g2d, @NotNull PdfRenderer.RenderQuality quality) {
+		final Graphics2D target = (Graphics2D)g2d.create();
+		try {
+			final Replayer replayer = new Replayer(target, quality == PdfRenderer.RenderQuality.DRAFT);
+			int untilCancellationCheck = COMMANDS_PER_CANCELLATION_CHECK;
+			for (Command command : commands) {
+				if (--untilCancellationCheck == 0) {
+					if (PageRenderScheduler.isCurrentRenderCancelled()) {
+						throw new CancellationException();
+					}
+					untilCancellationCheck = COMMANDS_PER_CANCELLATION_CHECK;
+				}
+				command.replay(replayer);
+			}
+		}
+		finally {
+			target.dispose();
+		}
+	}
+
+	/**
+	 * @return the approximate number of bytes of memory held by this display list, including every image it draws
+	 */
+	public long getEstimatedSize() {
+		long ret = ownSize;
+		for (long imageSize : retainedImages.values()) {
+			ret += imageSize;
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the approximate number of bytes of memory held by this display list, not counting the images it draws
+	 */
+	public long getOwnSize() {
+		return ownSize;
+	}
+
+	/**
+	 * Gets the images this display list draws. The same image is often drawn on several pages,
+	 * or held by the pdf library's resource cache as well, so these are best counted only once.
+	 * @return the number of bytes each image holds, keyed by the image itself. Keys compare by identity.
+	 */
+	public Map<Object, Long> getRetainedImages() {
+		return retainedImages;
+	}
+}
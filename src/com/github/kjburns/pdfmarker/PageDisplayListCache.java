@@ -0,0 +1,130 @@
+package com.github.kjburns.pdfmarker;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * A cache of recorded page display lists, bounded by an estimate of the memory they use.
+ * When the budget is exceeded, the least recently used display lists are evicted first.
+ * An image drawn by several cached display lists is only counted once.
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class PageDisplayListCache {
+	/*
+	 * access-ordered, so iteration starts at the least recently used display list
+	 */
+	private final Map<Integer, PageDisplayList> displayLists = new LinkedHashMap<>(16, 0.75f, true);
+	/*
+	 * how many cached display lists draw each image
+	 */
+	private final Map<Object, Integer> imageUseCounts = new IdentityHashMap<>();
+	private long byteBudget;
+	private long bytesInUse = 0;
+
+	/**
+	 * Creates a display list cache.
+	 * @param byteBudget the estimated number of bytes of display lists to hold
+	 * @throws IllegalArgumentException if {@code byteBudget} is negative
+	 */
+	public PageDisplayListCache(long byteBudget) {
+		checkByteBudget(byteBudget);
+		this.byteBudget = byteBudget;
+	}
+
+	private static void checkByteBudget(long byteBudget) {
+		if (byteBudget < 0) {
+			throw new IllegalArgumentException("Display list cache byte budget may not be negative.");
+		}
+	}
+
+	/**
+	 * Gets the cached display list of a page, marking it as recently used.
+	 * @param pageNr the zero-based page number
+	 * @return the cached display list, or {@code null} if it is not in the cache
+	 */
+	public synchronized PageDisplayList get(int pageNr) {
+		return displayLists.get(pageNr);
+	}
+
+	/**
+	 * Adds a page's display list to the cache, evicting least recently used display lists as needed
+	 * to stay within budget. A display list that is larger than the entire budget is not cached.
+	 * @param pageNr the zero-based page number
+	 * @param displayList the page's display list
+	 * @return {@code false} if the display list is too large to cache
+	 */
+	public synchronized boolean put(int pageNr, @NotNull PageDisplayList displayList) {
+		final long size = displayList.getEstimatedSize();
+		if (size > byteBudget) {
+			return false;
+		}
+
+		final PageDisplayList previous = displayLists.put(pageNr, displayList);
+		if (previous != null) {
+			forget(previous);
+		}
+		bytesInUse += displayList.getOwnSize();
+		for (Map.Entry<Object, Long> image : displayList.getRetainedImages().entrySet()) {
+			if (imageUseCounts.merge(image.getKey(), 1, Integer::sum) == 1) {
+				bytesInUse += image.getValue();
+			}
+		}
+		evictToBudget();
+		return true;
+	}
+
+	/**
+	 * Changes the estimated number of bytes of display lists this cache may hold.
+	 * If the cache currently holds more than the new budget, display lists are evicted immediately.
+	 * @param byteBudget the new budget, in bytes
+	 * @throws IllegalArgumentException if {@code byteBudget} is negative
+	 */
+	public synchronized void setByteBudget(long byteBudget) {
+		checkByteBudget(byteBudget);
+		this.byteBudget = byteBudget;
+		evictToBudget();
+	}
+
+	public synchronized long getByteBudget() {
+		return byteBudget;
+	}
+
+	public synchronized long getBytesInUse() {
+		return bytesInUse;
+	}
+
+	/**
+	 * Removes every display list from the cache.
+	 */
+	public synchronized void clear() {
+		displayLists.clear();
+		imageUseCounts.clear();
+		bytesInUse = 0;
+	}
+
+	private void evictToBudget() {
+		final Iterator<PageDisplayList> it = displayLists.values().iterator();
+		while (bytesInUse > byteBudget && it.hasNext()) {
+			forget(it.next());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Stops counting the memory held by a display list that is leaving the cache.
+	 */
+	private void forget(@NotNull PageDisplayList displayList) {
+		bytesInUse -= displayList.getOwnSize();
+		for (Map.Entry<Object, Long> image : displayList.getRetainedImages().entrySet()) {
+			if (imageUseCounts.merge(image.getKey(), -1, Integer::sum) == 0) {
+				imageUseCounts.remove(image.getKey());
+				bytesInUse -= image.getValue();
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.github.kjburns.pdfmarker;
+
+/**
+ * Describes how pages are arranged into rows and columns. Pages fill each row from left to right,
+ * and rows are stacked downward.
+ * <p>
+ * In a facing layout, the first page sits by itself in the right-hand column, as the cover of a
+ * bound document would, so that every later spread puts an even page on the left.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class PageLayout {
+	static final PageLayout SINGLE_COLUMN = new PageLayout(1, false);
+	static final PageLayout TWO_UP = new PageLayout(2, false);
+	static final PageLayout CONTINUOUS_FACING = new PageLayout(2, true);
+
+	private final int columnCount;
+	private final boolean facing;
+
+	private PageLayout(int columnCount, boolean facing) {
+		this.columnCount = columnCount;
+		this.facing = facing;
+	}
+
+	/**
+	 * Gets a layout of pages in a grid.
+	 * @param columnCount the number of pages in each row
+	 * @return the layout
+	 * @throws IllegalArgumentException if {@code columnCount < 1}
+	 */
+	static PageLayout grid(int columnCount) {
+		if (columnCount < 1) {
+			throw new IllegalArgumentException("A page layout must have at least one column.");
+		}
+		if (columnCount == 1) {
+			return SINGLE_COLUMN;
+		}
+		return new PageLayout(columnCount, false);
+	}
+
+	public int getColumnCount() {
+		return columnCount;
+	}
+
+	/**
+	 * @return {@code true} if the first page is laid out by itself, in the right-hand column
+	 */
+	public boolean isFacing() {
+		return facing;
+	}
+
+	/**
+	 * the number of empty cells before the first page
+	 */
+	private int getLeadingCellCount() {
+		return facing ? columnCount - 1 : 0;
+	}
+
+	/**
+	 * @param pageNr zero-based page number
+	 * @return zero-based row that the page is laid out in
+	 */
+	public int getRow(int pageNr) {
+		return (pageNr + getLeadingCellCount()) / columnCount;
+	}
+
+	/**
+	 * @param pageNr zero-based page number
+	 * @return zero-based column that the page is laid out in
+	 */
+	public int getColumn(int pageNr) {
+		return (pageNr + getLeadingCellCount()) % columnCount;
+	}
+
+	/**
+	 * @param pageCount the number of pages in the document
+	 * @return the number of rows needed to lay out every page
+	 */
+	public int getRowCount(int pageCount) {
+		if (pageCount <= 0) {
+			return 0;
+		}
+		return getRow(pageCount - 1) + 1;
+	}
+
+	/**
+	 * @param row zero-based row
+	 * @return zero-based number of the first page in the row
+	 */
+	public int getFirstPageOfRow(int row) {
+		return Math.max(0, row * columnCount - getLeadingCellCount());
+	}
+
+	/**
+	 * @param row zero-based row
+	 * @param pageCount the number of pages in the document
+	 * @return zero-based number of the last page in the row
+	 */
+	public int getLastPageOfRow(int row, int pageCount) {
+		return Math.min(pageCount, (row + 1) * columnCount - getLeadingCellCount()) - 1;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof PageLayout)) {
+			return false;
+		}
+		final PageLayout other = (PageLayout)obj;
+		return (columnCount == other.columnCount) && (facing == other.facing);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * columnCount + (facing ? 1 : 0);
+	}
+
+	@Override
+	public String toString() {
+		if (facing) {
+			return "Facing";
+		}
+		if (columnCount == 1) {
+			return "Single page";
+		}
+		return columnCount + "-up";
+	}
+}
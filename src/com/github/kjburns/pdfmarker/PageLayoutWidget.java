@@ -0,0 +1,48 @@
+package com.github.kjburns.pdfmarker;
+
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+
+/**
+ * A toolbar widget for choosing how the pages of a document are arranged.
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+class PageLayoutWidget {
+	private static final PageLayout[] CHOICES = {
+			PageLayout.SINGLE_COLUMN,
+			PageLayout.TWO_UP,
+			PageLayout.CONTINUOUS_FACING,
+			PageLayout.grid(4),
+	};
+
+	private final HasPageLayout layoutContainer;
+	private final JComboBox<PageLayout> widget;
+
+	public PageLayoutWidget(HasPageLayout container) {
+		layoutContainer = container;
+		widget = buildComponent();
+	}
+
+	private JComboBox<PageLayout> buildComponent() {
+		final JComboBox<PageLayout> ret = new JComboBox<>(CHOICES);
+		ret.setSelectedItem(layoutContainer.getPageLayout());
+		ret.setToolTipText("Arrangement of pages");
+		/*
+		 * the combo box would otherwise stretch to fill the toolbar
+		 */
+		ret.setMaximumSize(ret.getPreferredSize());
+		ret.setFocusable(false);
+		ret.addActionListener((e) -> {
+			final PageLayout layout = (PageLayout)ret.getSelectedItem();
+			if (layout != null) {
+				layoutContainer.setPageLayout(layout);
+			}
+		});
+		return ret;
+	}
+
+	public JComponent getComponent() {
+		return widget;
+	}
+}
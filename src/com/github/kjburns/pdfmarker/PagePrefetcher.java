@@ -0,0 +1,137 @@
+package com.github.kjburns.pdfmarker;
+
+/**
+ * Decides which pages should be rendered ahead of time, based on the direction and speed
+ * at which the view is moving through the document.
+ * <p>
+ * The prefetch window always includes the visible pages. In the direction of travel it extends
+ * a tunable number of pages further, plus however many pages the view is expected to cross
+ * in the near future at its current speed. Behind the view it extends only a single page,
+ * so work for pages that have been left behind can be dropped.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class PagePrefetcher {
+	private static final int DEFAULT_PAGES_AHEAD = 3;
+	private static final int PAGES_BEHIND = 1;
+	/**
+	 * The most pages that may be added to the window because of the speed of the view
+	 */
+	private static final int MAX_SPEED_PAGES = 16;
+	/**
+	 * How far into the future the view's travel is anticipated
+	 */
+	private static final double LOOKAHEAD_SECONDS = 1.0;
+	/**
+	 * Weight of the newest measurement in the smoothed velocity
+	 */
+	private static final double VELOCITY_SMOOTHING = 0.5;
+	/**
+	 * A view that has not moved for this long is considered stationary
+	 */
+	private static final long IDLE_NANOS = 300_000_000L;
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	private int pagesAhead = DEFAULT_PAGES_AHEAD;
+	private double lastTop = Double.NaN;
+	private long lastMoveNanos = 0;
+	private long lastObservedNanos = 0;
+	/**
+	 * document units per second; positive is toward the end of the document
+	 */
+	private double velocity = 0;
+	private boolean movingForward = true;
+	private int windowFirstPage = 0;
+	private int windowLastPage = -1;
+
+	/**
+	 * Changes how many pages beyond the visible ones are prefetched in the direction of travel,
+	 * not counting any added because of the speed of the view.
+	 * @param pages the number of pages to prefetch
+	 * @throws IllegalArgumentException if {@code pages} is negative
+	 */
+	public void setPagesAhead(int pages) {
+		if (pages < 0) {
+			throw new IllegalArgumentException("Prefetch page count may not be negative.");
+		}
+		pagesAhead = pages;
+	}
+
+	public int getPagesAhead() {
+		return pagesAhead;
+	}
+
+	/**
+	 * Records the current position of the view. Calls that do not change the position, such
+	 * as repaints after a background render, do not affect the measured velocity.
+	 * @param top the top of the view, in document coordinates
+	 * @param nanoTime the current {@link System#nanoTime()}
+	 */
+	public void viewportMoved(double top, long nanoTime) {
+		lastObservedNanos = nanoTime;
+		if (Double.isNaN(lastTop)) {
+			lastTop = top;
+			lastMoveNanos = nanoTime;
+			return;
+		}
+		if (top == lastTop) {
+			return;
+		}
+
+		final double elapsedSeconds = Math.max(1, nanoTime - lastMoveNanos) / NANOS_PER_SECOND;
+		final double instantVelocity = (top - lastTop) / elapsedSeconds;
+		if (nanoTime - lastMoveNanos > IDLE_NANOS) {
+			velocity = instantVelocity;
+		}
+		else {
+			velocity = VELOCITY_SMOOTHING * instantVelocity + (1 - VELOCITY_SMOOTHING) * velocity;
+		}
+		movingForward = top > lastTop;
+		lastTop = top;
+		lastMoveNanos = nanoTime;
+	}
+
+	/**
+	 * Recomputes the prefetch window.
+	 * @param firstVisiblePage the first visible page
+	 * @param lastVisiblePage the last visible page
+	 * @param pageCount the number of pages in the document
+	 * @param averagePageHeight the average height of a page, including spacing, in document units
+	 */
+	public void updateWindow(int firstVisiblePage, int lastVisiblePage, int pageCount, double averagePageHeight) {
+		final int ahead = pagesAhead + getSpeedPages(averagePageHeight);
+		if (movingForward) {
+			windowFirstPage = firstVisiblePage - PAGES_BEHIND;
+			windowLastPage = lastVisiblePage + ahead;
+		}
+		else {
+			windowFirstPage = firstVisiblePage - ahead;
+			windowLastPage = lastVisiblePage + PAGES_BEHIND;
+		}
+		windowFirstPage = Math.max(0, windowFirstPage);
+		windowLastPage = Math.min(pageCount - 1, windowLastPage);
+	}
+
+	private int getSpeedPages(double averagePageHeight) {
+		if (averagePageHeight <= 0 || lastObservedNanos - lastMoveNanos > IDLE_NANOS) {
+			return 0;
+		}
+		final double pages = Math.abs(velocity) * LOOKAHEAD_SECONDS / averagePageHeight;
+		return (int)Math.min(MAX_SPEED_PAGES, Math.ceil(pages));
+	}
+
+	/**
+	 * @return the first page of the prefetch window, as of the last call to {@link #updateWindow(int, int, int, double)}
+	 */
+	public int getWindowFirstPage() {
+		return windowFirstPage;
+	}
+
+	/**
+	 * @return the last page of the prefetch window, as of the last call to {@link #updateWindow(int, int, int, double)}
+	 */
+	public int getWindowLastPage() {
+		return windowLastPage;
+	}
+}
@@ -0,0 +1,167 @@
+package com.github.kjburns.pdfmarker;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Keeps track of the resolutions at which pages have been rendered, so that something can be
+ * shown immediately for a page that has not yet been rendered at the current zoom level.
+ * <p>
+ * The bottom of the pyramid is a small base level image of each page, rendered quickly and kept
+ * in its own cache, so it survives the tile churn that comes with scrolling and zooming.
+ * Above that are the tiles of the zoom levels that pages have most recently been rendered at,
+ * which live in the ordinary tile cache. While a tile is pending, the nearest level that is available
+ * is painted in its place, scaled to fit.
+ * </p>
+ * <p>
+ * Base level images of documents whose fingerprint is known are also kept on disk by the 
+ * {@link PageRasterDiskCache}, so they can be shown as soon as the document is opened again.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class PagePyramid {
+	/**
+	 * The zoom recorded in the tile key of a base level image. Base level images are not
+	 * rendered at a single zoom; each is scaled to fit within {@link #BASE_LEVEL_SIZE}.
+	 */
+	static final float BASE_LEVEL_ZOOM = 0;
+	/**
+	 * The length of the longest side of a base level image, in pixels
+	 */
+	private static final int BASE_LEVEL_SIZE = 256;
+	private static final long DEFAULT_BASE_LEVEL_BYTE_BUDGET =
+			Math.min(32L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 32);
+	/**
+	 * How many of the most recently used zoom levels are remembered
+	 */
+	private static final int MAX_LEVELS = 4;
+
+	private final PageTileCache baseLevels = new PageTileCache(DEFAULT_BASE_LEVEL_BYTE_BUDGET);
+	/**
+	 * most recently used first
+	 */
+	private final List<Float> levels = new ArrayList<>();
+
+	/**
+	 * Gets the key under which the base level image of a page is rendered and cached.
+	 * @param pageNr the zero-based page number
+	 * @return the key of the page's base level
+	 */
+	public static PageTileCache.TileKey getBaseLevelKey(int pageNr) {
+		return new PageTileCache.TileKey(pageNr, BASE_LEVEL_ZOOM, PdfRenderer.RenderQuality.FULL, 0, 0);
+	}
+
+	/**
+	 * Determines whether a key identifies the base level of a page rather than one of its tiles.
+	 * @param key the key
+	 * @return {@code true} if the key identifies a base level image
+	 */
+	public static boolean isBaseLevel(@NotNull PageTileCache.TileKey key) {
+		return key.getZoom() == BASE_LEVEL_ZOOM;
+	}
+
+	/**
+	 * Gets the zoom at which the base level of a page should be rendered.
+	 * @param pageWidth the width of the page, in document units
+	 * @param pageHeight the height of the page, in document units
+	 * @return device pixels per document unit
+	 */
+	public static float getBaseLevelZoom(double pageWidth, double pageHeight) {
+		final double longestSide = Math.max(pageWidth, pageHeight);
+		if (longestSide <= 0) {
+			return 1;
+		}
+		return (float)(BASE_LEVEL_SIZE / longestSide);
+	}
+
+	/**
+	 * @param pageNr the zero-based page number
+	 * @return the base level image of the page, or {@code null} if it has not been rendered
+	 */
+	public BufferedImage getBaseLevel(int pageNr) {
+		return baseLevels.get(getBaseLevelKey(pageNr));
+	}
+
+	public void putBaseLevel(int pageNr, @NotNull BufferedImage image) {
+		baseLevels.put(getBaseLevelKey(pageNr), image);
+	}
+
+	/**
+	 * Reads the base level image of a page from the disk cache.
+	 * @param fingerprint the {@link DocumentFingerprint} of the page's document, or {@code null} if it is not known
+	 * @param pageNr the zero-based page number
+	 * @return the image kept from an earlier rendering, or {@code null} if there is none
+	 */
+	public static BufferedImage readPersistedBaseLevel_rNull(String fingerprint, int pageNr) {
+		if (fingerprint == null) {
+			return null;
+		}
+		return PageRasterDiskCache.getInstance().read_rNull(fingerprint, pageNr, BASE_LEVEL_SIZE);
+	}
+
+	/**
+	 * Reads the base level image of a page from the disk cache on a background thread.
+	 * @param fingerprint the {@link DocumentFingerprint} of the page's document
+	 * @param pageNr the zero-based page number
+	 * @param onRead receives the image kept from an earlier rendering, or {@code null} if there is none.
+	 * Runs on the background thread.
+	 */
+	public static void readPersistedBaseLevelLater(@NotNull String fingerprint, int pageNr,
+			@NotNull Consumer<BufferedImage> onRead) {
+		PageRasterDiskCache.getInstance().readLater(fingerprint, pageNr, BASE_LEVEL_SIZE, onRead);
+	}
+
+	/**
+	 * Keeps the base level image of a page in the disk cache, for later sessions.
+	 * @param fingerprint the {@link DocumentFingerprint} of the page's document, or {@code null} if it is not known
+	 * @param pageNr the zero-based page number
+	 * @param image the newly rendered base level image
+	 */
+	public static void persistBaseLevel(String fingerprint, int pageNr, @NotNull BufferedImage image) {
+		if (fingerprint == null) {
+			return;
+		}
+		PageRasterDiskCache.getInstance().writeLater(fingerprint, pageNr, BASE_LEVEL_SIZE, image);
+	}
+
+	/**
+	 * Records that pages are being painted at a zoom level, making it the most recently used level.
+	 * @param zoom device pixels per document unit
+	 */
+	public synchronized void useLevel(float zoom) {
+		if (!levels.isEmpty() && levels.get(0) == zoom) {
+			return;
+		}
+		levels.remove((Float)zoom);
+		levels.add(0, zoom);
+		if (levels.size() > MAX_LEVELS) {
+			levels.remove(levels.size() - 1);
+		}
+	}
+
+	/**
+	 * Gets the recently used zoom levels other than the one given, nearest to it first.
+	 * @param zoom device pixels per document unit
+	 * @return the other levels
+	 */
+	public synchronized List<Float> getOtherLevelsNearest(float zoom) {
+		final List<Float> ret = new ArrayList<>(levels);
+		ret.remove((Float)zoom);
+		ret.sort(Comparator.comparingDouble((level) -> Math.abs(Math.log(level / zoom))));
+		return ret;
+	}
+
+	/**
+	 * Discards every base level image and forgets the zoom levels used so far.
+	 */
+	public synchronized void clear() {
+		baseLevels.clear();
+		levels.clear();
+	}
+}
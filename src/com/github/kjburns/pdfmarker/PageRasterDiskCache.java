@@ -0,0 +1,231 @@
+package com.github.kjburns.pdfmarker;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import javax.imageio.ImageIO;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * An on-disk cache of low resolution page images, kept between sessions so that pages of a document
+ * that has been opened before can be shown as soon as it is opened again.
+ * <p>
+ * Each image is stored as a png file named for the {@link DocumentFingerprint} of its document, its page
+ * number and its scale, the length of its longest side in pixels. The total size of the files is kept
+ * within a budget by deleting the least recently used first. Recency is kept in each file's modification
+ * time, so it carries over from one session to the next.
+ * </p>
+ * <p>
+ * Images are written on a single low priority background thread, so that encoding them never holds up
+ * the rendering they came from. The index of the files already in the folder is built on the same thread,
+ * before the first write; until it is ready, reads look for their files directly.
+ * Images may be read on a background thread of their own with {@link #readLater}.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class PageRasterDiskCache {
+	private static final String FILE_EXTENSION = ".png";
+	private static final long DEFAULT_BYTE_BUDGET = 256L * 1024 * 1024;
+
+	private static final PageRasterDiskCache instance = new PageRasterDiskCache(
+			new File(System.getProperty("user.home"), ".pdfmarker" + File.separator + "page-rasters"),
+			DEFAULT_BYTE_BUDGET);
+
+	private final File folder;
+	private final long byteBudget;
+	/*
+	 * file name to file size, access-ordered so iteration starts at the least recently used file.
+	 * Built from the folder on the writer thread; null until then.
+	 */
+	private Map<String, Long> index = null;
+	private long bytesInUse = 0;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor((r) -> {
+		final Thread ret = new Thread(r, "page-raster-writer");
+		ret.setDaemon(true);
+		ret.setPriority(Thread.MIN_PRIORITY);
+		return ret;
+	});
+	private final ExecutorService reader = Executors.newSingleThreadExecutor((r) -> {
+		final Thread ret = new Thread(r, "page-raster-reader");
+		ret.setDaemon(true);
+		ret.setPriority(Thread.NORM_PRIORITY - 1);
+		return ret;
+	});
+
+	/**
+	 * @param folder where the images are kept. It is created when first written to.
+	 * @param byteBudget the total size the image files may take up
+	 */
+	PageRasterDiskCache(@NotNull File folder, long byteBudget) {
+		this.folder = folder;
+		this.byteBudget = byteBudget;
+		writer.execute(this::buildIndex);
+	}
+
+	public static PageRasterDiskCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Reads a page image, marking it as recently used.
+	 * @param fingerprint the fingerprint of the page's document
+	 * @param pageNr the zero-based page number
+	 * @param scale the length of the image's longest side, in pixels
+	 * @return the image, or {@code null} if it is not cached or cannot be read
+	 */
+	public BufferedImage read_rNull(@NotNull String fingerprint, int pageNr, int scale) {
+		final String name = getFileName(fingerprint, pageNr, scale);
+		final boolean indexed;
+		synchronized (this) {
+			indexed = (index != null);
+			if (indexed && index.get(name) == null) {
+				return null;
+			}
+		}
+
+		final File file = new File(folder, name);
+		if (!indexed && !file.isFile()) {
+			return null;
+		}
+		try {
+			final BufferedImage ret = ImageIO.read(file);
+			if (ret != null) {
+				file.setLastModified(System.currentTimeMillis());
+				return ret;
+			}
+		} catch (IOException e) {
+			System.err.println("Unable to read cached page image " + name + "; it will be rendered again.");
+			e.printStackTrace();
+		}
+		forget(name);
+		return null;
+	}
+
+	/**
+	 * Reads a page image on a background thread, marking it as recently used.
+	 * @param fingerprint the fingerprint of the page's document
+	 * @param pageNr the zero-based page number
+	 * @param scale the length of the image's longest side, in pixels
+	 * @param onRead receives the image, or {@code null} if it is not cached or cannot be read.
+	 * Runs on the background thread.
+	 */
+	public void readLater(@NotNull String fingerprint, int pageNr, int scale, @NotNull Consumer<BufferedImage> onRead) {
+		reader.execute(() -> onRead.accept(read_rNull(fingerprint, pageNr, scale)));
+	}
+
+	/**
+	 * Writes a page image in the background, evicting the least recently used images as needed
+	 * to stay within budget.
+	 * @param fingerprint the fingerprint of the page's document
+	 * @param pageNr the zero-based page number
+	 * @param scale the length of the image's longest side, in pixels
+	 * @param image the image, which must not be changed afterward
+	 */
+	public void writeLater(@NotNull String fingerprint, int pageNr, int scale, @NotNull BufferedImage image) {
+		writer.execute(() -> write(getFileName(fingerprint, pageNr, scale), image));
+	}
+
+	private void write(@NotNull String name, @NotNull BufferedImage image) {
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			System.err.println("Unable to create page image cache folder " + folder);
+			return;
+		}
+
+		final File file = new File(folder, name);
+		final File tempFile = new File(folder, name + ".tmp");
+		try {
+			if (!ImageIO.write(image, "png", tempFile)) {
+				throw new IOException("No png writer available");
+			}
+			/*
+			 * readers never see a partly written file
+			 */
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.err.println("Unable to write page image to cache.");
+			e.printStackTrace();
+			tempFile.delete();
+			return;
+		}
+
+		final long size = file.length();
+		synchronized (this) {
+			final Long previous = index.put(name, size);
+			if (previous != null) {
+				bytesInUse -= previous;
+			}
+			bytesInUse += size;
+			evictToBudget();
+		}
+	}
+
+	private synchronized void forget(@NotNull String name) {
+		if (index != null) {
+			final Long size = index.remove(name);
+			if (size != null) {
+				bytesInUse -= size;
+			}
+		}
+		new File(folder, name).delete();
+	}
+
+	private static String getFileName(@NotNull String fingerprint, int pageNr, int scale) {
+		return fingerprint + "-" + pageNr + "-" + scale + FILE_EXTENSION;
+	}
+
+	/**
+	 * Builds the index from the files in the folder, reading the modification time and size of each file once.
+	 */
+	private void buildIndex() {
+		final Map<String, Long> built = new LinkedHashMap<>(16, 0.75f, true);
+		long builtBytes = 0;
+		final File[] files = folder.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+		if (files != null) {
+			final long[] lastModifieds = new long[files.length];
+			final long[] sizes = new long[files.length];
+			final Integer[] order = new Integer[files.length];
+			for (int i = 0; i < files.length; i++) {
+				lastModifieds[i] = files[i].lastModified();
+				sizes[i] = files[i].length();
+				order[i] = i;
+			}
+			/*
+			 * oldest first, so that the least recently used file ends up first in access order
+			 */
+			Arrays.sort(order, Comparator.comparingLong((i) -> lastModifieds[i]));
+			for (int i : order) {
+				built.put(files[i].getName(), sizes[i]);
+				builtBytes += sizes[i];
+			}
+		}
+
+		synchronized (this) {
+			index = built;
+			bytesInUse = builtBytes;
+			evictToBudget();
+		}
+	}
+
+	private void evictToBudget() {
+		final Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+		while (bytesInUse > byteBudget && it.hasNext()) {
+			final Map.Entry<String, Long> entry = it.next();
+			bytesInUse -= entry.getValue();
+			new File(folder, entry.getKey()).delete();
+			it.remove();
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package com.github.kjburns.pdfmarker;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import javax.swing.SwingUtilities;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Schedules tile renders on a pool of background worker threads so that
+ * rendering never happens on the event dispatch thread.
+ * <p>
+ * A tile that has already been submitted and has not yet finished is considered
+ * pending, and further requests for it are ignored until it completes, unless the
+ * new request has a more urgent {@link Priority}. Queued work is started most urgent first,
+ * and in order of submission within a priority.
+ * </p>
+ * <p>
+ * Any submitted work may be {@link #cancel(Predicate) cancelled}. Queued work is simply removed.
+ * Work that is already running is flagged, and the render job is expected to check
+ * {@link #isCurrentRenderCancelled()} periodically and throw a {@link CancellationException}
+ * when it becomes {@code true}. Threads are never interrupted, because PdfBox does not
+ * tolerate being interrupted in the middle of reading a document.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class PageRenderScheduler {
+	/**
+	 * How urgently a tile is needed. Declared from most to least urgent.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	static enum Priority {
+		/**
+		 * The tile is on screen now.
+		 */
+		VISIBLE,
+		/**
+		 * The tile is expected to come on screen soon.
+		 */
+		PREFETCH
+	}
+
+	private final class RenderTask implements Runnable, Comparable<RenderTask> {
+		private final PageTileCache.TileKey key;
+		private final Priority priority;
+		private final long sequenceNr = taskSequence.incrementAndGet();
+		private final Supplier<BufferedImage> job;
+		private final Consumer<BufferedImage> onRendered;
+		private final Runnable onFinished;
+		private volatile boolean cancelled = false;
+
+		public RenderTask(PageTileCache.TileKey key, Priority priority, Supplier<BufferedImage> job,
+				Consumer<BufferedImage> onRendered, Runnable onFinished) {
+			this.key = key;
+			this.priority = priority;
+			this.job = job;
+			this.onRendered = onRendered;
+			this.onFinished = onFinished;
+		}
+
+		@Override
+		public void run() {
+			currentTask.set(this);
+			try {
+				final BufferedImage tile = job.get();
+				if (cancelled) {
+					return;
+				}
+				onRendered.accept(tile);
+			}
+			catch (CancellationException e) {
+				return;
+			}
+			catch (RuntimeException e) {
+				System.err.println("Unable to render tile of page #" + key.getPageNr());
+				e.printStackTrace();
+			}
+			finally {
+				currentTask.remove();
+				pending.remove(key, this);
+			}
+			SwingUtilities.invokeLater(onFinished);
+		}
+
+		@Override
+		public int compareTo(RenderTask other) {
+			final int byPriority = priority.compareTo(other.priority);
+			if (byPriority != 0) {
+				return byPriority;
+			}
+			return Long.compare(sequenceNr, other.sequenceNr);
+		}
+	}
+
+	private static final AtomicInteger schedulerCount = new AtomicInteger(0);
+	private static final long SHUTDOWN_TIMEOUT_MS = 2000;
+	private static final ThreadLocal<RenderTask> currentTask = new ThreadLocal<>();
+
+	private final ThreadPoolExecutor workers;
+	private final Map<PageTileCache.TileKey, RenderTask> pending = new ConcurrentHashMap<>();
+	private final AtomicLong taskSequence = new AtomicLong(0);
+
+	/**
+	 * Creates a scheduler.
+	 * @param threadCount the number of worker threads that may render at the same time
+	 */
+	public PageRenderScheduler(int threadCount) {
+		workers = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), createThreadFactory());
+		/*
+		 * start the workers now, so every task goes through the priority queue
+		 */
+		workers.prestartAllCoreThreads();
+	}
+
+	private static ThreadFactory createThreadFactory() {
+		final int schedulerNr = schedulerCount.incrementAndGet();
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		return (r) -> {
+			final Thread t = new Thread(r, "pdf-render-" + schedulerNr + "-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			t.setPriority(Thread.NORM_PRIORITY - 1);
+			return t;
+		};
+	}
+
+	/**
+	 * Determines whether a tile has been submitted and has not finished rendering.
+	 * @param key the tile to check
+	 * @return {@code true} if the tile is waiting for or undergoing rendering
+	 */
+	public boolean isPending(@NotNull PageTileCache.TileKey key) {
+		return pending.containsKey(key);
+	}
+
+	/**
+	 * Submits a tile for rendering, unless it is already pending at the same or a more urgent priority.
+	 * A tile that is still queued at a less urgent priority is moved up.
+	 * @param key the tile to render
+	 * @param priority how urgently the tile is needed
+	 * @param job renders the tile. Runs on a worker thread.
+	 * @param onRendered receives the rendered tile. Runs on the worker thread, immediately after {@code job}.
+	 * @param onFinished is notified that the tile is no longer pending. Runs on the event dispatch thread.
+	 */
+	public void submit(@NotNull PageTileCache.TileKey key, @NotNull Priority priority,
+			@NotNull Supplier<BufferedImage> job, @NotNull Consumer<BufferedImage> onRendered,
+			@NotNull Runnable onFinished) {
+		final RenderTask task = this.new RenderTask(key, priority, job, onRendered, onFinished);
+		final RenderTask existing = pending.putIfAbsent(key, task);
+		if (existing != null) {
+			if (existing.priority.compareTo(priority) <= 0 || !workers.getQueue().remove(existing)) {
+				/*
+				 * already queued at least as urgently, or already running
+				 */
+				return;
+			}
+			pending.put(key, task);
+		}
+
+		try {
+			workers.execute(task);
+		}
+		catch (RejectedExecutionException e) {
+			/*
+			 * the scheduler has been shut down; nothing more will be rendered.
+			 */
+			pending.remove(key, task);
+		}
+	}
+
+	/**
+	 * Determines whether the render job running on the calling thread has been cancelled.
+	 * Long-running render jobs should call this periodically and throw a {@link CancellationException}
+	 * as soon as it returns {@code true}.
+	 * @return {@code true} if the calling thread is running a render job that has been cancelled
+	 */
+	public static boolean isCurrentRenderCancelled() {
+		final RenderTask task = currentTask.get();
+		return (task != null) && task.cancelled;
+	}
+
+	/**
+	 * Cancels submitted work. Queued work is removed, and work in progress is asked to stop.
+	 * Either way, the affected tiles stop being pending immediately and may be submitted again.
+	 * @param shouldCancel selects the tiles whose work is to be cancelled
+	 */
+	public void cancel(@NotNull Predicate<PageTileCache.TileKey> shouldCancel) {
+		for (RenderTask task : pending.values()) {
+			if (shouldCancel.test(task.key)) {
+				if (!workers.getQueue().remove(task)) {
+					/*
+					 * already running
+					 */
+					task.cancelled = true;
+				}
+				pending.remove(task.key, task);
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting new work, abandons any work that has not started, and cancels work in progress.
+	 * Returns without waiting; once the last worker has stopped, {@code whenStopped} is run on a
+	 * background thread, so that whatever the workers were using may be released there.
+	 * @param whenStopped releases what the workers were using. Runs on a background thread.
+	 */
+	public void shutdown(@NotNull Runnable whenStopped) {
+		cancel((key) -> true);
+		workers.shutdownNow();
+		pending.clear();
+
+		final Thread waiter = new Thread(() -> {
+			try {
+				if (!workers.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+					System.err.println("Render workers did not finish before shutdown timeout; still waiting.");
+					while (!workers.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+						/*
+						 * a job that ignores cancellation still holds what whenStopped releases
+						 */
+					}
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+			whenStopped.run();
+		}, "pdf-render-shutdown");
+		waiter.setDaemon(true);
+		waiter.start();
+	}
+}
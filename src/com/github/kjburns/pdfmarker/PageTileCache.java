@@ -0,0 +1,201 @@
+package com.github.kjburns.pdfmarker;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * A cache of rendered page tiles, bounded by the number of bytes of raster data it holds.
+ * When the budget is exceeded, the least recently used tiles are evicted first.
+ * <p>
+ * Tiles are identified by page number, zoom factor, render quality and tile index, so a page rendered
+ * at two different zoom levels or qualities occupies two independent sets of tiles.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class PageTileCache {
+	/**
+	 * Identifies a single tile of a single page at a single zoom level and render quality.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	static final class TileKey {
+		private final int pageNr;
+		private final float zoom;
+		private final PdfRenderer.RenderQuality quality;
+		private final int tileX;
+		private final int tileY;
+
+		public TileKey(int pageNr, float zoom, @NotNull PdfRenderer.RenderQuality quality, int tileX, int tileY) {
+			this.pageNr = pageNr;
+			this.zoom = zoom;
+			this.quality = quality;
+			this.tileX = tileX;
+			this.tileY = tileY;
+		}
+
+		public int getPageNr() {
+			return pageNr;
+		}
+
+		public float getZoom() {
+			return zoom;
+		}
+
+		public PdfRenderer.RenderQuality getQuality() {
+			return quality;
+		}
+
+		/**
+		 * Gets the key of the same tile at another render quality.
+		 * @param otherQuality the render quality
+		 * @return the key of the tile at {@code otherQuality}
+		 */
+		public TileKey withQuality(@NotNull PdfRenderer.RenderQuality otherQuality) {
+			if (otherQuality == quality) {
+				return this;
+			}
+			return new TileKey(pageNr, zoom, otherQuality, tileX, tileY);
+		}
+
+		public int getTileX() {
+			return tileX;
+		}
+
+		public int getTileY() {
+			return tileY;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof TileKey)) {
+				return false;
+			}
+			final TileKey other = (TileKey)obj;
+			return (pageNr == other.pageNr) && (tileX == other.tileX) && (tileY == other.tileY)
+					&& (Float.compare(zoom, other.zoom) == 0) && (quality == other.quality);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = pageNr;
+			result = 31 * result + Float.floatToIntBits(zoom);
+			result = 31 * result + quality.hashCode();
+			result = 31 * result + tileX;
+			result = 31 * result + tileY;
+			return result;
+		}
+	}
+
+	private static final int BYTES_PER_PIXEL = 4;
+
+	/*
+	 * access-ordered, so iteration starts at the least recently used tile
+	 */
+	private final Map<TileKey, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+	private long byteBudget;
+	private long bytesInUse = 0;
+
+	/**
+	 * Creates a tile cache.
+	 * @param byteBudget the maximum number of bytes of raster data to hold
+	 * @throws IllegalArgumentException if {@code byteBudget} is negative
+	 */
+	public PageTileCache(long byteBudget) {
+		checkByteBudget(byteBudget);
+		this.byteBudget = byteBudget;
+	}
+
+	private static void checkByteBudget(long byteBudget) {
+		if (byteBudget < 0) {
+			throw new IllegalArgumentException("Tile cache byte budget may not be negative.");
+		}
+	}
+
+	/**
+	 * Gets a cached tile, marking it as recently used.
+	 * @param key the tile to look up
+	 * @return the cached tile, or {@code null} if it is not in the cache
+	 */
+	public synchronized BufferedImage get(TileKey key) {
+		return tiles.get(key);
+	}
+
+	/**
+	 * Adds a tile to the cache, evicting least recently used tiles as needed to stay within budget.
+	 * A tile that is larger than the entire budget is not cached.
+	 * @param key the tile being added
+	 * @param tile the rendered tile
+	 */
+	public synchronized void put(TileKey key, BufferedImage tile) {
+		final long size = sizeOf(tile);
+		if (size > byteBudget) {
+			return;
+		}
+
+		final BufferedImage previous = tiles.put(key, tile);
+		if (previous != null) {
+			bytesInUse -= sizeOf(previous);
+		}
+		bytesInUse += size;
+		evictToBudget();
+	}
+
+	/**
+	 * Removes a tile from the cache, if it is there.
+	 * @param key the tile to remove
+	 */
+	public synchronized void remove(TileKey key) {
+		final BufferedImage previous = tiles.remove(key);
+		if (previous != null) {
+			bytesInUse -= sizeOf(previous);
+		}
+	}
+
+	/**
+	 * Changes the maximum number of bytes of raster data held by this cache.
+	 * If the cache currently holds more than the new budget, tiles are evicted immediately.
+	 * @param byteBudget the new budget, in bytes
+	 * @throws IllegalArgumentException if {@code byteBudget} is negative
+	 */
+	public synchronized void setByteBudget(long byteBudget) {
+		checkByteBudget(byteBudget);
+		this.byteBudget = byteBudget;
+		evictToBudget();
+	}
+
+	public synchronized long getByteBudget() {
+		return byteBudget;
+	}
+
+	public synchronized long getBytesInUse() {
+		return bytesInUse;
+	}
+
+	/**
+	 * Removes every tile from the cache.
+	 */
+	public synchronized void clear() {
+		tiles.clear();
+		bytesInUse = 0;
+	}
+
+	private void evictToBudget() {
+		final Iterator<BufferedImage> it = tiles.values().iterator();
+		while (bytesInUse > byteBudget && it.hasNext()) {
+			bytesInUse -= sizeOf(it.next());
+			it.remove();
+		}
+	}
+
+	private static long sizeOf(BufferedImage tile) {
+		return (long)tile.getWidth() * tile.getHeight() * BYTES_PER_PIXEL;
+	}
+}
@@ -0,0 +1,231 @@
+package com.github.kjburns.pdfmarker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * A pool of independently loaded copies of a single pdf, so that pages may be rendered
+ * on more than one thread at a time. Each copy is lent out along with its long-lived
+ * {@link PdfRenderingContext}. PdfBox documents are not thread-safe, so a borrowed
+ * context must only be used by the thread that borrowed it until it is released.
+ * <p>
+ * If the file that the document was loaded from is known, copies are loaded from it on demand
+ * and the primary document is never lent out, leaving it free for use on the event dispatch thread.
+ * Copies are kept as the {@link DocumentMemoryPolicy} the primary document was opened under directs.
+ * Under {@link DocumentMemoryPolicy.Strategy#MEMORY_MAPPED}, the file is memory-mapped once and every copy
+ * is parsed from that same mapping; otherwise each copy reads the file through its own buffer.
+ * If the file is not known, the primary document is saved into memory once, when the pool is created,
+ * and copies are parsed from that saved image instead.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class PdfDocumentPool {
+	private static final int MAX_COPIES = 4;
+
+	private final File sourceFile;
+	private final DocumentMemoryPolicy memoryPolicy;
+	private final ByteBuffer savedSource;
+	private final Object sourceIdentity;
+	private final int capacity;
+	private final BlockingQueue<PdfRenderingContext> idle = new LinkedBlockingQueue<>();
+	private final List<PdfRenderingContext> copies = new ArrayList<>();
+	private int reservedCopies = 0;
+	private ByteBuffer mappedSource = null;
+	private boolean mappingAttempted = false;
+	private boolean closed = false;
+
+	/**
+	 * Creates a pool. If {@code source} is {@code null}, {@code primary} is saved into memory,
+	 * so this must be called on the thread that owns {@code primary}.
+	 * @param primary the document already loaded by the application
+	 * @param source where {@code primary} was loaded from, or {@code null} if it is not known
+	 */
+	public PdfDocumentPool(@NotNull PDDocument primary, DocumentSource source) {
+		if (source == null) {
+			sourceFile = null;
+			memoryPolicy = null;
+			savedSource = saveToMemory_rNull(primary);
+			sourceIdentity = this;
+		}
+		else {
+			sourceFile = source.getFile();
+			memoryPolicy = source.getMemoryPolicy();
+			savedSource = null;
+			sourceIdentity = SharedResourceCache.identify(source);
+		}
+		capacity = Math.max(1, Math.min(MAX_COPIES, Runtime.getRuntime().availableProcessors() - 1));
+	}
+
+	private static ByteBuffer saveToMemory_rNull(@NotNull PDDocument primary) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			primary.save(out);
+		} catch (IOException e) {
+			System.err.println("Unable to save a copy of the pdf for rendering.");
+			e.printStackTrace();
+			return null;
+		}
+		return ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Gets the number of documents that may be borrowed at the same time.
+	 * @return the capacity of the pool
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Borrows a document's rendering context for the exclusive use of the calling thread, loading a
+	 * new copy of the document if none is idle and the pool is not yet full. Otherwise, waits for a
+	 * context to be released.
+	 * @return a rendering context, which must be returned with {@link #release(PdfRenderingContext)}
+	 * @throws IOException if a new copy of the document could not be loaded
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 * @throws IllegalStateException if the pool has been closed
+	 */
+	public PdfRenderingContext borrow() throws IOException, InterruptedException {
+		final PdfRenderingContext ret = idle.poll();
+		if (ret != null) {
+			return ret;
+		}
+
+		final boolean shouldLoadCopy;
+		synchronized (this) {
+			checkNotClosed();
+			shouldLoadCopy = (reservedCopies < capacity);
+			if (shouldLoadCopy) {
+				reservedCopies++;
+			}
+		}
+		if (shouldLoadCopy) {
+			return loadReservedCopy();
+		}
+
+		return idle.take();
+	}
+
+	private PdfRenderingContext loadReservedCopy() throws IOException {
+		final PdfRenderingContext copy;
+		try {
+			final PDDocument doc = loadCopy();
+			SharedResourceCache.getInstance().installOn(doc, sourceIdentity);
+			copy = new PdfRenderingContext(doc);
+		} catch (IOException e) {
+			synchronized (this) {
+				reservedCopies--;
+			}
+			throw e;
+		}
+
+		synchronized (this) {
+			if (!closed) {
+				copies.add(copy);
+				return copy;
+			}
+		}
+		closeCopy(copy);
+		throw new IllegalStateException("Document pool was closed while loading a copy.");
+	}
+
+	/**
+	 * Returns a borrowed rendering context to the pool.
+	 * @param context a rendering context obtained from {@link #borrow()}
+	 */
+	public void release(@NotNull PdfRenderingContext context) {
+		SharedResourceCache.getInstance().endLeases(context.getDocument());
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+		}
+		idle.add(context);
+	}
+
+	/**
+	 * Closes every copy loaded by this pool. The primary document is left open.
+	 * No document may be borrowed afterwards.
+	 */
+	public synchronized void close() {
+		closed = true;
+		idle.clear();
+		for (PdfRenderingContext copy : copies) {
+			closeCopy(copy);
+		}
+		copies.clear();
+		mappedSource = null;
+	}
+
+	private static void closeCopy(@NotNull PdfRenderingContext copy) {
+		final PDDocument doc = copy.getDocument();
+		try {
+			doc.close();
+		} catch (IOException e) {
+			System.err.println("Unable to close pooled copy of pdf.");
+			e.printStackTrace();
+		}
+		SharedResourceCache.getInstance().release(doc);
+	}
+
+	private void checkNotClosed() {
+		if (closed) {
+			throw new IllegalStateException("Attempted to borrow a document from a closed pool.");
+		}
+	}
+
+	private PDDocument loadCopy() throws IOException {
+		if (sourceFile == null) {
+			if (savedSource == null) {
+				throw new IOException("No copy of the pdf is available for rendering.");
+			}
+			return parseCopy(savedSource, MemoryUsageSetting.setupMainMemoryOnly());
+		}
+
+		final ByteBuffer mapped = (memoryPolicy.getStrategy() == DocumentMemoryPolicy.Strategy.MEMORY_MAPPED)
+				? getMappedSource_rNull() : null;
+		if (mapped == null) {
+			return PDDocument.load(sourceFile, memoryPolicy.createMemoryUsageSetting());
+		}
+		return parseCopy(mapped, memoryPolicy.createMemoryUsageSetting());
+	}
+
+	private static PDDocument parseCopy(@NotNull ByteBuffer source, @NotNull MemoryUsageSetting memUsageSetting)
+			throws IOException {
+		final ScratchFile scratchFile = new ScratchFile(memUsageSetting);
+		try {
+			final PDFParser parser = new PDFParser(new ByteBufferRandomAccessRead(source.duplicate()), scratchFile);
+			parser.parse();
+			return parser.getPDDocument();
+		} catch (IOException e) {
+			scratchFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps the source file into memory, once. Files too large to map in a single
+	 * buffer, or which cannot be mapped for any other reason, are loaded from disk instead.
+	 */
+	private synchronized ByteBuffer getMappedSource_rNull() {
+		if (!mappingAttempted) {
+			mappingAttempted = true;
+			mappedSource = DocumentMemoryPolicy.mapFile_rNull(sourceFile);
+		}
+		return mappedSource;
+	}
+}
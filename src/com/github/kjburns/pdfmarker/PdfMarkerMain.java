@@ -9,6 +9,7 @@ import javax.swing.SwingUtilities;
  */
 public final class PdfMarkerMain {
 	public static void main(String[] args) {
+		StartupWarmup.start();
 		SwingUtilities.invokeLater(() -> {
 			final MainWindow mainWindow = new MainWindow();
 			mainWindow.setVisible(true);
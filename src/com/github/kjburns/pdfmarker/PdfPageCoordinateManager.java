@@ -1,6 +1,25 @@
 package com.github.kjburns.pdfmarker;
 
+import java.awt.geom.Rectangle2D;
+import java.util.function.IntConsumer;
+
+import com.sun.istack.internal.NotNull;
+
 public interface PdfPageCoordinateManager {
+	/**
+	 * A listener that is notified when pages move or change size after the layout was first reported.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	static interface LayoutChangeListener {
+		/**
+		 * Called on the event dispatch thread after the layout changes.
+		 * @param source the coordinate manager whose layout changed
+		 * @param firstChangedPage the first page whose coordinates changed. Any page after it may also have moved.
+		 */
+		void layoutChanged(@NotNull PdfPageCoordinateManager source, int firstChangedPage);
+	}
+	
 	/**
 	 * Gets the coordinates for a page, referenced to the overall 'scroll' of pages in the pdf.
 	 * @param pageNumber Zero-based page number in the pdf.
@@ -20,4 +39,115 @@ public interface PdfPageCoordinateManager {
 	 * @return overall coordinates for the document
 	 */
 	PdfPageRectangle getBoundsOfDocument();
+	/**
+	 * @return the number of pages laid out by this coordinate manager
+	 */
+	int getPageCount();
+	/**
+	 * Gets the rotation at which a page is meant to be displayed.
+	 * @param pageNumber Zero-based page number in the pdf.
+	 * @return clockwise rotation of the page, in degrees: 0, 90, 180 or 270
+	 * @throws IndexOutOfBoundsException if there is no such page in the pdf
+	 */
+	int getPageRotation(int pageNumber);
+	/**
+	 * Gets the left edge of a page, referenced to the overall 'scroll' of pages in the pdf. Unlike
+	 * {@link #getPageOverallCoordinates(int)}, this does not allocate, for use on paths that run every frame.
+	 * @param pageNumber Zero-based page number in the pdf.
+	 * @return overall horizontal position of the page's left edge
+	 * @throws IndexOutOfBoundsException if there is no such page in the pdf
+	 */
+	float getPageLeftX(int pageNumber);
+	/**
+	 * Gets the right edge of a page, referenced to the overall 'scroll' of pages in the pdf.
+	 * @param pageNumber Zero-based page number in the pdf.
+	 * @return overall horizontal position of the page's right edge
+	 * @throws IndexOutOfBoundsException if there is no such page in the pdf
+	 */
+	float getPageRightX(int pageNumber);
+	/**
+	 * Gets the top edge of a page, referenced to the overall 'scroll' of pages in the pdf.
+	 * @param pageNumber Zero-based page number in the pdf.
+	 * @return overall vertical position of the page's top edge
+	 * @throws IndexOutOfBoundsException if there is no such page in the pdf
+	 */
+	float getPageTopY(int pageNumber);
+	/**
+	 * Gets the bottom edge of a page, referenced to the overall 'scroll' of pages in the pdf.
+	 * @param pageNumber Zero-based page number in the pdf.
+	 * @return overall vertical position of the page's bottom edge
+	 * @throws IndexOutOfBoundsException if there is no such page in the pdf
+	 */
+	float getPageBottomY(int pageNumber);
+	/**
+	 * Finds the page at some vertical position in the overall 'scroll' of pages. 
+	 * When pages are laid out side by side, this is the first page of the row at that position.
+	 * @param y vertical position, in overall coordinates
+	 * @return zero-based number of the first page of the row whose top and bottom enclose {@code y}, 
+	 * or -1 if {@code y} falls between rows or outside the document
+	 */
+	int getPageAt(double y);
+	/**
+	 * Finds the first page of the rows of pages that overlap a vertical range of the overall 'scroll' of pages.
+	 * @param top top of the range, in overall coordinates
+	 * @param bottom bottom of the range, in overall coordinates
+	 * @return zero-based number of the first page in the range, or -1 if no row overlaps the range
+	 */
+	int getFirstPageInRange(double top, double bottom);
+	/**
+	 * Finds the last page of the rows of pages that overlap a vertical range of the overall 'scroll' of pages.
+	 * @param top top of the range, in overall coordinates
+	 * @param bottom bottom of the range, in overall coordinates
+	 * @return zero-based number of the last page in the range, or -1 if no row overlaps the range
+	 */
+	int getLastPageInRange(double top, double bottom);
+	/**
+	 * Visits every page that intersects a region of the overall 'scroll' of pages, in page order.
+	 * Unlike {@link #getFirstPageInRange(double, double)} and {@link #getLastPageInRange(double, double)},
+	 * both the horizontal and vertical bounds of each page are checked.
+	 * @param region the region, in overall coordinates
+	 * @param action called with the zero-based number of each page in the region
+	 */
+	void forEachPageInRegion(@NotNull Rectangle2D region, @NotNull IntConsumer action);
+	/**
+	 * @return the arrangement of pages into rows and columns
+	 */
+	PageLayout getPageLayout();
+	/**
+	 * Rearranges the pages into rows and columns. If the layout changes, registered 
+	 * {@link LayoutChangeListener}s are notified that every page may have moved.
+	 * @param layout the new arrangement of pages
+	 * @throws IllegalArgumentException if {@code layout == null}
+	 */
+	void setPageLayout(@NotNull PageLayout layout);
+	/**
+	 * Asks for the real coordinates of a range of pages to be found soon, for implementations that
+	 * estimate the layout of pages they have not read yet. This may be called while painting, so it must
+	 * not change the layout itself; pages that turn out to be a different size are moved later, and
+	 * registered {@link LayoutChangeListener}s are notified. Does nothing by default.
+	 * @param firstPage zero-based number of the first page that must be laid out
+	 * @param lastPage zero-based number of the last page that must be laid out
+	 */
+	default void ensureLaidOut(int firstPage, int lastPage) {
+		// every page is laid out from the start
+	}
+	/**
+	 * Registers a listener for layout changes.
+	 * @param l Listener to be registered. May not be {@code null}. 
+	 * If the listener has already been registered, it will be ignored.
+	 * @throws IllegalArgumentException if {@code l == null}.
+	 */
+	void addLayoutChangeListener(@NotNull LayoutChangeListener l);
+	/**
+	 * Unregisters a listener for layout changes.
+	 * @param l Listener to be unregistered. If the supplied listener has not been
+	 * registered, or if it is {@code null}, nothing happens.
+	 */
+	void removeLayoutChangeListener(LayoutChangeListener l);
+	/**
+	 * Stops any background layout work. Does nothing by default.
+	 */
+	default void dispose() {
+		// nothing to do
+	}
 }
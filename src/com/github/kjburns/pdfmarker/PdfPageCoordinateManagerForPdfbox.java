@@ -1,18 +1,62 @@
 package com.github.kjburns.pdfmarker;
 
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.IntConsumer;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Lays pdf pages out in rows, as described by a {@link PageLayout}. By default there is one page
+ * in each row, so the pages form a single vertical column.
+ * <p>
+ * Each row is as tall as its tallest page, and the pages of a row share its top edge. Within a row,
+ * every column is as wide as the row's widest page, and each page is centered in its column.
+ * Rows are centered horizontally on x = 0.
+ * </p>
+ * <p>
+ * By default every page's size is read when the coordinate manager is built. For very large
+ * documents, reading every page up front can take much longer than the first paint should, so a lazy
+ * layout may be requested instead. In a lazy layout, the size of a handful of sample pages stands in
+ * for the size of every page that has not been read yet, so the whole document can be scrolled
+ * immediately. Real sizes are read on a background thread, which walks the page tree of a copy of the
+ * document borrowed from a {@link PdfDocumentPool} once, in order, and hands the sizes it has read to the
+ * event dispatch thread in batches. The document given to the builder is only ever read on the thread
+ * that builds the coordinate manager, so a lazy layout needs a pool; without one, every page is read
+ * up front. Pages passed to
+ * {@link #ensureLaidOut(int, int)} are read out of turn, so the pages in view are laid out first.
+ * Whenever real sizes differ from the estimate, the pages after them move, and registered
+ * {@link PdfPageCoordinateManager.LayoutChangeListener}s are notified; changes that arrive close
+ * together are laid out together.
+ * </p>
+ * <p>
+ * If the document's fingerprint is given, the page boxes of every page are written to the 
+ * {@link PageBoxCache} once they have all been read, on the thread that read them. When the same document is opened again, 
+ * they are read back from the cache instead, and neither the page tree nor an estimate is needed.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
 final class PdfPageCoordinateManagerForPdfbox 
 		implements PdfPageCoordinateManager {
 	static class Builder {
 		private final PDDocument doc;
 		private float pageSpacing = 18;
+		private boolean lazyLayout = false;
+		private PageLayout layout = PageLayout.SINGLE_COLUMN;
+		private String fingerprint = null;
+		private PdfDocumentPool layoutSource = null;
 		
 		public Builder(PDDocument document) {
 			doc = document;
@@ -22,42 +66,561 @@ final class PdfPageCoordinateManagerForPdfbox
 			pageSpacing = spacing;
 		}
 		
+		/**
+		 * Chooses whether pages are laid out lazily, as described in {@link PdfPageCoordinateManagerForPdfbox}.
+		 * @param lazy {@code true} for a lazy layout
+		 */
+		public void setLazyLayout(boolean lazy) {
+			lazyLayout = lazy;
+		}
+		
+		/**
+		 * @param layout the arrangement of pages into rows and columns
+		 * @throws IllegalArgumentException if {@code layout == null}
+		 */
+		public void setPageLayout(PageLayout layout) {
+			if (layout == null) {
+				throw new IllegalArgumentException();
+			}
+			this.layout = layout;
+		}
+		
+		/**
+		 * @param fingerprint the {@link DocumentFingerprint} of the document's file, which enables the
+		 * {@link PageBoxCache}, or {@code null} to neither read nor write the cache
+		 */
+		public void setFingerprint(String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+		
+		/**
+		 * @param pool copies of the document, one of which is borrowed by a lazy layout to read page
+		 * sizes in the background, or {@code null} to read every page up front
+		 */
+		public void setLayoutSource(PdfDocumentPool pool) {
+			layoutSource = pool;
+		}
+		
 		public PdfPageCoordinateManager build() {
 			return new PdfPageCoordinateManagerForPdfbox(this);
 		}
 	}
 	
-	private final List<PdfPageRectangle> pageRectangles = new ArrayList<>();
-	private final Builder builder;
+	/**
+	 * How many evenly spaced pages are read to estimate the size of the rest, in a lazy layout
+	 */
+	private static final int SAMPLE_PAGE_COUNT = 5;
+	/**
+	 * How many pages the background layout reads before handing them to the event dispatch thread
+	 */
+	private static final int BACKGROUND_LAYOUT_BATCH = 1000;
+	/**
+	 * How long changes from background layout are gathered before the pages are laid out again
+	 */
+	private static final int LAYOUT_UPDATE_DELAY_MS = 100;
+	
+	/**
+	 * Reads the real size of every page on a background thread, in page order, along with any
+	 * pages asked for out of turn. One copy of the document is borrowed for the whole walk, so 
+	 * that its page tree is only iterated once.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	private final class BackgroundLayout implements Runnable {
+		private final PdfDocumentPool source;
+		/*
+		 * written only by the background thread; each page is written once, before the 
+		 * event dispatch thread is handed it
+		 */
+		private final PageBoxCache.Entry boxes = new PageBoxCache.Entry(laidOut.length);
+		private final boolean[] read = new boolean[laidOut.length];
+		private volatile boolean cancelled = false;
+		/*
+		 * guarded by this
+		 */
+		private int requestedFirst = -1;
+		private int requestedLast = -1;
+		
+		BackgroundLayout(@NotNull PdfDocumentPool source) {
+			this.source = source;
+		}
+		
+		/**
+		 * Asks for a range of pages to be read before the next batch in page order. Ranges asked for
+		 * before the background thread gets to them are merged.
+		 */
+		synchronized void request(int firstPage, int lastPage) {
+			requestedFirst = (requestedFirst < 0) ? firstPage : Math.min(requestedFirst, firstPage);
+			requestedLast = Math.max(requestedLast, lastPage);
+		}
+		
+		void cancel() {
+			cancelled = true;
+		}
+		
+		@Override
+		public void run() {
+			final PdfRenderingContext context;
+			try {
+				context = source.borrow();
+			} catch (IOException | RuntimeException e) {
+				if (!cancelled) {
+					System.err.println("Unable to read the page sizes of pdf.");
+					e.printStackTrace();
+				}
+				return;
+			} catch (InterruptedException e) {
+				return;
+			}
+			
+			try {
+				readAllPages(context.getDocument());
+			} finally {
+				source.release(context);
+			}
+		}
+		
+		private void readAllPages(@NotNull PDDocument copy) {
+			try {
+				final Iterator<PDPage> it = copy.getPages().iterator();
+				int pageNr = 0;
+				while (pageNr < read.length && it.hasNext() && !cancelled) {
+					readRequestedPages(copy);
+					final int batchFirst = pageNr;
+					for (; pageNr < read.length && pageNr < batchFirst + BACKGROUND_LAYOUT_BATCH 
+							&& it.hasNext(); pageNr++) {
+						final PDPage page = it.next();
+						if (!read[pageNr]) {
+							readPage(pageNr, page);
+						}
+					}
+					publish(batchFirst, pageNr - 1);
+				}
+				if (!cancelled && pageNr == read.length && fingerprint != null) {
+					PageBoxCache.getInstance().write(fingerprint, boxes);
+				}
+			} catch (RuntimeException e) {
+				/*
+				 * once cancelled, the pool may have been closed under the reader
+				 */
+				if (!cancelled) {
+					System.err.println("Unable to read the page sizes of pdf.");
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		private void readRequestedPages(@NotNull PDDocument copy) {
+			final int first;
+			final int last;
+			synchronized (this) {
+				first = requestedFirst;
+				last = requestedLast;
+				requestedFirst = -1;
+				requestedLast = -1;
+			}
+			if (first < 0) {
+				return;
+			}
+			for (int pageNr = first; pageNr <= last; pageNr++) {
+				if (!read[pageNr]) {
+					readPage(pageNr, copy.getPage(pageNr));
+				}
+			}
+			publish(first, last);
+		}
+		
+		private void readPage(int pageNr, @NotNull PDPage page) {
+			final PDRectangle mediaBox = page.getMediaBox();
+			boxes.lowerLeftXs[pageNr] = mediaBox.getLowerLeftX();
+			boxes.lowerLeftYs[pageNr] = mediaBox.getLowerLeftY();
+			boxes.upperRightXs[pageNr] = mediaBox.getUpperRightX();
+			boxes.upperRightYs[pageNr] = mediaBox.getUpperRightY();
+			boxes.rotations[pageNr] = (short)normalizeRotation(page.getRotation());
+			read[pageNr] = true;
+		}
+		
+		private void publish(int firstPage, int lastPage) {
+			SwingUtilities.invokeLater(() -> {
+				if (!cancelled) {
+					applyBoxes(boxes, firstPage, lastPage);
+				}
+			});
+		}
+	}
+	
+	private final PDDocument doc;
+	private final float pageSpacing;
+	private final String fingerprint;
+	private PageLayout layout;
+	/*
+	 * Page boxes are kept as parallel arrays of primitives, indexed by page number, so that
+	 * no query needs to allocate or touch the page tree.
+	 * 
+	 * Within a row, pages are ordered from left to right, so pageLefts and pageRights 
+	 * are sorted over the pages of any one row.
+	 */
+	private final float[] pageWidths;
+	private final float[] pageHeights;
+	private final float[] pageLefts;
+	private final float[] pageRights;
+	private final float[] pageTops;
+	private final float[] pageBottoms;
+	/*
+	 * local coordinates, as given by each page's media box
+	 */
+	private final float[] localLefts;
+	private final float[] localRights;
+	private final float[] localTops;
+	private final float[] localBottoms;
+	/**
+	 * clockwise rotation of each page, in degrees
+	 */
+	private final int[] pageRotations;
+	/**
+	 * whether each page's real size has been read
+	 */
+	private final boolean[] laidOut;
+	/*
+	 * The row offset index, indexed by row number: rows are stacked downward, 
+	 * so both rowTops and rowBottoms are sorted.
+	 */
+	private float[] rowTops;
+	private float[] rowBottoms;
+	private PdfPageRectangle documentBounds;
+	
+	private final List<LayoutChangeListener> layoutListeners = new ArrayList<>();
+	private BackgroundLayout backgroundLayout = null;
+	private final Timer layoutUpdateTimer = new Timer(LAYOUT_UPDATE_DELAY_MS, (e) -> updatePendingChanges());
+	/**
+	 * first page whose real size, read in the background, has not been laid out yet, or -1 if there is none
+	 */
+	private int firstPendingChange = -1;
+	/**
+	 * first page changed since listeners were last notified, or -1 if nothing has changed
+	 */
+	private int firstUnannouncedChange = -1;
+	
+	private PdfPageCoordinateManagerForPdfbox(Builder builder) {
+		doc = builder.doc;
+		pageSpacing = builder.pageSpacing;
+		layout = builder.layout;
+		fingerprint = builder.fingerprint;
+		final int pageCount = doc.getNumberOfPages();
+		pageWidths = new float[pageCount];
+		pageHeights = new float[pageCount];
+		pageLefts = new float[pageCount];
+		pageRights = new float[pageCount];
+		pageTops = new float[pageCount];
+		pageBottoms = new float[pageCount];
+		localLefts = new float[pageCount];
+		localRights = new float[pageCount];
+		localTops = new float[pageCount];
+		localBottoms = new float[pageCount];
+		pageRotations = new int[pageCount];
+		laidOut = new boolean[pageCount];
+		rowTops = new float[layout.getRowCount(pageCount)];
+		rowBottoms = new float[rowTops.length];
+		
+		final PageBoxCache.Entry cached = (fingerprint == null) ? null 
+				: PageBoxCache.getInstance().read_rNull(fingerprint, pageCount);
+		if (cached != null) {
+			for (int pageNr = 0; pageNr < pageCount; pageNr++) {
+				setPageBox(pageNr, cached.lowerLeftXs[pageNr], cached.lowerLeftYs[pageNr], 
+						cached.upperRightXs[pageNr], cached.upperRightYs[pageNr], cached.rotations[pageNr]);
+			}
+		}
+		else if (builder.lazyLayout && builder.layoutSource != null) {
+			estimateLayout();
+			backgroundLayout = new BackgroundLayout(builder.layoutSource);
+		}
+		else {
+			/*
+			 * reading pages in order is fastest through the page tree's iterator
+			 */
+			final Iterator<PDPage> it = doc.getPages().iterator();
+			for (int pageNr = 0; it.hasNext(); pageNr++) {
+				setPageBox(pageNr, it.next());
+			}
+			writeToCache();
+		}
+		
+		updateOffsets(0);
+		layoutUpdateTimer.setRepeats(false);
+		if (backgroundLayout != null) {
+			final Thread thread = new Thread(backgroundLayout, "Background page layout");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			thread.start();
+		}
+	}
+	
+	private void setPageBox(int pageNr, PDPage page) {
+		final PDRectangle mediaBox = page.getMediaBox();
+		setPageBox(pageNr, mediaBox.getLowerLeftX(), mediaBox.getLowerLeftY(), 
+				mediaBox.getUpperRightX(), mediaBox.getUpperRightY(), normalizeRotation(page.getRotation()));
+	}
+	
+	/**
+	 * pdf files may give any multiple of 90 degrees, including negative ones
+	 * @return the rotation, from 0 to 270
+	 */
+	private static int normalizeRotation(int rotation) {
+		return ((rotation % 360) + 360) % 360;
+	}
+	
+	private void setPageBox(int pageNr, float lowerLeftX, float lowerLeftY, 
+			float upperRightX, float upperRightY, int rotation) {
+		pageWidths[pageNr] = upperRightX - lowerLeftX;
+		pageHeights[pageNr] = upperRightY - lowerLeftY;
+		localLefts[pageNr] = lowerLeftX;
+		localRights[pageNr] = upperRightX;
+		localTops[pageNr] = upperRightY;
+		localBottoms[pageNr] = lowerLeftY;
+		pageRotations[pageNr] = rotation;
+		laidOut[pageNr] = true;
+	}
+	
+	/**
+	 * Writes the box of every page to the page box cache, on the cache's background thread.
+	 * Must only be called once every page is laid out.
+	 */
+	private void writeToCache() {
+		if (fingerprint == null) {
+			return;
+		}
+		final PageBoxCache.Entry entry = new PageBoxCache.Entry(laidOut.length);
+		for (int pageNr = 0; pageNr < laidOut.length; pageNr++) {
+			entry.lowerLeftXs[pageNr] = localLefts[pageNr];
+			entry.lowerLeftYs[pageNr] = localBottoms[pageNr];
+			entry.upperRightXs[pageNr] = localRights[pageNr];
+			entry.upperRightYs[pageNr] = localTops[pageNr];
+			entry.rotations[pageNr] = (short)pageRotations[pageNr];
+		}
+		PageBoxCache.getInstance().writeLater(fingerprint, entry);
+	}
 	
-	private PdfPageCoordinateManagerForPdfbox(Builder b) {
-		builder = b;
+	/**
+	 * Reads a few sample pages, and gives every other page the median size of the samples.
+	 */
+	private void estimateLayout() {
+		final int pageCount = laidOut.length;
+		if (pageCount == 0) {
+			return;
+		}
 		
-		final Iterator<PDPage> it = builder.doc.getPages().iterator();
-		float maxY = -builder.pageSpacing;
+		final int sampleCount = Math.min(SAMPLE_PAGE_COUNT, pageCount);
+		final int[] samples = new int[sampleCount];
+		for (int i = 0; i < sampleCount; i++) {
+			samples[i] = (sampleCount == 1) ? 0 : (int)((long)i * (pageCount - 1) / (sampleCount - 1));
+			setPageBox(samples[i], doc.getPage(samples[i]));
+		}
+		
+		final int median = samples[sampleCount / 2];
+		final float[] sortedWidths = new float[sampleCount];
+		final float[] sortedHeights = new float[sampleCount];
+		for (int i = 0; i < sampleCount; i++) {
+			sortedWidths[i] = pageWidths[samples[i]];
+			sortedHeights[i] = pageHeights[samples[i]];
+		}
+		Arrays.sort(sortedWidths);
+		Arrays.sort(sortedHeights);
+		final float estimatedWidth = sortedWidths[sampleCount / 2];
+		final float estimatedHeight = sortedHeights[sampleCount / 2];
 		
-		while (it.hasNext()) {
-			final PDPage page = it.next();
-			final PDRectangle pageCoords = page.getMediaBox();
-			final float minY = maxY + builder.pageSpacing;
-			maxY = minY + pageCoords.getHeight();
-			final float minX = -0.5f * pageCoords.getWidth();
-			final float maxX = minX + pageCoords.getWidth();
+		for (int pageNr = 0; pageNr < pageCount; pageNr++) {
+			if (!laidOut[pageNr]) {
+				pageWidths[pageNr] = estimatedWidth;
+				pageHeights[pageNr] = estimatedHeight;
+				localLefts[pageNr] = localLefts[median];
+				localRights[pageNr] = localLefts[median] + estimatedWidth;
+				localBottoms[pageNr] = localBottoms[median];
+				localTops[pageNr] = localBottoms[median] + estimatedHeight;
+				pageRotations[pageNr] = pageRotations[median];
+			}
+		}
+	}
+	
+	/**
+	 * Recomputes the overall coordinates of the row containing a page and of every row after it, 
+	 * and the bounds of the document.
+	 */
+	private void updateOffsets(int firstPage) {
+		final int pageCount = laidOut.length;
+		final int rowCount = rowTops.length;
+		final int columnCount = layout.getColumnCount();
+		final int firstRow = (pageCount == 0) ? 0 : layout.getRow(firstPage);
+		float maxY = (firstRow == 0) ? -pageSpacing : rowBottoms[firstRow - 1];
+		for (int row = firstRow; row < rowCount; row++) {
+			final int rowFirstPage = layout.getFirstPageOfRow(row);
+			final int rowLastPage = layout.getLastPageOfRow(row, pageCount);
+			float rowHeight = 0;
+			float columnWidth = 0;
+			for (int pageNr = rowFirstPage; pageNr <= rowLastPage; pageNr++) {
+				rowHeight = Math.max(rowHeight, pageHeights[pageNr]);
+				columnWidth = Math.max(columnWidth, pageWidths[pageNr]);
+			}
+			final float minY = maxY + pageSpacing;
+			maxY = minY + rowHeight;
+			rowTops[row] = minY;
+			rowBottoms[row] = maxY;
 			
-			PdfPageRectangle rect = new PdfPageRectangleImpl(minX, maxX, minY, maxY);
-			pageRectangles.add(rect);
+			final float rowMinX = -0.5f * (columnCount * columnWidth + (columnCount - 1) * pageSpacing);
+			for (int pageNr = rowFirstPage; pageNr <= rowLastPage; pageNr++) {
+				final float columnMinX = rowMinX + layout.getColumn(pageNr) * (columnWidth + pageSpacing);
+				final float pageMinX = columnMinX + 0.5f * (columnWidth - pageWidths[pageNr]);
+				
+				pageLefts[pageNr] = pageMinX;
+				pageRights[pageNr] = pageMinX + pageWidths[pageNr];
+				pageTops[pageNr] = minY;
+				pageBottoms[pageNr] = minY + pageHeights[pageNr];
+			}
+		}
+		
+		float docMinX = 0;
+		float docMaxX = 0;
+		for (int pageNr = 0; pageNr < pageCount; pageNr++) {
+			docMinX = Math.min(docMinX, pageLefts[pageNr]);
+			docMaxX = Math.max(docMaxX, pageRights[pageNr]);
+		}
+		final float docMaxY = (rowCount == 0) ? 0 : rowBottoms[rowCount - 1];
+		documentBounds = new PdfPageRectangleImpl(docMinX, docMaxX, 0, docMaxY);
+	}
+	
+	@Override
+	public PageLayout getPageLayout() {
+		return layout;
+	}
+	
+	@Override
+	public void setPageLayout(PageLayout layout) {
+		if (layout == null) {
+			throw new IllegalArgumentException();
+		}
+		if (layout.equals(this.layout)) {
+			return;
+		}
+		
+		this.layout = layout;
+		rowTops = new float[layout.getRowCount(laidOut.length)];
+		rowBottoms = new float[rowTops.length];
+		updateOffsets(0);
+		announceLayoutChange(0);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Pages are never read here, since this is called while painting. Pages not laid out yet are read
+	 * out of turn by the background layout, and listeners are notified once they are laid out.
+	 * </p>
+	 */
+	@Override
+	public void ensureLaidOut(int firstPage, int lastPage) {
+		if (backgroundLayout == null) {
+			return;
+		}
+		final int first = Math.max(0, firstPage);
+		final int last = Math.min(laidOut.length - 1, lastPage);
+		for (int pageNr = first; pageNr <= last; pageNr++) {
+			if (!laidOut[pageNr]) {
+				backgroundLayout.request(first, last);
+				return;
+			}
 		}
 	}
 	
+	/**
+	 * Takes the real sizes of a range of pages read by the background layout. The pages are laid out
+	 * again a little later, together with any other sizes that arrive in the meantime.
+	 */
+	private void applyBoxes(@NotNull PageBoxCache.Entry boxes, int firstPage, int lastPage) {
+		for (int pageNr = firstPage; pageNr <= lastPage; pageNr++) {
+			if (laidOut[pageNr]) {
+				continue;
+			}
+			final float oldWidth = pageWidths[pageNr];
+			final float oldHeight = pageHeights[pageNr];
+			setPageBox(pageNr, boxes.lowerLeftXs[pageNr], boxes.lowerLeftYs[pageNr], 
+					boxes.upperRightXs[pageNr], boxes.upperRightYs[pageNr], boxes.rotations[pageNr]);
+			final boolean changed = oldWidth != pageWidths[pageNr] || oldHeight != pageHeights[pageNr];
+			if (changed && (firstPendingChange < 0 || pageNr < firstPendingChange)) {
+				firstPendingChange = pageNr;
+			}
+		}
+		if (firstPendingChange >= 0 && !layoutUpdateTimer.isRunning()) {
+			layoutUpdateTimer.start();
+		}
+	}
+	
+	private void updatePendingChanges() {
+		if (firstPendingChange < 0) {
+			return;
+		}
+		final int firstChanged = firstPendingChange;
+		firstPendingChange = -1;
+		updateOffsets(firstChanged);
+		announceLayoutChange(firstChanged);
+	}
+	
+	/**
+	 * Notifies listeners of a change, later on the event dispatch thread, since the change may have
+	 * been made in the middle of painting. Changes made before then are announced together.
+	 */
+	private void announceLayoutChange(int firstChangedPage) {
+		final boolean alreadyScheduled = firstUnannouncedChange >= 0;
+		if (!alreadyScheduled || firstChangedPage < firstUnannouncedChange) {
+			firstUnannouncedChange = firstChangedPage;
+		}
+		if (alreadyScheduled) {
+			return;
+		}
+		SwingUtilities.invokeLater(() -> {
+			final int firstChanged = firstUnannouncedChange;
+			firstUnannouncedChange = -1;
+			/*
+			 * copy in case a listener unregisters itself while being notified
+			 */
+			for (LayoutChangeListener l : new ArrayList<>(layoutListeners)) {
+				l.layoutChanged(this, firstChanged);
+			}
+		});
+	}
+	
+	@Override
+	public void addLayoutChangeListener(LayoutChangeListener l) {
+		if (l == null) {
+			throw new IllegalArgumentException();
+		}
+		if (!layoutListeners.contains(l)) {
+			layoutListeners.add(l);
+		}
+	}
+	
+	@Override
+	public void removeLayoutChangeListener(LayoutChangeListener l) {
+		layoutListeners.remove(l);
+	}
+	
+	@Override
+	public void dispose() {
+		if (backgroundLayout != null) {
+			backgroundLayout.cancel();
+		}
+		layoutUpdateTimer.stop();
+		layoutListeners.clear();
+	}
+	
 	@Override
 	public PdfPageRectangle getPageOverallCoordinates(int pageNumber) {
 		checkPageNumber(pageNumber);
 		
-		return pageRectangles.get(pageNumber);
+		return new PdfPageRectangleImpl(pageLefts[pageNumber], pageRights[pageNumber], 
+				pageTops[pageNumber], pageBottoms[pageNumber]);
 	}
 
 	private void checkPageNumber(int pageNumber) {
-		if (pageNumber < 0 || pageNumber >= builder.doc.getNumberOfPages()) {
+		if (pageNumber < 0 || pageNumber >= pageTops.length) {
 			throw new IndexOutOfBoundsException("Requested reference to non-existent page #" + pageNumber + " of pdf.");
 		}
 	}
@@ -66,23 +629,154 @@ final class PdfPageCoordinateManagerForPdfbox
 	public PdfPageRectangle getPageLocalCoordinates(int pageNumber) {
 		checkPageNumber(pageNumber);
 		
-		final PDRectangle mediaBox = builder.doc.getPage(pageNumber).getMediaBox();
-		return new PdfPageRectangleImpl(
-				mediaBox.getLowerLeftX(), mediaBox.getUpperRightX(), 
-				mediaBox.getUpperRightY(), mediaBox.getLowerLeftY());
+		return new PdfPageRectangleImpl(localLefts[pageNumber], localRights[pageNumber], 
+				localTops[pageNumber], localBottoms[pageNumber]);
 	}
 
 	@Override
 	public PdfPageRectangle getBoundsOfDocument() {
-		final float minY = 0;
-		final float maxY = pageRectangles.get(pageRectangles.size() - 1).getBottomY();
-		final float minX = (float)pageRectangles.stream().mapToDouble((rect) -> {
-			return rect.getLeftX();
-		}).min().getAsDouble();
-		final float maxX = (float)pageRectangles.stream().mapToDouble((rect) -> {
-			return rect.getRightX();
-		}).max().getAsDouble();
-		
-		return new PdfPageRectangleImpl(minX, maxX, minY, maxY);
+		return documentBounds;
+	}
+
+	@Override
+	public int getPageCount() {
+		return pageTops.length;
+	}
+
+	@Override
+	public int getPageRotation(int pageNumber) {
+		checkPageNumber(pageNumber);
+		return pageRotations[pageNumber];
+	}
+
+	@Override
+	public float getPageLeftX(int pageNumber) {
+		checkPageNumber(pageNumber);
+		return pageLefts[pageNumber];
+	}
+
+	@Override
+	public float getPageRightX(int pageNumber) {
+		checkPageNumber(pageNumber);
+		return pageRights[pageNumber];
+	}
+
+	@Override
+	public float getPageTopY(int pageNumber) {
+		checkPageNumber(pageNumber);
+		return pageTops[pageNumber];
+	}
+
+	@Override
+	public float getPageBottomY(int pageNumber) {
+		checkPageNumber(pageNumber);
+		return pageBottoms[pageNumber];
+	}
+
+	@Override
+	public int getPageAt(double y) {
+		final int row = getFirstRowEndingAtOrBelow(y);
+		if (row < rowTops.length && rowTops[row] <= y) {
+			return layout.getFirstPageOfRow(row);
+		}
+		return -1;
+	}
+
+	@Override
+	public int getFirstPageInRange(double top, double bottom) {
+		final int row = getFirstRowEndingAtOrBelow(top);
+		if (row < rowTops.length && rowTops[row] <= bottom) {
+			return layout.getFirstPageOfRow(row);
+		}
+		return -1;
+	}
+
+	@Override
+	public int getLastPageInRange(double top, double bottom) {
+		final int row = getFirstRowStartingBelow(bottom) - 1;
+		if (row >= 0 && rowBottoms[row] >= top) {
+			return layout.getLastPageOfRow(row, laidOut.length);
+		}
+		return -1;
+	}
+
+	@Override
+	public void forEachPageInRegion(Rectangle2D region, IntConsumer action) {
+		final double top = region.getMinY();
+		final double bottom = region.getMaxY();
+		final double left = region.getMinX();
+		final double right = region.getMaxX();
+		final int pageCount = laidOut.length;
+		
+		for (int row = getFirstRowEndingAtOrBelow(top); row < rowTops.length && rowTops[row] <= bottom; row++) {
+			final int rowLastPage = layout.getLastPageOfRow(row, pageCount);
+			for (int pageNr = getFirstPageEndingAtOrRightOf(left, row); 
+					pageNr <= rowLastPage && pageLefts[pageNr] <= right; pageNr++) {
+				/*
+				 * pages shorter than their row may not reach the region
+				 */
+				if (pageBottoms[pageNr] >= top) {
+					action.accept(pageNr);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Binary search of the row offset index.
+	 * @return the first row whose bottom is at or below {@code y}, or the row count if there is none
+	 */
+	private int getFirstRowEndingAtOrBelow(double y) {
+		int low = 0;
+		int high = rowBottoms.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (rowBottoms[mid] < y) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Binary search of the row offset index.
+	 * @return the first row whose top is below {@code y}, or the row count if there is none
+	 */
+	private int getFirstRowStartingBelow(double y) {
+		int low = 0;
+		int high = rowTops.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (rowTops[mid] <= y) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Binary search of the pages of a row.
+	 * @return the first page of the row whose right edge is at or right of {@code x}, 
+	 * or the page after the row if there is none
+	 */
+	private int getFirstPageEndingAtOrRightOf(double x, int row) {
+		int low = layout.getFirstPageOfRow(row);
+		int high = layout.getLastPageOfRow(row, laidOut.length) + 1;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (pageRights[mid] < x) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
 	}
 }
@@ -11,9 +11,45 @@ import com.sun.istack.internal.NotNull;
  *
  */
 public interface PdfRenderer {
+	/**
+	 * A listener that is notified when a renderer finishes rendering a portion
+	 * of the pdf in the background.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	static interface RegionRenderedListener {
+		/**
+		 * Called on the event dispatch thread when a portion of the pdf that was
+		 * previously painted as a placeholder is ready to be painted.
+		 * @param renderer the renderer that finished rendering
+		 * @param bounds the newly rendered region, in the same coordinates as
+		 * {@link PdfRenderer#renderVisiblePortion(Graphics, Rectangle2D)}
+		 */
+		void regionRendered(@NotNull PdfRenderer renderer, @NotNull Rectangle2D bounds);
+	}
+	
+	/**
+	 * How carefully pages are rendered.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	static enum RenderQuality {
+		/**
+		 * Fast but rough: no antialiasing, nearest-neighbor image scaling, and images may be subsampled.
+		 * Meant for use while the view is moving.
+		 */
+		DRAFT,
+		/**
+		 * The best quality the renderer can produce.
+		 */
+		FULL
+	}
+	
 	/**
 	 * Renders the visible portion of a pdf to the supplied graphics context according
-	 * to the supplied bounds object's limits.
+	 * to the supplied bounds object's limits. Only the part of the bounds within the clip of the
+	 * graphics context is painted, so callers that only need to refresh part of the view should
+	 * clip to that part, but still pass the entire visible portion.
 	 * @param g The graphics context to draw on
 	 * @param bounds The visible portion in which the pdf should be drawn.
 	 */
@@ -24,4 +60,34 @@ public interface PdfRenderer {
 	 * @return
 	 */
 	PdfPageCoordinateManager getCoordinateManager();
+	/**
+	 * Registers a listener for background render completion.
+	 * @param l Listener to be registered. May not be {@code null}. 
+	 * If the listener has already been registered, it will be ignored.
+	 * @throws IllegalArgumentException if {@code l == null}.
+	 */
+	void addRegionRenderedListener(@NotNull RegionRenderedListener l);
+	/**
+	 * Unregisters a listener for background render completion.
+	 * @param l Listener to be unregistered. If the supplied listener has not been
+	 * registered, or if it is {@code null}, nothing happens.
+	 */
+	void removeRegionRenderedListener(RegionRenderedListener l);
+	/**
+	 * Changes the quality at which pages are rendered from now on. Regions already rendered at a lower
+	 * quality continue to be painted until they have been rendered again at the new quality.
+	 * The default is {@link RenderQuality#FULL}.
+	 * @param quality the new render quality
+	 * @throws IllegalArgumentException if {@code quality == null}.
+	 */
+	void setRenderQuality(@NotNull RenderQuality quality);
+	/**
+	 * @return the quality at which pages are currently rendered
+	 */
+	RenderQuality getRenderQuality();
+	/**
+	 * Releases any resources held by this renderer, such as background threads. 
+	 * The renderer must not be used afterwards.
+	 */
+	void dispose();
 }
@@ -2,38 +2,231 @@ package com.github.kjburns.pdfmarker;
 
 import java.awt.Graphics2D;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.PDFRenderer;
 
 import com.sun.istack.internal.NotNull;
 
 /**
  * A PdfBox-specific pdf renderer.
+ * <p>
+ * Pages are rendered from a {@link PdfDocumentPool}, so several pages can be rendered in parallel,
+ * each from its own copy of the document, and the document itself is never used off the event dispatch thread.
+ * Each copy has a single {@link PdfRenderingContext} that is reused for every page rendered from it,
+ * and released when this renderer is disposed as the document is unloaded.
+ * </p>
+ * <p>
+ * Unless display lists are disabled, the first render of a page also records it as a
+ * {@link PageDisplayList}. Later renders of the page, whether of other tiles or at other zoom levels,
+ * replay the display list instead of reading the page's content stream again. A page is only recorded
+ * once at a time; tiles of the page that are rendered meanwhile wait for the recording. Pages that cannot
+ * be recorded faithfully are always rendered directly. Display lists are always recorded at full quality,
+ * and are replayed with cheaper rendering hints when a draft is requested.
+ * </p>
  * @author Kevin J. Burns, P.E.
  *
  */
 final class PdfRendererForPdfbox extends AbstractPdfRenderer {
+	/**
+	 * Something to do with a borrowed rendering context
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	private static interface RenderingContextJob {
+		void run(@NotNull PdfRenderingContext context) throws IOException;
+	}
+
+	/**
+	 * Documents with more pages than this are laid out lazily
+	 */
+	private static final int LAZY_LAYOUT_PAGE_COUNT = 1000;
+	private static final long DEFAULT_DISPLAY_LIST_BYTE_BUDGET =
+			Math.min(64L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 16);
+
 	private final PDDocument document;
 	private final PdfPageCoordinateManager coordManager;
+	/**
+	 * identifies the content of the source file, or {@code null} if it is not known
+	 */
+	private final String fingerprint;
+	private final PdfDocumentPool documentPool;
+	private final PageDisplayListCache displayLists = new PageDisplayListCache(DEFAULT_DISPLAY_LIST_BYTE_BUDGET);
+	/**
+	 * pages that are always rendered directly, because they were found to draw something a display list
+	 * cannot reproduce, or because their display list is too large to keep
+	 */
+	private final Set<Integer> directPages = Collections.newSetFromMap(new ConcurrentHashMap<>());
+	private final InFlightWork<Integer, PageDisplayList> recordings = new InFlightWork<>();
+	private volatile boolean displayListsEnabled = true;
 
-	public PdfRendererForPdfbox(@NotNull PDDocument doc) {
+	/**
+	 * @param doc the document to render
+	 * @param source where {@code doc} was loaded from, or {@code null} if it is not known.
+	 * Pages are only rendered in parallel if this is known.
+	 */
+	public PdfRendererForPdfbox(@NotNull PDDocument doc, DocumentSource source) {
+		this(doc, source, PageLayout.SINGLE_COLUMN);
+	}
+
+	/**
+	 * @param doc the document to render
+	 * @param source where {@code doc} was loaded from, or {@code null} if it is not known.
+	 * Pages are only rendered in parallel if this is known.
+	 * @param layout the initial arrangement of pages into rows and columns
+	 */
+	public PdfRendererForPdfbox(@NotNull PDDocument doc, DocumentSource source, @NotNull PageLayout layout) {
 		document = doc;
+		documentPool = new PdfDocumentPool(doc, source);
 		final PdfPageCoordinateManagerForPdfbox.Builder builder = new PdfPageCoordinateManagerForPdfbox.Builder(document);
+		builder.setLazyLayout(document.getNumberOfPages() > LAZY_LAYOUT_PAGE_COUNT);
+		builder.setPageLayout(layout);
+		fingerprint = (source == null) ? null : source.getFingerprint_rNull();
+		builder.setFingerprint(fingerprint);
+		builder.setLayoutSource(documentPool);
 		coordManager = builder.build();
 	}
 	
+	/**
+	 * Turns the recording and replaying of page display lists on or off. When off, every render
+	 * reads the page's content stream. Tiles that have already been rendered are not affected.
+	 * @param enabled whether display lists should be used
+	 */
+	public void setDisplayListsEnabled(boolean enabled) {
+		displayListsEnabled = enabled;
+		if (!enabled) {
+			displayLists.clear();
+		}
+	}
+
+	public boolean isDisplayListsEnabled() {
+		return displayListsEnabled;
+	}
+
+	/**
+	 * Changes the estimated number of bytes of page display lists kept in memory.
+	 * @param byteBudget the new budget, in bytes
+	 * @throws IllegalArgumentException if {@code byteBudget} is negative
+	 */
+	public void setDisplayListByteBudget(long byteBudget) {
+		displayLists.setByteBudget(byteBudget);
+	}
+
+	@Override
+	protected void renderPage(final Graphics2D g2d, int pageNr, RenderQuality quality) {
+		if (usesDisplayList(pageNr)) {
+			PageDisplayList displayList = displayLists.get(pageNr);
+			if (displayList == null) {
+				displayList = recordings.get(pageNr, () -> record_rNull(pageNr));
+			}
+			if (displayList != null) {
+				displayList.replay(g2d, quality);
+				return;
+			}
+			/*
+			 * either the recording failed, which has already been reported, or the page cannot be recorded
+			 */
+			if (!directPages.contains(pageNr)) {
+				return;
+			}
+		}
+
+		renderWithContext(pageNr, (context) -> context.renderPage(g2d, pageNr, quality));
+	}
+
+	private boolean usesDisplayList(int pageNr) {
+		return displayListsEnabled && !directPages.contains(pageNr);
+	}
+
+	/**
+	 * Records a page's display list and caches it, unless another thread did so in the meantime.
+	 * @return the display list, or {@code null} if the page could not be read or cannot be recorded faithfully.
+	 * A display list too large to keep is returned, but is not cached.
+	 */
+	private PageDisplayList record_rNull(int pageNr) {
+		final PageDisplayList cached = displayLists.get(pageNr);
+		if (cached != null) {
+			return cached;
+		}
+
+		final PageDisplayList.Recorder recorder = PageDisplayList.startRecording();
+		try {
+			if (!renderWithContext(pageNr, (context) -> context.renderPage(recorder, pageNr, RenderQuality.FULL))) {
+				return null;
+			}
+		} finally {
+			recorder.dispose();
+		}
+		final PageDisplayList ret = recorder.finish_rNull();
+		if (ret == null || !displayLists.put(pageNr, ret)) {
+			directPages.add(pageNr);
+		}
+		return ret;
+	}
+
+	/**
+	 * Pages are interpreted in full for every tile unless a display list is replayed instead.
+	 */
 	@Override
-	protected void renderPage(final Graphics2D g2d, int pageNr) {
-		PDFRenderer r = new PDFRenderer(document);
+	protected boolean rendersWholePageForEachTile(int pageNr) {
+		return !usesDisplayList(pageNr);
+	}
+
+	/**
+	 * Borrows a rendering context from the pool for the duration of a job.
+	 * @param pageNr the page the job renders, for error reporting
+	 * @param job the job
+	 * @return {@code true} if the job completed
+	 */
+	private boolean renderWithContext(int pageNr, @NotNull RenderingContextJob job) {
+		final PdfRenderingContext context;
 		try {
-			r.renderPageToGraphics(pageNr, g2d);
+			context = documentPool.borrow();
+		} catch (IOException e) {
+			System.err.println("Unable to render page #" + pageNr + " because the pdf could not be reloaded");
+			e.printStackTrace();
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		
+		try {
+			job.run(context);
+			return true;
 		} catch (IOException e) {
 			System.err.println("Unable to render page #" + pageNr + " due to an IOException");
 			e.printStackTrace();
+			return false;
+		} finally {
+			documentPool.release(context);
 		}
 	}
 
+	@Override
+	protected int getRenderThreadCount() {
+		return documentPool.getCapacity();
+	}
+
+	@Override
+	protected String getDocumentFingerprint_rNull() {
+		return fingerprint;
+	}
+
+	@Override
+	public void dispose() {
+		super.dispose();
+		coordManager.dispose();
+	}
+
+	@Override
+	protected void releaseRenderResources() {
+		documentPool.close();
+		displayLists.clear();
+	}
+
 	@Override
 	protected final int getPageCount() {
 		return document.getNumberOfPages();
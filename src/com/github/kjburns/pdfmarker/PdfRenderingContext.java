@@ -0,0 +1,93 @@
+package com.github.kjburns.pdfmarker;
+
+import java.awt.Graphics2D;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import org.apache.pdfbox.contentstream.operator.Operator;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.PageDrawer;
+import org.apache.pdfbox.rendering.PageDrawerParameters;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Everything needed to render the pages of a single loaded PdfBox document, kept for as long
+ * as the document stays loaded.
+ * <p>
+ * A single {@link PDFRenderer} is created with the context and reused for every page, so that
+ * its settings persist between paints. Fonts, color spaces and decoded images are held by the
+ * document's resource cache, which likewise lives as long as the document, and are shared by
+ * every page rendered through this context.
+ * </p>
+ * <p>
+ * Like the document itself, a context must only be used by one thread at a time.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class PdfRenderingContext {
+	/**
+	 * A PdfBox renderer whose page drawing stops as soon as the render job is cancelled.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	private static final class CancellablePdfRenderer extends PDFRenderer {
+		public CancellablePdfRenderer(@NotNull PDDocument document) {
+			super(document);
+		}
+
+		@Override
+		protected PageDrawer createPageDrawer(PageDrawerParameters parameters) throws IOException {
+			return new CancellablePageDrawer(parameters);
+		}
+	}
+
+	/**
+	 * A PdfBox page drawer that checks for cancellation before each content stream operator.
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	private static final class CancellablePageDrawer extends PageDrawer {
+		public CancellablePageDrawer(PageDrawerParameters parameters) throws IOException {
+			super(parameters);
+		}
+
+		@Override
+		protected void processOperator(Operator operator, List<COSBase> operands) throws IOException {
+			if (PageRenderScheduler.isCurrentRenderCancelled()) {
+				throw new CancellationException();
+			}
+			super.processOperator(operator, operands);
+		}
+	}
+
+	private final PDDocument document;
+	private final PDFRenderer renderer;
+
+	public PdfRenderingContext(@NotNull PDDocument document) {
+		this.document = document;
+		renderer = new CancellablePdfRenderer(document);
+	}
+
+	public PDDocument getDocument() {
+		return document;
+	}
+
+	/**
+	 * Renders a single page. The upper left corner of the page is placed at (0, 0) in the provided graphics context.
+	 * @param g2d the graphics context to draw on
+	 * @param pageNr the zero-based page number of the pdf to render
+	 * @param quality how carefully to render the page. At draft quality, images may be subsampled.
+	 * @throws IOException if the page could not be read
+	 * @throws CancellationException if the render job running on this thread is cancelled partway through
+	 */
+	public void renderPage(@NotNull Graphics2D g2d, int pageNr, @NotNull PdfRenderer.RenderQuality quality) 
+			throws IOException {
+		renderer.setSubsamplingAllowed(quality == PdfRenderer.RenderQuality.DRAFT);
+		renderer.renderPageToGraphics(pageNr, g2d);
+	}
+}
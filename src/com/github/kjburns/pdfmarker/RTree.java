@@ -0,0 +1,468 @@
+package com.github.kjburns.pdfmarker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * A spatial index of items with rectangular bounds, answering which items intersect a region
+ * in time logarithmic in the number of items, plus the number found.
+ * <p>
+ * This is Guttman's R-tree with the linear split. Each node holds between {@link #MIN_ENTRIES}
+ * and {@link #MAX_ENTRIES} entries, except the root. Entry bounds are kept in parallel arrays
+ * of primitives in each node, and the stack of nodes still to visit is kept from one search to the next,
+ * so searching does not allocate.
+ * </p>
+ * <p>
+ * Items are {@code int}s, such as the slots of a {@link MarkStore}, and are kept in primitive arrays too,
+ * so indexing an item costs no object of its own. An item's bounds must be given again to remove it.
+ * This class is not thread-safe.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class RTree {
+	private static final int MAX_ENTRIES = 16;
+	private static final int MIN_ENTRIES = 6;
+
+	private static final class Node {
+		final boolean leaf;
+		/*
+		 * one extra slot, so a node may overflow briefly before it is split
+		 */
+		final float[] minXs = new float[MAX_ENTRIES + 1];
+		final float[] minYs = new float[MAX_ENTRIES + 1];
+		final float[] maxXs = new float[MAX_ENTRIES + 1];
+		final float[] maxYs = new float[MAX_ENTRIES + 1];
+		/**
+		 * child nodes, or {@code null} if this is a leaf
+		 */
+		final Node[] children;
+		/**
+		 * items, or {@code null} if this is not a leaf
+		 */
+		final int[] items;
+		int count = 0;
+		Node parent = null;
+
+		Node(boolean leaf) {
+			this.leaf = leaf;
+			children = leaf ? null : new Node[MAX_ENTRIES + 1];
+			items = leaf ? new int[MAX_ENTRIES + 1] : null;
+		}
+
+		void add(float minX, float minY, float maxX, float maxY, @NotNull Node child) {
+			children[count] = child;
+			child.parent = this;
+			addBounds(minX, minY, maxX, maxY);
+		}
+
+		void add(float minX, float minY, float maxX, float maxY, int item) {
+			items[count] = item;
+			addBounds(minX, minY, maxX, maxY);
+		}
+
+		private void addBounds(float minX, float minY, float maxX, float maxY) {
+			minXs[count] = minX;
+			minYs[count] = minY;
+			maxXs[count] = maxX;
+			maxYs[count] = maxY;
+			count++;
+		}
+
+		void removeAt(int index) {
+			count--;
+			minXs[index] = minXs[count];
+			minYs[index] = minYs[count];
+			maxXs[index] = maxXs[count];
+			maxYs[index] = maxYs[count];
+			if (leaf) {
+				items[index] = items[count];
+			}
+			else {
+				children[index] = children[count];
+				children[count] = null;
+			}
+		}
+
+		int indexOf(@NotNull Node child) {
+			for (int i = 0; i < count; i++) {
+				if (children[i] == child) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		int indexOfItem(int item) {
+			for (int i = 0; i < count; i++) {
+				if (items[i] == item) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		float getMinX() {
+			float ret = Float.POSITIVE_INFINITY;
+			for (int i = 0; i < count; i++) {
+				ret = Math.min(ret, minXs[i]);
+			}
+			return ret;
+		}
+
+		float getMinY() {
+			float ret = Float.POSITIVE_INFINITY;
+			for (int i = 0; i < count; i++) {
+				ret = Math.min(ret, minYs[i]);
+			}
+			return ret;
+		}
+
+		float getMaxX() {
+			float ret = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < count; i++) {
+				ret = Math.max(ret, maxXs[i]);
+			}
+			return ret;
+		}
+
+		float getMaxY() {
+			float ret = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < count; i++) {
+				ret = Math.max(ret, maxYs[i]);
+			}
+			return ret;
+		}
+	}
+
+	private Node root = new Node(true);
+	private int size = 0;
+	/*
+	 * kept between searches so that searching does not allocate; null while a search is using it
+	 */
+	private Node[] searchStack = new Node[4 * MAX_ENTRIES];
+
+	/**
+	 * @return the number of items in the index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds an item to the index.
+	 * @param minX left edge of the item's bounds
+	 * @param minY top edge of the item's bounds
+	 * @param maxX right edge of the item's bounds
+	 * @param maxY bottom edge of the item's bounds
+	 * @param item the item
+	 */
+	public void insert(float minX, float minY, float maxX, float maxY, int item) {
+		final Node leaf = chooseLeaf(minX, minY, maxX, maxY);
+		leaf.add(minX, minY, maxX, maxY, item);
+		adjustTree(leaf);
+		size++;
+	}
+
+	/**
+	 * Removes an item from the index.
+	 * @param minX left edge of the bounds the item was inserted with
+	 * @param minY top edge of the bounds the item was inserted with
+	 * @param maxX right edge of the bounds the item was inserted with
+	 * @param maxY bottom edge of the bounds the item was inserted with
+	 * @param item the item
+	 * @return {@code true} if the item was found and removed
+	 */
+	public boolean remove(float minX, float minY, float maxX, float maxY, int item) {
+		final Node leaf = findLeaf(root, minX, minY, maxX, maxY, item);
+		if (leaf == null) {
+			return false;
+		}
+		leaf.removeAt(leaf.indexOfItem(item));
+		size--;
+		condenseTree(leaf);
+		return true;
+	}
+
+	/**
+	 * Visits every item whose bounds intersect a region. Bounds that only touch the region count as intersecting.
+	 * The index must not be changed while it is being searched.
+	 * @param minX left edge of the region
+	 * @param minY top edge of the region
+	 * @param maxX right edge of the region
+	 * @param maxY bottom edge of the region
+	 * @param action called with each item found
+	 */
+	public void search(double minX, double minY, double maxX, double maxY, @NotNull IntConsumer action) {
+		/*
+		 * a search started from within action gets a stack of its own
+		 */
+		Node[] stack = (searchStack != null) ? searchStack : new Node[4 * MAX_ENTRIES];
+		searchStack = null;
+		int depth = 0;
+		stack[depth++] = root;
+		try {
+			while (depth > 0) {
+				final Node node = stack[--depth];
+				stack[depth] = null;
+				for (int i = 0; i < node.count; i++) {
+					if (node.minXs[i] > maxX || node.maxXs[i] < minX || node.minYs[i] > maxY || node.maxYs[i] < minY) {
+						continue;
+					}
+					if (node.leaf) {
+						action.accept(node.items[i]);
+					}
+					else {
+						if (depth == stack.length) {
+							stack = Arrays.copyOf(stack, stack.length * 2);
+						}
+						stack[depth++] = node.children[i];
+					}
+				}
+			}
+		} finally {
+			Arrays.fill(stack, 0, depth, null);
+			searchStack = stack;
+		}
+	}
+
+	/**
+	 * Removes every item from the index.
+	 */
+	public void clear() {
+		root = new Node(true);
+		size = 0;
+	}
+
+	private static float getEnlargement(@NotNull Node node, int index,
+			float minX, float minY, float maxX, float maxY) {
+		final float area = (node.maxXs[index] - node.minXs[index]) * (node.maxYs[index] - node.minYs[index]);
+		final float enlarged = (Math.max(node.maxXs[index], maxX) - Math.min(node.minXs[index], minX))
+				* (Math.max(node.maxYs[index], maxY) - Math.min(node.minYs[index], minY));
+		return enlarged - area;
+	}
+
+	/**
+	 * Descends from the root to the leaf whose bounds need the least enlargement to include some bounds.
+	 */
+	private Node chooseLeaf(float minX, float minY, float maxX, float maxY) {
+		Node node = root;
+		while (!node.leaf) {
+			int best = 0;
+			float bestEnlargement = Float.POSITIVE_INFINITY;
+			float bestArea = Float.POSITIVE_INFINITY;
+			for (int i = 0; i < node.count; i++) {
+				final float enlargement = getEnlargement(node, i, minX, minY, maxX, maxY);
+				final float area = (node.maxXs[i] - node.minXs[i]) * (node.maxYs[i] - node.minYs[i]);
+				if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+					best = i;
+					bestEnlargement = enlargement;
+					bestArea = area;
+				}
+			}
+			node = node.children[best];
+		}
+		return node;
+	}
+
+	/**
+	 * After an entry is added to a node, splits nodes as needed and adjusts bounds up to the root.
+	 */
+	private void adjustTree(@NotNull Node node) {
+		Node current = node;
+		while (current != null) {
+			Node sibling = null;
+			if (current.count > MAX_ENTRIES) {
+				sibling = split(current);
+			}
+			final Node parent = current.parent;
+			if (parent == null) {
+				if (sibling != null) {
+					root = new Node(false);
+					root.add(current.getMinX(), current.getMinY(), current.getMaxX(), current.getMaxY(), current);
+					root.add(sibling.getMinX(), sibling.getMinY(), sibling.getMaxX(), sibling.getMaxY(), sibling);
+				}
+				return;
+			}
+			updateEntryBounds(parent, current);
+			if (sibling != null) {
+				parent.add(sibling.getMinX(), sibling.getMinY(), sibling.getMaxX(), sibling.getMaxY(), sibling);
+			}
+			current = parent;
+		}
+	}
+
+	private static void updateEntryBounds(@NotNull Node parent, @NotNull Node child) {
+		final int index = parent.indexOf(child);
+		parent.minXs[index] = child.getMinX();
+		parent.minYs[index] = child.getMinY();
+		parent.maxXs[index] = child.getMaxX();
+		parent.maxYs[index] = child.getMaxY();
+	}
+
+	/**
+	 * Splits an overflowing node in two by the linear method, leaving one group in the node.
+	 * @return a new node holding the other group
+	 */
+	private static Node split(@NotNull Node node) {
+		final int total = node.count;
+		final float[] minXs = node.minXs.clone();
+		final float[] minYs = node.minYs.clone();
+		final float[] maxXs = node.maxXs.clone();
+		final float[] maxYs = node.maxYs.clone();
+		final Node[] children = node.leaf ? null : node.children.clone();
+		final int[] items = node.leaf ? node.items.clone() : null;
+
+		/*
+		 * seeds: the pair of entries farthest apart along either axis, relative to the spread of that axis
+		 */
+		int seedA = 0;
+		int seedB = 1;
+		float bestSeparation = Float.NEGATIVE_INFINITY;
+		for (int axis = 0; axis < 2; axis++) {
+			final float[] lows = (axis == 0) ? minXs : minYs;
+			final float[] highs = (axis == 0) ? maxXs : maxYs;
+			int highestLow = 0;
+			int lowestHigh = 0;
+			float spreadMin = Float.POSITIVE_INFINITY;
+			float spreadMax = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < total; i++) {
+				if (lows[i] > lows[highestLow]) {
+					highestLow = i;
+				}
+				if (highs[i] < highs[lowestHigh]) {
+					lowestHigh = i;
+				}
+				spreadMin = Math.min(spreadMin, lows[i]);
+				spreadMax = Math.max(spreadMax, highs[i]);
+			}
+			final float spread = Math.max(spreadMax - spreadMin, Float.MIN_NORMAL);
+			final float separation = (lows[highestLow] - highs[lowestHigh]) / spread;
+			if (highestLow != lowestHigh && separation > bestSeparation) {
+				bestSeparation = separation;
+				seedA = lowestHigh;
+				seedB = highestLow;
+			}
+		}
+
+		final Node ret = new Node(node.leaf);
+		ret.parent = node.parent;
+		node.count = 0;
+		if (!node.leaf) {
+			Arrays.fill(node.children, null);
+		}
+		addEntry(node, minXs, minYs, maxXs, maxYs, children, items, seedA);
+		addEntry(ret, minXs, minYs, maxXs, maxYs, children, items, seedB);
+
+		int remaining = total - 2;
+		for (int i = 0; i < total; i++) {
+			if (i == seedA || i == seedB) {
+				continue;
+			}
+			final Node target;
+			if (node.count + remaining == MIN_ENTRIES) {
+				target = node;
+			}
+			else if (ret.count + remaining == MIN_ENTRIES) {
+				target = ret;
+			}
+			else {
+				final float growNode = getGroupEnlargement(node, minXs[i], minYs[i], maxXs[i], maxYs[i]);
+				final float growRet = getGroupEnlargement(ret, minXs[i], minYs[i], maxXs[i], maxYs[i]);
+				target = (growNode < growRet || (growNode == growRet && node.count <= ret.count)) ? node : ret;
+			}
+			addEntry(target, minXs, minYs, maxXs, maxYs, children, items, i);
+			remaining--;
+		}
+		return ret;
+	}
+
+	private static void addEntry(@NotNull Node target, @NotNull float[] minXs, @NotNull float[] minYs,
+			@NotNull float[] maxXs, @NotNull float[] maxYs, Node[] children, int[] items, int index) {
+		if (target.leaf) {
+			target.add(minXs[index], minYs[index], maxXs[index], maxYs[index], items[index]);
+		}
+		else {
+			target.add(minXs[index], minYs[index], maxXs[index], maxYs[index], children[index]);
+		}
+	}
+
+	private static float getGroupEnlargement(@NotNull Node group, float minX, float minY, float maxX, float maxY) {
+		final float groupMinX = group.getMinX();
+		final float groupMinY = group.getMinY();
+		final float groupMaxX = group.getMaxX();
+		final float groupMaxY = group.getMaxY();
+		final float area = (groupMaxX - groupMinX) * (groupMaxY - groupMinY);
+		final float enlarged = (Math.max(groupMaxX, maxX) - Math.min(groupMinX, minX))
+				* (Math.max(groupMaxY, maxY) - Math.min(groupMinY, minY));
+		return enlarged - area;
+	}
+
+	private Node findLeaf(@NotNull Node node, float minX, float minY, float maxX, float maxY, int item) {
+		for (int i = 0; i < node.count; i++) {
+			if (node.minXs[i] > minX || node.maxXs[i] < maxX || node.minYs[i] > minY || node.maxYs[i] < maxY) {
+				continue;
+			}
+			if (node.leaf) {
+				if (node.items[i] == item) {
+					return node;
+				}
+			}
+			else {
+				final Node ret = findLeaf(node.children[i], minX, minY, maxX, maxY, item);
+				if (ret != null) {
+					return ret;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * After an entry is removed from a leaf, removes any underfull nodes on the way to the root,
+	 * reinserting their items, and tightens the bounds of the rest.
+	 */
+	private void condenseTree(@NotNull Node leaf) {
+		final List<Node> orphans = new ArrayList<>();
+		Node node = leaf;
+		while (node.parent != null) {
+			final Node parent = node.parent;
+			if (node.count < MIN_ENTRIES) {
+				parent.removeAt(parent.indexOf(node));
+				orphans.add(node);
+			}
+			else {
+				updateEntryBounds(parent, node);
+			}
+			node = parent;
+		}
+		if (!root.leaf && root.count == 1) {
+			root = root.children[0];
+			root.parent = null;
+		}
+		else if (!root.leaf && root.count == 0) {
+			root = new Node(true);
+		}
+
+		for (Node orphan : orphans) {
+			reinsertItems(orphan);
+		}
+	}
+
+	private void reinsertItems(@NotNull Node node) {
+		for (int i = 0; i < node.count; i++) {
+			if (node.leaf) {
+				final Node leaf = chooseLeaf(node.minXs[i], node.minYs[i], node.maxXs[i], node.maxYs[i]);
+				leaf.add(node.minXs[i], node.minYs[i], node.maxXs[i], node.maxYs[i], node.items[i]);
+				adjustTree(leaf);
+			}
+			else {
+				reinsertItems(node.children[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.github.kjburns.pdfmarker;
+
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.prefs.Preferences;
+
+import javax.swing.AbstractAction;
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * Action for saving the marks made on the active document from the main window.
+ * The first save asks where to save. From then on every change is recorded in the file's journal
+ * as it is made, so later saves only make sure the changes are on disk.
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class SaveMarkupAction extends AbstractAction 
+		implements FilenameFilters {
+	private static final long serialVersionUID = -5106286471207312390L;
+	
+	private final HasMarkupModel markupContainer;
+	
+	public SaveMarkupAction(@NotNull HasMarkupModel markupContainer) {
+		this.markupContainer = markupContainer;
+		
+		putValue(SHORT_DESCRIPTION, "Save markup");
+		putValue(NAME, "save");
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent ev) {
+		if (markupContainer.getMarkupModel_rNull() == null) {
+			JOptionPane.showMessageDialog(null, "Open a pdf before saving markup.");
+			return;
+		}
+		
+		File markupFile = markupContainer.getMarkupFile_rNull();
+		if (markupFile == null) {
+			markupFile = chooseFile_rNull();
+			if (markupFile == null) {
+				return;
+			}
+		}
+		
+		try {
+			markupContainer.saveMarkup(markupFile);
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(null, "Could not save markup to " + markupFile.getName() + ".");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Asks the user where to save.
+	 * @return the chosen file, with the markup file extension, or {@code null} if the user cancelled
+	 */
+	private File chooseFile_rNull() {
+		final Preferences prefs = Preferences.userNodeForPackage(getClass());
+		final String lastFolder = prefs.get(OpenFileAction.MOST_RECENT_FOLDER_KEY, System.getProperty("user.home"));
+		
+		final JFileChooser chooser = new JFileChooser(new File(lastFolder));
+		chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+		chooser.setMultiSelectionEnabled(false);
+		chooser.setAcceptAllFileFilterUsed(false);
+		chooser.addChoosableFileFilter(MARKUP_FILE_FILTER);
+		if (chooser.showSaveDialog(null) != JFileChooser.APPROVE_OPTION) {
+			return null;
+		}
+		
+		File ret = chooser.getSelectedFile();
+		if (!ret.getName().endsWith("." + MARKUP_FILE_EXTENSION)) {
+			ret = new File(ret.getParentFile(), ret.getName() + "." + MARKUP_FILE_EXTENSION);
+		}
+		if (ret.exists()) {
+			final int choice = JOptionPane.showConfirmDialog(null, ret.getName() + " already exists. Replace it?", 
+					"Pdf Marker", JOptionPane.YES_NO_OPTION);
+			if (choice != JOptionPane.YES_OPTION) {
+				return null;
+			}
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,448 @@
+package com.github.kjburns.pdfmarker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.ResourceCache;
+import org.apache.pdfbox.pdmodel.common.PDStream;
+import org.apache.pdfbox.pdmodel.documentinterchange.markedcontent.PDPropertyList;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.color.PDColorSpace;
+import org.apache.pdfbox.pdmodel.graphics.color.PDICCBased;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.pdmodel.graphics.pattern.PDAbstractPattern;
+import org.apache.pdfbox.pdmodel.graphics.shading.PDShading;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+
+import com.sun.istack.internal.NotNull;
+
+/**
+ * A cache of PdfBox page resources (fonts, color spaces, images and the like) shared by every
+ * document the application has open, and bounded by an estimate of the memory those resources use.
+ * When the budget is exceeded, the least recently used resources are evicted first.
+ * <p>
+ * PdfBox looks up resources in the {@link ResourceCache} installed on each document. Each document
+ * gets its own view of this cache through {@link #installOn(PDDocument)}, which tags its entries
+ * so they can be dropped with {@link #release(PDDocument)} when the document is closed.
+ * </p>
+ * <p>
+ * Keeping an image XObject in the cache keeps alive the decoded raster that PdfBox attaches to it,
+ * so that repeat renders of a page do not decode the image again.
+ * </p>
+ * <p>
+ * Entries are keyed by the identity of the file a document was loaded from together with the object
+ * and generation numbers of the resource, so every rendering copy of a file in a {@link PdfDocumentPool}
+ * finds the resources that any of the copies has already decoded. A PdfBox resource reads its stream data
+ * through the buffers of the document that loaded it, which are not safe to use from two threads at once,
+ * so a copy that finds a resource leases it until {@link #endLeases(PDDocument)} is called at the end of
+ * its render job. A copy that needs a resource leased by another loads its own for the rest of its job.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class SharedResourceCache {
+	/**
+	 * Identifies a resource independently of the loaded copy of the document it was found in
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	private static final class ResourceKey {
+		private final Object sourceIdentity;
+		private final long objectNr;
+		private final int generationNr;
+
+		public ResourceKey(Object sourceIdentity, COSObject indirect) {
+			this.sourceIdentity = sourceIdentity;
+			this.objectNr = indirect.getObjectNumber();
+			this.generationNr = indirect.getGenerationNumber();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ResourceKey)) {
+				return false;
+			}
+			final ResourceKey other = (ResourceKey)obj;
+			return objectNr == other.objectNr && generationNr == other.generationNr
+					&& sourceIdentity.equals(other.sourceIdentity);
+		}
+
+		@Override
+		public int hashCode() {
+			return (Long.hashCode(objectNr) * 31 + generationNr) * 31 + sourceIdentity.hashCode();
+		}
+	}
+
+	private static final class Entry {
+		private final PDDocument owner;
+		private final Object resource;
+		private final long size;
+		/*
+		 * the document whose render job is using the resource, if any
+		 */
+		private PDDocument lessee = null;
+
+		public Entry(PDDocument owner, Object resource, long size) {
+			this.owner = owner;
+			this.resource = resource;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * The view of the shared cache installed on a single document
+	 * @author Kevin J. Burns, P.E.
+	 *
+	 */
+	private final class DocumentView implements ResourceCache {
+		private final PDDocument owner;
+		private final Object sourceIdentity;
+		/*
+		 * guarded by the enclosing cache
+		 */
+		private final List<Entry> leases = new ArrayList<>();
+		private final Map<ResourceKey, Object> unshared = new HashMap<>();
+
+		public DocumentView(PDDocument owner, Object sourceIdentity) {
+			this.owner = owner;
+			this.sourceIdentity = sourceIdentity;
+		}
+
+		@Override
+		public PDFont getFont(COSObject indirect) throws IOException {
+			return get(this, indirect, PDFont.class);
+		}
+
+		@Override
+		public PDColorSpace getColorSpace(COSObject indirect) throws IOException {
+			return get(this, indirect, PDColorSpace.class);
+		}
+
+		@Override
+		public PDExtendedGraphicsState getExtGState(COSObject indirect) {
+			return get(this, indirect, PDExtendedGraphicsState.class);
+		}
+
+		@Override
+		public PDShading getShading(COSObject indirect) throws IOException {
+			return get(this, indirect, PDShading.class);
+		}
+
+		@Override
+		public PDAbstractPattern getPattern(COSObject indirect) throws IOException {
+			return get(this, indirect, PDAbstractPattern.class);
+		}
+
+		@Override
+		public PDPropertyList getProperties(COSObject indirect) {
+			return get(this, indirect, PDPropertyList.class);
+		}
+
+		@Override
+		public PDXObject getXObject(COSObject indirect) throws IOException {
+			return get(this, indirect, PDXObject.class);
+		}
+
+		@Override
+		public void put(COSObject indirect, PDFont font) throws IOException {
+			SharedResourceCache.this.put(this, indirect, font, estimateSize(font));
+		}
+
+		@Override
+		public void put(COSObject indirect, PDColorSpace colorSpace) throws IOException {
+			SharedResourceCache.this.put(this, indirect, colorSpace, estimateSize(colorSpace));
+		}
+
+		@Override
+		public void put(COSObject indirect, PDExtendedGraphicsState extGState) {
+			SharedResourceCache.this.put(this, indirect, extGState, SMALL_RESOURCE_SIZE);
+		}
+
+		@Override
+		public void put(COSObject indirect, PDShading shading) throws IOException {
+			SharedResourceCache.this.put(this, indirect, shading, SMALL_RESOURCE_SIZE);
+		}
+
+		@Override
+		public void put(COSObject indirect, PDAbstractPattern pattern) throws IOException {
+			SharedResourceCache.this.put(this, indirect, pattern, SMALL_RESOURCE_SIZE);
+		}
+
+		@Override
+		public void put(COSObject indirect, PDPropertyList propertyList) {
+			SharedResourceCache.this.put(this, indirect, propertyList, SMALL_RESOURCE_SIZE);
+		}
+
+		@Override
+		public void put(COSObject indirect, PDXObject xobject) throws IOException {
+			SharedResourceCache.this.put(this, indirect, xobject, estimateSize(xobject));
+		}
+
+		private void endLeases() {
+			for (Entry entry : leases) {
+				if (entry.lessee == owner) {
+					entry.lessee = null;
+				}
+			}
+			leases.clear();
+			unshared.clear();
+		}
+	}
+
+	private static final long SMALL_RESOURCE_SIZE = 256;
+	private static final long ICC_COLOR_SPACE_SIZE = 4 * 1024;
+	private static final long DEFAULT_FONT_SIZE = 16 * 1024;
+	/**
+	 * Parsed fonts take up more room than their embedded font programs
+	 */
+	private static final long FONT_EXPANSION_FACTOR = 2;
+	private static final long BYTES_PER_DECODED_PIXEL = 4;
+	private static final long DEFAULT_BYTE_BUDGET =
+			Math.min(128L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+
+	private static final SharedResourceCache INSTANCE = new SharedResourceCache(DEFAULT_BYTE_BUDGET);
+
+	/*
+	 * access-ordered, so iteration starts at the least recently used resource
+	 */
+	private final Map<ResourceKey, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+	private long byteBudget;
+	private long bytesInUse = 0;
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long evictionCount = 0;
+
+	private SharedResourceCache(long byteBudget) {
+		this.byteBudget = byteBudget;
+	}
+
+	/**
+	 * Gets the cache shared by the whole application.
+	 * @return the shared resource cache
+	 */
+	public static SharedResourceCache getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Makes a document look up its resources in this cache, sharing them with no other document.
+	 * @param doc the document
+	 */
+	public void installOn(@NotNull PDDocument doc) {
+		installOn(doc, doc);
+	}
+
+	/**
+	 * Makes a document look up its resources in this cache, sharing them with every other
+	 * document installed with an equal source identity. Such a document must call
+	 * {@link #endLeases(PDDocument)} whenever it stops rendering, so that the others may use
+	 * the resources it found.
+	 * @param doc the document
+	 * @param sourceIdentity identifies what the document was loaded from; see {@link #identify(DocumentSource)}
+	 */
+	public void installOn(@NotNull PDDocument doc, @NotNull Object sourceIdentity) {
+		doc.setResourceCache(this.new DocumentView(doc, sourceIdentity));
+	}
+
+	/**
+	 * Gets an identity for a document's source file, equal for every copy of the document
+	 * loaded from the same contents of the same file.
+	 * @param source where the document was loaded from
+	 * @return a source identity for {@link #installOn(PDDocument, Object)}
+	 */
+	public static Object identify(@NotNull DocumentSource source) {
+		final File file = source.getFile().getAbsoluteFile();
+		final String fingerprint = source.getFingerprint_rNull();
+		if (fingerprint != null) {
+			return Arrays.asList(file, fingerprint);
+		}
+		return Arrays.asList(file, file.length(), file.lastModified());
+	}
+
+	/**
+	 * Frees the resources a document has been using, so that other documents sharing them may use
+	 * them in turn. Must be called from the thread using the document, when it has stopped rendering.
+	 * @param doc the document
+	 */
+	public synchronized void endLeases(@NotNull PDDocument doc) {
+		if (doc.getResourceCache() instanceof DocumentView) {
+			((DocumentView)doc.getResourceCache()).endLeases();
+		}
+	}
+
+	/**
+	 * Drops every resource belonging to a document. Should be called when the document is closed.
+	 * @param doc the document
+	 */
+	public synchronized void release(@NotNull PDDocument doc) {
+		endLeases(doc);
+		final Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			final Entry entry = it.next();
+			if (entry.owner == doc) {
+				bytesInUse -= entry.size;
+				it.remove();
+			}
+		}
+	}
+
+	private synchronized <T> T get(DocumentView view, COSObject indirect, Class<T> type) {
+		if (indirect == null) {
+			/*
+			 * only resources that are indirect objects can be identified
+			 */
+			return null;
+		}
+		final ResourceKey key = new ResourceKey(view.sourceIdentity, indirect);
+		final Object unshared = view.unshared.get(key);
+		if (type.isInstance(unshared)) {
+			hitCount++;
+			return type.cast(unshared);
+		}
+
+		final Entry entry = entries.get(key);
+		if (entry == null || !type.isInstance(entry.resource)
+				|| (entry.lessee != null && entry.lessee != view.owner)) {
+			missCount++;
+			return null;
+		}
+		if (entry.lessee == null) {
+			entry.lessee = view.owner;
+			view.leases.add(entry);
+		}
+		hitCount++;
+		return type.cast(entry.resource);
+	}
+
+	private synchronized void put(DocumentView view, COSObject indirect, Object resource, long size) {
+		if (indirect == null) {
+			return;
+		}
+		final ResourceKey key = new ResourceKey(view.sourceIdentity, indirect);
+		final Entry previous = entries.get(key);
+		if (previous != null && previous.lessee != null && previous.lessee != view.owner) {
+			/*
+			 * another copy is using the shared resource; keep this one to ourselves until our job ends
+			 */
+			view.unshared.put(key, resource);
+			return;
+		}
+		if (size > byteBudget) {
+			return;
+		}
+		final Entry entry = new Entry(view.owner, resource, size);
+		entry.lessee = view.owner;
+		view.leases.add(entry);
+		entries.put(key, entry);
+		if (previous != null) {
+			bytesInUse -= previous.size;
+		}
+		bytesInUse += size;
+		evictToBudget();
+	}
+
+	/**
+	 * Changes the estimated number of bytes of resources this cache may hold.
+	 * If the cache currently holds more than the new budget, resources are evicted immediately.
+	 * @param byteBudget the new budget, in bytes
+	 * @throws IllegalArgumentException if {@code byteBudget} is negative
+	 */
+	public synchronized void setByteBudget(long byteBudget) {
+		if (byteBudget < 0) {
+			throw new IllegalArgumentException("Resource cache byte budget may not be negative.");
+		}
+		this.byteBudget = byteBudget;
+		evictToBudget();
+	}
+
+	private void evictToBudget() {
+		final Iterator<Entry> it = entries.values().iterator();
+		while (bytesInUse > byteBudget && it.hasNext()) {
+			bytesInUse -= it.next().size;
+			it.remove();
+			evictionCount++;
+		}
+	}
+
+	public synchronized long getByteBudget() {
+		return byteBudget;
+	}
+
+	/**
+	 * @return the estimated number of bytes used by the resources currently in the cache
+	 */
+	public synchronized long getBytesInUse() {
+		return bytesInUse;
+	}
+
+	/**
+	 * @return the number of lookups that found a cached resource
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * @return the number of lookups that did not find a cached resource
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * @return the number of resources evicted to stay within budget
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SharedResourceCache[entries=" + entries.size() + ", bytes=" + bytesInUse + "/" + byteBudget
+				+ ", hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount + "]";
+	}
+
+	private static long estimateSize(PDFont font) {
+		final PDFontDescriptor descriptor = font.getFontDescriptor();
+		if (descriptor == null) {
+			return DEFAULT_FONT_SIZE;
+		}
+		PDStream fontFile = descriptor.getFontFile();
+		if (fontFile == null) {
+			fontFile = descriptor.getFontFile2();
+		}
+		if (fontFile == null) {
+			fontFile = descriptor.getFontFile3();
+		}
+		if (fontFile == null) {
+			return DEFAULT_FONT_SIZE;
+		}
+		return Math.max(DEFAULT_FONT_SIZE, fontFile.getLength() * FONT_EXPANSION_FACTOR);
+	}
+
+	private static long estimateSize(PDColorSpace colorSpace) {
+		if (colorSpace instanceof PDICCBased) {
+			return ICC_COLOR_SPACE_SIZE;
+		}
+		return SMALL_RESOURCE_SIZE;
+	}
+
+	private static long estimateSize(PDXObject xobject) {
+		if (xobject instanceof PDImageXObject) {
+			final PDImageXObject image = (PDImageXObject)xobject;
+			return Math.max(SMALL_RESOURCE_SIZE, (long)image.getWidth() * image.getHeight() * BYTES_PER_DECODED_PIXEL);
+		}
+		return SMALL_RESOURCE_SIZE;
+	}
+}
@@ -0,0 +1,57 @@
+package com.github.kjburns.pdfmarker;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.pdmodel.font.FontMappers;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+/**
+ * Does the one-off initialization that would otherwise hold up the first page rendered after launch,
+ * on a low priority background thread, while the user is still choosing a document.
+ * <p>
+ * By far the largest part is PdfBox's font mapping: the first time a pdf uses a font it does not embed,
+ * PdfBox scans every font installed on the system, or reads the cache of a previous scan, before it can
+ * pick a substitute. The metrics of the standard 14 fonts are loaded as well, and the png codec that
+ * reads page images kept from earlier sessions. If a page is rendered before warming up has finished,
+ * it simply waits for the part it needs, so no work is done twice.
+ * </p>
+ * @author Kevin J. Burns, P.E.
+ *
+ */
+final class StartupWarmup {
+	private StartupWarmup() {
+		// static methods only
+	}
+
+	/**
+	 * Starts warming up in the background. Returns immediately.
+	 */
+	public static void start() {
+		final Thread thread = new Thread(StartupWarmup::warmUp, "startup-warmup");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	private static void warmUp() {
+		try {
+			/*
+			 * loads the metrics of all of the standard 14 fonts
+			 */
+			PDType1Font.HELVETICA.getName();
+
+			/*
+			 * looking up any font makes the font mapper build, or read back, its cache of system fonts
+			 */
+			FontMappers.instance().getFontBoxFont("Helvetica", null);
+
+			ImageIO.getImageReadersByFormatName("png").hasNext();
+		} catch (RuntimeException e) {
+			/*
+			 * nothing is lost; the first render will do the same work
+			 */
+			System.err.println("Unable to warm up font subsystem at startup.");
+			e.printStackTrace();
+		}
+	}
+}